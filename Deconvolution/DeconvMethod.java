@@ -0,0 +1,106 @@
+package miatool.plugins;
+
+/**
+ * Define the methods of deconvolution
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public enum DeconvMethod {
+	/** Simple regularied least square algorithm */
+	SIMPLE_RLS("Simple regularized least square"),
+
+	/**
+	 * The regularized least squared algorithm translated from MATLAB
+	 * build-in function
+	 */
+	MAT_RLS("Matlab regularized least square"),
+
+	/**
+	 * Added modifying factor to the numerator of the deconvolution factor
+	 */
+	MODIFIED_RLS("Modified regularized least square"),
+
+	/** Added a weight to each element in the deconvolution factor */
+	WEIGHTED_RLS("Weighted regularized least square"),
+
+	/** Agard algorithm */
+	AGARD("Agard algorithm"),
+
+	/** Richardson_Lucy algorithm */
+	RICHARDSON_LUCY("Richardson-Lucy algorithm"),
+
+	/** Accelerated Richardson-Lucy algorithm */
+	ACCEL_RICHARDSON_LUCY("Accelerated Richardson-Lucy algorithm"),
+
+	/**
+	 * Richardson-Lucy algorithm accelerated by the squared extrapolation
+	 * of SQUAREM, with the step length backtracked to keep the
+	 * I-divergence decreasing
+	 */
+	SQUAREM_RICHARDSON_LUCY("SQUAREM accelerated Richardson-Lucy"),
+
+	/**
+	 * Scaled gradient projection with Barzilai-Borwein step lengths, it
+	 * is only available in double precision
+	 */
+	SCALED_GRADIENT_PROJECTION("Scaled gradient projection");
+
+	private final String method;
+
+	DeconvMethod(final String str) {
+		this.method = str;
+	}
+
+	/**
+	 * 
+	 * @return the deconvolution method
+	 */
+	public String getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * find the method for the input string
+	 * 
+	 * @return the deconvolution method
+	 */
+	public static DeconvMethod findMethod(final String input) {
+		if (input == null)
+			return null;
+
+		DeconvMethod method = null;
+		if (input.equals(SIMPLE_RLS.getMethod()))
+			method = SIMPLE_RLS;
+		if (input.equals(MAT_RLS.getMethod()))
+			method = MAT_RLS;
+		if (input.equals(MODIFIED_RLS.getMethod()))
+			method = MODIFIED_RLS;
+		if (input.equals(WEIGHTED_RLS.getMethod()))
+			method = WEIGHTED_RLS;
+		if (input.equals(AGARD.getMethod()))
+			method = AGARD;
+		if (input.equals(RICHARDSON_LUCY.getMethod()))
+			method = RICHARDSON_LUCY;
+		if (input.equals(ACCEL_RICHARDSON_LUCY.getMethod()))
+			method = ACCEL_RICHARDSON_LUCY;
+		if (input.equals(SQUAREM_RICHARDSON_LUCY.getMethod()))
+			method = SQUAREM_RICHARDSON_LUCY;
+		if (input.equals(SCALED_GRADIENT_PROJECTION.getMethod()))
+			method = SCALED_GRADIENT_PROJECTION;
+		return method;
+	}
+
+	/**
+	 * @return True if the method is iterative, which is Agard,
+	 *         Richardson-Lucy, an accelerated Richardson-Lucy or the
+	 *         scaled gradient projection
+	 */
+	public boolean isIterative() {
+		return this == AGARD
+			|| this == RICHARDSON_LUCY
+			|| this == ACCEL_RICHARDSON_LUCY
+			|| this == SQUAREM_RICHARDSON_LUCY
+			|| this == SCALED_GRADIENT_PROJECTION;
+	}
+}
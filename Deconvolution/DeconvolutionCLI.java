@@ -0,0 +1,387 @@
+package miatool.plugins;
+
+import static miatool.plugins.DeconvolutionEngine.subtractBackgrounds;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Command line entry point of the DeconvolutionEngine. The image and the psf
+ * are read from a multi-page TIFF file or a folder of TIFF files, one plane
+ * per page in the order of the file names, and their backgrounds are
+ * subtracted as in the DeconvolutionPlugin. The deconvolved planes are
+ * quantised and written by a pool of I/O threads as 16 bit TIFF files
+ * s1_1.tif, s1_2.tif, ... in the output folder, or as the pages of one
+ * multi-page TIFF file with --stack. The metrics of each iteration and the
+ * time of loading, deconvolution and saving are printed.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class DeconvolutionCLI {
+
+	/** The usage printed when the arguments are wrong */
+	public static final String USAGE = String.join(
+		System.lineSeparator(),
+		"Usage: DeconvolutionCLI --image <tif|dir> --psf <tif|dir> --out <dir>",
+		"  [--method <" + Arrays.toString(DeconvMethod.values()) + ">]",
+		"  [--iterations <n>] [--reg <item>] [--bg <background>]",
+		"  [--change-tol <tol>] [--divergence-tol <tol>] [--time-budget <ms>]",
+		"  [--precision <DOUBLE|FLOAT>] [--threads <n>]",
+		"  [--padding <NONE|ZERO|MIRROR>] [--tile <n,h,w>]",
+		"  [--out-of-core <dir>] [--otf-cache <dir>] [--vector <true|false>]",
+		"  [--io-threads <n>] [--stack <file name>] [--dither <true|false>]");
+
+	public static void main(final String[] args) {
+		try {
+			run(parseOptions(args));
+		}
+		catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		catch (final IOException | UncheckedIOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Load the image and the psf, deconvolve the image and save the result
+	 * 
+	 * @param options
+	 *        The values of the options by their names without the dashes
+	 * 
+	 * @throws IOException
+	 *         If a file cannot be read or written
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If an option is missing or wrong
+	 */
+	private static void run(final Map<String, String> options)
+			throws IOException {
+		final File outDir = new File(getRequired(options, "out"));
+		final DeconvolutionEngine engine = makeEngine(options);
+
+		// load the planes and subtract their backgrounds
+		long start = System.currentTimeMillis();
+		final double[][][] img
+			= readPlanes(new File(getRequired(options, "image")));
+		final double[][][] psf
+			= readPlanes(new File(getRequired(options, "psf")));
+		subtractBackgrounds(img);
+		subtractBackgrounds(psf);
+
+		int h = 0;
+		int w = 0;
+		for (final double[][] plane : img) {
+			h = Math.max(h, plane.length);
+			w = Math.max(w, plane[0].length);
+		}
+		final int n = Math.max(img.length, psf.length);
+		System.out.printf(
+			"Loaded %d x %d x %d image and %d plane psf in %d ms%n",
+			img.length,
+			h,
+			w,
+			psf.length,
+			System.currentTimeMillis() - start);
+
+		// deconvolve in memory, or in mapped files out of core
+		start = System.currentTimeMillis();
+		final VolumeStore result;
+		final VolumeStore imgStore = engine.makeVolume(n, h, w);
+		try {
+			for (int j = 0; j < img.length; j++) {
+				imgStore.writePlane(j, img[j]);
+				img[j] = null;
+			}
+			result = engine.deconvolve(imgStore, psf);
+		}
+		finally {
+			if (imgStore instanceof MappedVolumeStore)
+				((MappedVolumeStore) imgStore).close();
+		}
+		System.out.printf(
+			"Deconvolved with %s in %d ms%n",
+			engine.getMethod(),
+			System.currentTimeMillis() - start);
+
+		// save the planes in the I/O threads
+		start = System.currentTimeMillis();
+		try {
+			writePlanes(result, img.length, outDir, options);
+		}
+		finally {
+			if (result instanceof MappedVolumeStore)
+				((MappedVolumeStore) result).close();
+		}
+		System.out.printf(
+			"Saved %d planes to %s in %d ms%n",
+			img.length,
+			outDir.getPath(),
+			System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * @param options
+	 *        The values of the options by their names without the dashes
+	 * 
+	 * @return The engine configured with the options
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If an option is wrong
+	 */
+	private static DeconvolutionEngine makeEngine(
+			final Map<String, String> options) {
+		final DeconvolutionEngine engine = new DeconvolutionEngine();
+		engine.setIterationListener(System.out::println);
+
+		if (options.containsKey("method"))
+			engine.setMethod(DeconvMethod.valueOf(options.get("method")));
+		if (options.containsKey("iterations"))
+			engine.setIterations(Integer.parseInt(options.get("iterations")));
+		if (options.containsKey("change-tol"))
+			engine.setChangeTolerance(
+				Double.parseDouble(options.get("change-tol")));
+		if (options.containsKey("divergence-tol"))
+			engine.setDivergenceTolerance(
+				Double.parseDouble(options.get("divergence-tol")));
+		if (options.containsKey("time-budget"))
+			engine.setTimeBudget(Long.parseLong(options.get("time-budget")));
+		if (options.containsKey("reg"))
+			engine.setRegularization(Double.parseDouble(options.get("reg")));
+		if (options.containsKey("bg"))
+			engine.setBackground(Double.parseDouble(options.get("bg")));
+		if (options.containsKey("precision"))
+			engine.setPrecision(
+				engine.getMethod(),
+				Precision.valueOf(options.get("precision")));
+		if (options.containsKey("threads"))
+			DeconvolutionEngine.setSharedThreads(
+				Integer.parseInt(options.get("threads")));
+		if (options.containsKey("vector"))
+			DeconvolutionEngine.setVectorKernels(
+				Boolean.parseBoolean(options.get("vector")));
+		if (options.containsKey("padding"))
+			engine.setPaddingFill(
+				PaddingPlan.Fill.valueOf(options.get("padding")));
+		if (options.containsKey("out-of-core"))
+			engine.setOutOfCoreDirectory(new File(options.get("out-of-core")));
+		if (options.containsKey("otf-cache"))
+			engine.setOTFCacheDirectory(new File(options.get("otf-cache")));
+
+		if (options.containsKey("tile")) {
+			final String[] sizes = options.get("tile").split(",");
+			if (sizes.length != 3)
+				throw new IllegalArgumentException(
+					"The tile size should be n,h,w");
+
+			engine.setTileSize(
+				Integer.parseInt(sizes[0].trim()),
+				Integer.parseInt(sizes[1].trim()),
+				Integer.parseInt(sizes[2].trim()));
+		}
+
+		return engine;
+	}
+
+	/**
+	 * Parse the arguments of the form --name value
+	 * 
+	 * @param args
+	 * 
+	 * @return The values of the options by their names without the dashes
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If an argument is not an option or an option has no value
+	 */
+	private static Map<String, String> parseOptions(final String[] args) {
+		final Map<String, String> result = new HashMap<>();
+		for (int i = 0; i < args.length; i += 2) {
+			if (!args[i].startsWith("--") || i + 1 >= args.length)
+				throw new IllegalArgumentException(
+					"Wrong argument " + args[i]);
+
+			result.put(args[i].substring(2), args[i + 1]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The value of a required option
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the option is missing
+	 */
+	private static String getRequired(
+			final Map<String, String> options,
+			final String name) {
+		final String value = options.get(name);
+		if (value == null)
+			throw new IllegalArgumentException("Missing option --" + name);
+		return value;
+	}
+
+	/**
+	 * Read the planes of a multi-page TIFF file, or of the TIFF files of a
+	 * folder in the order of their names
+	 * 
+	 * @param path
+	 *        The TIFF file or the folder
+	 * 
+	 * @return The jagged 3D matrix of the planes
+	 * 
+	 * @throws IOException
+	 *         If a file cannot be read
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If there is no plane
+	 */
+	private static double[][][] readPlanes(final File path)
+			throws IOException {
+		final File[] files;
+		if (path.isDirectory()) {
+			files = path.listFiles((dir, name) -> {
+				final String lower = name.toLowerCase();
+				return lower.endsWith(".tif") || lower.endsWith(".tiff");
+			});
+			Arrays.sort(files);
+		}
+		else {
+			files = new File[] { path };
+		}
+
+		final List<double[][]> result = new ArrayList<>();
+		for (final File file : files)
+			readPlanes(file, result);
+
+		if (result.isEmpty())
+			throw new IllegalArgumentException(
+				"No TIFF image in " + path.getPath());
+
+		return result.toArray(new double[result.size()][][]);
+	}
+
+	/**
+	 * Read the pages of a TIFF file
+	 * 
+	 * @param file
+	 *        The TIFF file
+	 * 
+	 * @param planes
+	 *        The list to add the pages to
+	 * 
+	 * @throws IOException
+	 *         If the file cannot be read
+	 */
+	private static void readPlanes(
+			final File file,
+			final List<double[][]> planes)
+			throws IOException {
+		final Iterator<ImageReader> readers
+			= ImageIO.getImageReadersByFormatName("tiff");
+		if (!readers.hasNext())
+			throw new IOException("There is no TIFF reader");
+
+		final ImageReader reader = readers.next();
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			if (input == null)
+				throw new IOException("Cannot open " + file.getPath());
+
+			reader.setInput(input);
+			final int pages = reader.getNumImages(true);
+			for (int i = 0; i < pages; i++) {
+				final Raster raster = reader.read(i).getRaster();
+				final int height = raster.getHeight();
+				final int width = raster.getWidth();
+				final double[][] plane = new double[height][width];
+				for (int y = 0; y < height; y++)
+					raster.getSamples(0, y, width, 1, 0, plane[y]);
+				planes.add(plane);
+			}
+		}
+		finally {
+			reader.dispose();
+		}
+	}
+
+	/**
+	 * Write the planes of a volume as 16 bit TIFF files, scaled with the
+	 * maximum of the whole volume as in the DeconvolutionPlugin. The planes
+	 * are read in this thread and quantised and written by the I/O threads.
+	 * 
+	 * @param volume
+	 *        The deconvolved volume
+	 * 
+	 * @param planes
+	 *        The number of planes to write
+	 * 
+	 * @param outDir
+	 *        The output folder, it is created if it does not exist
+	 * 
+	 * @param options
+	 *        The number of I/O threads and the name of the multi-page file
+	 * 
+	 * @throws IOException
+	 *         If a file cannot be written
+	 */
+	private static void writePlanes(
+			final VolumeStore volume,
+			final int planes,
+			final File outDir,
+			final Map<String, String> options)
+			throws IOException {
+		if (!outDir.isDirectory() && !outDir.mkdirs())
+			throw new IOException("Cannot create " + outDir.getPath());
+
+		final int ioThreads = options.containsKey("io-threads")
+			? Integer.parseInt(options.get("io-threads"))
+			: PlaneLoader.DEFAULT_IO_THREADS;
+		final TiffStackWriter stack = options.containsKey("stack")
+			? new TiffStackWriter(new File(outDir, options.get("stack")))
+			: null;
+
+		final PlaneQuantiser quantiser = new PlaneQuantiser(
+			volume.max(),
+			Boolean.parseBoolean(options.get("dither")));
+		try (PlaneWriter writer
+			= new PlaneWriter(ioThreads, PlaneWriter.DEFAULT_QUEUE_LENGTH)) {
+			for (int j = 0; j < planes; j++) {
+				final int index = j;
+				final double[][] plane = volume.readPlane(j);
+				writer.submit(() -> {
+					if (stack != null) {
+						stack.writePlane(
+							index,
+							quantiser.quantise(plane),
+							plane[0].length,
+							plane.length);
+						return;
+					}
+
+					final String fileName
+						= "s1_" + Integer.toString(index + 1) + ".tif";
+					quantiser.write(
+						plane,
+						new File(outDir, fileName).getPath());
+				});
+			}
+		}
+		finally {
+			if (stack != null)
+				stack.close();
+		}
+	}
+}
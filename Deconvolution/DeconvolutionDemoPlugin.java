@@ -4,7 +4,6 @@ import static miatool.core.miatooldirectory.MIAToolDirectory.IMAGES_DIR;
 import static miatool.core.util.MIAUtil.buildPath;
 import static miatool.core.util.numerics.MIAMatOps.linearize;
 import static miatool.core.util.numerics.MIAMatOps.max;
-import static miatool.plugins.DeconvolutionPlugin.DeconvMethod;
 import static javafx.scene.control.Alert.AlertType;
 import static miatool.plugins.DeconvolutionDemoPlugin.StructureSimulation.Shape;
 import static miatool.core.util.numerics.MIAMatOps.copy;
@@ -12,8 +11,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import javax.swing.JMenuItem;
 import com.sun.javafx.application.PlatformImpl;
 import javafx.application.Platform;
@@ -35,6 +32,7 @@ import miatool.core.util.miatiff.MIATIFFWriter;
 import miatool.miamain.MIATool;
 import miatool.miamain.MIAToolHub;
 import miatool.miamain.MIAToolMain;
+import miatool.modules.parallel.ComputeScheduler;
 import miatool.plugins.MIAPlugin;
 import miatool.tools.displaytool.ImageSetBrowser;
 import miatool.ui.events.MIAPropertyChangeEvent;
@@ -127,7 +125,9 @@ public class DeconvolutionDemoPlugin
 			DeconvMethod.WEIGHTED_RLS.getMethod(),
 			DeconvMethod.AGARD.getMethod(),
 			DeconvMethod.RICHARDSON_LUCY.getMethod(),
-			DeconvMethod.ACCEL_RICHARDSON_LUCY.getMethod());
+			DeconvMethod.ACCEL_RICHARDSON_LUCY.getMethod(),
+			DeconvMethod.SQUAREM_RICHARDSON_LUCY.getMethod(),
+			DeconvMethod.SCALED_GRADIENT_PROJECTION.getMethod());
 		deconvMethodCb.setPrefWidth(250);
 		proBar = new ProgressBar(0);
 		proBar.setPrefWidth(200);
@@ -450,6 +450,14 @@ public class DeconvolutionDemoPlugin
 				deconvolved = deconv
 					.deconvolutionRL(convolved, psfMatrix, method, 0, 10);
 				break;
+			case SQUAREM_RICHARDSON_LUCY:
+				deconvolved = deconv
+					.deconvolutionRL(convolved, psfMatrix, method, 0, 10);
+				break;
+			case SCALED_GRADIENT_PROJECTION:
+				deconvolved = deconv
+					.deconvolutionRL(convolved, psfMatrix, method, 0, 10);
+				break;
 		}
 		proBar.setProgress(0.8);
 
@@ -561,7 +569,7 @@ public class DeconvolutionDemoPlugin
 
 			// linearize data
 			double[] linData = linearize(input[j]);
-			short[] sData = DeconvolutionPlugin.convertToInt16(linData, max);
+			short[] sData = DeconvolutionEngine.convertToInt16(linData, max);
 
 			// make file names
 			final String fileName = "s1_" + Integer.toString(j + 1) + ".tif";
@@ -640,17 +648,13 @@ public class DeconvolutionDemoPlugin
 		final int wc = wm + (wp / 2) * 2;
 
 		final double[][][] result = new double[nc][hc][wc];
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < nm; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
+		ComputeScheduler.getShared().forRange(0, nm, z -> {
 			for (int x = 0; x < wm; x++) {
 				for (int y = 0; y < hm; y++) {
 					final int xc = x + wp / 2;
 					final int yc = y + hp / 2;
-					final int zc = tuple + np / 2;
-					result[zc][yc][xc] = structMatrix[tuple][y][x];
+					final int zc = z + np / 2;
+					result[zc][yc][xc] = structMatrix[z][y][x];
 				}
 			}
 		});
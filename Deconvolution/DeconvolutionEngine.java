@@ -0,0 +1,2331 @@
+package miatool.plugins;
+
+import static miatool.core.util.numerics.MIAMatOps.add;
+import static miatool.core.util.numerics.MIAMatOps.max;
+import static miatool.core.util.numerics.MIAMatOps.rescaleI;
+import static miatool.core.util.numerics.MIAMatOps.toShort;
+import static miatool.core.util.numerics.MIAMatOps.truncate;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Supplier;
+import miatool.core.setssingles.image.ImageSingle;
+import miatool.core.util.PixelCoordinates;
+import miatool.modules.estimation.nonparametric.NonParametricBackgroundMethod;
+import miatool.modules.estimation.nonparametric.NonParametricBackgroundMethod.Default.CalculationMethod;
+import miatool.modules.estimation.nonparametric.NonParametricBackgroundMethod.Default.ExtractionMethod;
+import miatool.modules.parallel.ComputeScheduler;
+import pl.edu.icm.jlargearrays.ConcurrencyUtils;
+
+/**
+ * The deconvolution of image volumes with a psf, without a user interface.
+ * An engine is configured with the method, the number of iterations, the
+ * regularization item, the precision, the padding, the tiling, the OTF cache
+ * and the number of threads, and then deconvolves volumes in memory or in
+ * volume stores. The DeconvolutionPlugin and the DeconvolutionCLI are clients
+ * of the engine.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class DeconvolutionEngine {
+
+	/** the minimum value Epsilon from MatLab */
+	public static final double EPS = 2.220446049250313e-16;
+
+	/** The number of iterations of the iterative methods by default */
+	public static final int DEFAULT_ITERATIONS = 10;
+
+	/** The regularization item of the least square methods by default */
+	public static final double DEFAULT_REG_ITEM = 1e-7;
+
+	/** The rows and columns of a tile of the out-of-core deconvolution */
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	/** The size limit of the OTF cache by default, 1 GB */
+	public static final long DEFAULT_OTF_CACHE_BYTES = 1L << 30;
+
+	/** The extraction of the background pixels of the planes */
+	static final ExtractionMethod BACKGROUND_EXTRACTION
+		= ExtractionMethod.EDGES;
+
+	/** The estimation of the background from the background pixels */
+	static final CalculationMethod BACKGROUND_CALCULATION
+		= CalculationMethod.MEDIAN;
+
+	/**
+	 * The background estimation of the planes, in the key of the OTF cache
+	 * as the psf planes are stored with their background
+	 */
+	static final String BACKGROUND_METHOD
+		= BACKGROUND_EXTRACTION + " " + BACKGROUND_CALCULATION;
+
+	/** The number of times a SQUAREM step is shortened before a plain RL */
+	static final int MAX_BACKTRACKS = 3;
+
+	/** The deconvolution method */
+	private DeconvMethod method = DeconvMethod.RICHARDSON_LUCY;
+
+	/** The maximum number of iterations of the iterative methods */
+	private int iterations = DEFAULT_ITERATIONS;
+
+	/** The tolerance of the relative change of the estimate, 0 if not used */
+	private double changeTolerance = 0;
+
+	/** The tolerance of the relative change of the divergence, 0 if not used */
+	private double divergenceTolerance = 0;
+
+	/** The time budget of the iterations of a volume, 0 if not used */
+	private long timeBudgetMillis = 0;
+
+	/** Receives the metrics of each iteration, null if not used */
+	private Consumer<IterationMetrics> iterationListener = null;
+
+	/** The regularization item of the least square methods */
+	private double regItem = DEFAULT_REG_ITEM;
+
+	/** The background of the iterative methods */
+	private double background = 0;
+
+	/** The precision of each deconvolution method, double if not set */
+	private final EnumMap<DeconvMethod, Precision> precisions
+		= new EnumMap<>(DeconvMethod.class);
+
+	/** The fill of the padding around the volumes in the deconvolution */
+	private PaddingPlan.Fill paddingFill = PaddingPlan.Fill.MIRROR;
+
+	/** The number of planes of a tile, the volume is not split if not set */
+	private int tileN = 0;
+
+	/** The number of rows of a tile, the volume is not split if not set */
+	private int tileH = 0;
+
+	/** The number of columns of a tile, the volume is not split if not set */
+	private int tileW = 0;
+
+	/**
+	 * The directory of the memory-mapped volumes of the out-of-core
+	 * deconvolution, the volumes are kept in memory if it is null
+	 */
+	private File outOfCoreDir = null;
+
+	/** The directory of the OTF cache, the cache is not used if it is null */
+	private File otfCacheDir = null;
+
+	/** The size limit of the OTF cache, the cache is not used if zero */
+	private long otfCacheBytes = DEFAULT_OTF_CACHE_BYTES;
+
+	/** The number of threads, the shared scheduler is used if zero */
+	private int threads = 0;
+
+	/** The scheduler of the number of threads, null for the shared one */
+	private ComputeScheduler scheduler = null;
+
+	/** Receives the completion of a deconvolution between 0 and 1 */
+	private DoubleConsumer progressListener = progress -> {};
+
+	/** Constructor */
+	public DeconvolutionEngine() {
+		super();
+	}
+
+	/**
+	 * @param deconvMethod
+	 *        The deconvolution method
+	 */
+	public void setMethod(final DeconvMethod deconvMethod) {
+		if (deconvMethod == null)
+			throw new IllegalArgumentException(
+				"The deconvolution method should not be null");
+
+		method = deconvMethod;
+	}
+
+	/**
+	 * @return The deconvolution method
+	 */
+	public DeconvMethod getMethod() {
+		return method;
+	}
+
+	/**
+	 * @param iterations
+	 *        The maximum number of iterations of the iterative methods
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the number is not positive
+	 */
+	public void setIterations(final int iterations) {
+		if (iterations < 1)
+			throw new IllegalArgumentException(
+				"The number of iterations should be positive");
+
+		this.iterations = iterations;
+	}
+
+	/**
+	 * @return The maximum number of iterations of the iterative methods
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Set the tolerance of the relative change of the estimate. The
+	 * iterative methods stop when the norm of the update of an iteration is
+	 * smaller than the tolerance times the norm of the estimate.
+	 * 
+	 * @param tolerance
+	 *        The tolerance, zero to not use it
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the tolerance is negative
+	 */
+	public void setChangeTolerance(final double tolerance) {
+		if (tolerance < 0)
+			throw new IllegalArgumentException(
+				"The tolerance should not be negative");
+
+		changeTolerance = tolerance;
+	}
+
+	/**
+	 * Set the tolerance of the relative change of the I-divergence of the
+	 * image from the reblurred estimate, which is the negative Poisson
+	 * log-likelihood up to a constant. The iterative methods stop when the
+	 * divergence changes by less than the tolerance times its value in an
+	 * iteration.
+	 * 
+	 * @param tolerance
+	 *        The tolerance, zero to not use it
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the tolerance is negative
+	 */
+	public void setDivergenceTolerance(final double tolerance) {
+		if (tolerance < 0)
+			throw new IllegalArgumentException(
+				"The tolerance should not be negative");
+
+		divergenceTolerance = tolerance;
+	}
+
+	/**
+	 * Set the time budget of the iterations of a volume, or of a tile in the
+	 * tiled deconvolution. The iterative methods stop after the iteration
+	 * that spends the budget.
+	 * 
+	 * @param millis
+	 *        The budget in milliseconds, zero to not use it
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the budget is negative
+	 */
+	public void setTimeBudget(final long millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException(
+				"The time budget should not be negative");
+
+		timeBudgetMillis = millis;
+	}
+
+	/**
+	 * @param listener
+	 *        Receives the metrics of each iteration of the iterative methods,
+	 *        it can be called from several threads at once in the tiled
+	 *        deconvolution, null to not compute the metrics unless a
+	 *        tolerance is set
+	 */
+	public void setIterationListener(
+			final Consumer<IterationMetrics> listener) {
+		iterationListener = listener;
+	}
+
+	/**
+	 * @param regItem
+	 *        The regularization item of the least square methods
+	 */
+	public void setRegularization(final double regItem) {
+		this.regItem = regItem;
+	}
+
+	/**
+	 * @return The regularization item of the least square methods
+	 */
+	public double getRegularization() {
+		return regItem;
+	}
+
+	/**
+	 * @param bg
+	 *        The background of the iterative methods
+	 */
+	public void setBackground(final double bg) {
+		background = bg;
+	}
+
+	/**
+	 * Set the floating point precision of a deconvolution method
+	 * 
+	 * @param deconvMethod
+	 *        The deconvolution method
+	 * 
+	 * @param precision
+	 *        The precision of the volumes, the spectra and the FFTs
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If single precision is asked for a method that is not iterative
+	 *         or for the scaled gradient projection
+	 */
+	public void setPrecision(
+			final DeconvMethod deconvMethod,
+			final Precision precision) {
+		if (precision == Precision.FLOAT && !deconvMethod.isIterative())
+			throw new IllegalArgumentException(
+				"Single precision is only available for the iterative methods");
+		if (precision == Precision.FLOAT
+			&& deconvMethod == DeconvMethod.SCALED_GRADIENT_PROJECTION)
+			throw new IllegalArgumentException(
+				"Single precision is not available for the scaled gradient "
+					+ "projection");
+
+		precisions.put(deconvMethod, precision);
+	}
+
+	/**
+	 * @return The floating point precision of a deconvolution method
+	 */
+	public Precision getPrecision(final DeconvMethod deconvMethod) {
+		return precisions.getOrDefault(deconvMethod, Precision.DOUBLE);
+	}
+
+	/**
+	 * Set the fill of the padding around the volumes in the deconvolution.
+	 * The volumes are padded to sizes that the FFT handles fast with a guard
+	 * band of half of the psf, and the result is cropped back. With
+	 * {@link PaddingPlan.Fill#NONE} the volumes are not padded.
+	 * 
+	 * @param fill
+	 *        The fill of the padding
+	 */
+	public void setPaddingFill(final PaddingPlan.Fill fill) {
+		paddingFill = fill;
+	}
+
+	/**
+	 * @return The fill of the padding around the volumes in the deconvolution
+	 */
+	public PaddingPlan.Fill getPaddingFill() {
+		return paddingFill;
+	}
+
+	/**
+	 * Set the size of the tiles of the tiled deconvolution. The volume is
+	 * split into tiles that are extended by a margin of the size of the psf,
+	 * deconvolved in parallel and stitched with feathering, so the memory of
+	 * the FFTs is bounded by the size of the tiles. A dimension whose tile
+	 * size is not positive is not split, and the volume is deconvolved as a
+	 * whole if none is positive.
+	 * 
+	 * @param tileN
+	 *        The number of planes of a tile
+	 * 
+	 * @param tileH
+	 *        The number of rows of a tile
+	 * 
+	 * @param tileW
+	 *        The number of columns of a tile
+	 */
+	public void setTileSize(final int tileN, final int tileH, final int tileW) {
+		this.tileN = tileN;
+		this.tileH = tileH;
+		this.tileW = tileW;
+	}
+
+	/**
+	 * Set the directory of the out-of-core deconvolution. The clients keep
+	 * the image volume and the result in memory-mapped files in the directory
+	 * instead of the heap, and the volume is deconvolved tile by tile, so the
+	 * operating system pages the planes in and out as the tiles are
+	 * processed. The tiles are of DEFAULT_TILE_SIZE rows and columns unless
+	 * the tile size is set.
+	 * 
+	 * @param directory
+	 *        The directory of the mapped files, null to keep the volumes in
+	 *        memory
+	 */
+	public void setOutOfCoreDirectory(final File directory) {
+		outOfCoreDir = directory;
+	}
+
+	/**
+	 * @return The directory of the out-of-core deconvolution, null if the
+	 *         volumes are kept in memory
+	 */
+	public File getOutOfCoreDirectory() {
+		return outOfCoreDir;
+	}
+
+	/**
+	 * Set the directory of the OTF cache. The optical transfer functions of
+	 * the psf are kept in the directory, keyed by the content of the psf
+	 * planes, the size of the padded volume and the precision, so a repeated
+	 * job with the same psf does not transform it again.
+	 * 
+	 * @param directory
+	 *        The directory of the OTF cache, null to not use the cache
+	 */
+	public void setOTFCacheDirectory(final File directory) {
+		otfCacheDir = directory;
+	}
+
+	/**
+	 * Set the size limit of the OTF cache. The functions used least recently
+	 * are deleted when the cache is larger than the limit.
+	 * 
+	 * @param bytes
+	 *        The size limit in bytes, zero to not use the cache
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the size limit is negative
+	 */
+	public void setOTFCacheSize(final long bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException(
+				"The size of the cache should not be negative");
+
+		otfCacheBytes = bytes;
+	}
+
+	/**
+	 * Set the number of threads of the deconvolution. The parallel loops and
+	 * the tiles of a deconvolution run in a ComputeScheduler of the number of
+	 * threads, or in the shared scheduler if it is zero. The scheduler of the
+	 * former number is shut down, the deconvolutions running in it finish
+	 * there.
+	 * 
+	 * The FFTs are not held to the number: JTransforms starts its own threads
+	 * for a large transform, as many as its global ConcurrencyUtils setting,
+	 * which is shared by all the engines and only set by
+	 * {@link #setSharedThreads(int)}. To keep a deconvolution to a budget, set
+	 * the shared threads to the budget as well.
+	 * 
+	 * @param threads
+	 *        The number of threads, zero for the shared scheduler
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the number is negative
+	 */
+	public void setThreads(final int threads) {
+		if (threads < 0)
+			throw new IllegalArgumentException(
+				"The number of threads should not be negative");
+
+		final ComputeScheduler old = scheduler;
+		this.threads = threads;
+		scheduler = threads == 0 ? null : new ComputeScheduler(threads);
+		if (old != null)
+			old.shutdown();
+	}
+
+	/**
+	 * @return The number of threads, zero for the shared scheduler
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of threads of the shared ComputeScheduler, which runs
+	 * the engines without a number of threads of their own, and the number of
+	 * threads of JTransforms to the same budget
+	 * 
+	 * @param threads
+	 *        The thread budget
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the budget is smaller than 1
+	 */
+	public static void setSharedThreads(final int threads) {
+		ComputeScheduler.setSharedThreads(threads);
+		ConcurrencyUtils.setNumberOfThreads(threads);
+	}
+
+	/**
+	 * Select the SIMD vector kernels or the scalar kernels of the element-wise
+	 * passes of all the engines, the complex products and quotients of the
+	 * spectra and the ratios and positive products of the Richardson-Lucy
+	 * iterations. The vector kernels are selected by default if the module
+	 * jdk.incubator.vector is available and the vectors of the processor are
+	 * 256 bits or longer, otherwise the scalar kernels are used.
+	 * 
+	 * @param vector
+	 *        True for the vector kernels
+	 * 
+	 * @return True if the vector kernels are used
+	 */
+	public static boolean setVectorKernels(final boolean vector) {
+		return ElementKernels.select(vector);
+	}
+
+	/**
+	 * @return True if the vector kernels are used
+	 */
+	public static boolean isVectorKernels() {
+		return ElementKernels.get() != ElementKernels.SCALAR;
+	}
+
+	/**
+	 * @param listener
+	 *        Receives the completion of a deconvolution between 0 and 1, it
+	 *        can be called from several threads at once, null to not report
+	 *        the progress
+	 */
+	public void setProgressListener(final DoubleConsumer listener) {
+		progressListener = listener == null ? progress -> {} : listener;
+	}
+
+	/**
+	 * Deconvolve a jagged 3D matrix with the configured method. The matrix is
+	 * made rectangular and extended to the number of planes of the psf if it
+	 * has fewer planes.
+	 * 
+	 * @param rawImg
+	 *        The jagged 3D matrix of the image set
+	 * 
+	 * @param psf
+	 *        The jagged 3D matrix of the psf set, its background subtracted
+	 * 
+	 * @return The 3D matrix of the deconvolved image set
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the planes of the image are smaller than the psf
+	 */
+	public double[][][] deconvolve(
+			final double[][][] rawImg,
+			final double[][][] psf) {
+		int h = 0;
+		int w = 0;
+		for (final double[][] plane : rawImg) {
+			h = Math.max(h, plane.length);
+			w = Math.max(w, plane[0].length);
+		}
+
+		final int n = Math.max(rawImg.length, psf.length);
+		return deconvolve(Volume3D.fromMatrix(rawImg, n, h, w), psf)
+			.toMatrix();
+	}
+
+	/**
+	 * Deconvolve an image volume with the configured method
+	 * 
+	 * @param img
+	 *        The image volume, it is not modified
+	 * 
+	 * @param psf
+	 *        The jagged 3D matrix of the psf set, its background subtracted
+	 * 
+	 * @return The deconvolved volume of the size of the image volume
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the image volume is smaller than the psf
+	 */
+	public Volume3D deconvolve(final Volume3D img, final double[][][] psf) {
+		final TransferCache otfs = makeTransferCache(psf);
+		checkSize(img.n, img.h, img.w, otfs);
+
+		return deconvolve(img, otfs, makeDeconvolution());
+	}
+
+	/**
+	 * Deconvolve an image volume in a store tile by tile with the configured
+	 * method, so only the blocks in flight are kept in memory. The volume is
+	 * split into tiles of DEFAULT_TILE_SIZE rows and columns if the tile
+	 * size is not set.
+	 * 
+	 * @param img
+	 *        The image volume
+	 * 
+	 * @param result
+	 *        The volume of the same size filled with zeros, to store the
+	 *        deconvolved volume
+	 * 
+	 * @param psf
+	 *        The jagged 3D matrix of the psf set, its background subtracted
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volumes are of different sizes or smaller than the psf
+	 */
+	public void deconvolve(
+			final VolumeStore img,
+			final VolumeStore result,
+			final double[][][] psf) {
+		final TransferCache otfs = makeTransferCache(psf);
+		checkSize(img.getN(), img.getH(), img.getW(), otfs);
+
+		deconvolve(img, result, otfs, makeDeconvolution());
+	}
+
+	/**
+	 * Deconvolve an image volume in a store with the configured method, in
+	 * memory if it is a Volume3D, otherwise tile by tile into a mapped volume
+	 * in the out-of-core directory
+	 * 
+	 * @param img
+	 *        The image volume, such as one made by {@link #makeVolume}
+	 * 
+	 * @param psf
+	 *        The jagged 3D matrix of the psf set, its background subtracted
+	 * 
+	 * @return The deconvolved volume of the size of the image volume, the
+	 *         caller closes it if it is a MappedVolumeStore
+	 * 
+	 * @throws IOException
+	 *         If the mapped volume cannot be created
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the image volume is smaller than the psf
+	 */
+	public VolumeStore deconvolve(
+			final VolumeStore img,
+			final double[][][] psf)
+			throws IOException {
+		final TransferCache otfs = makeTransferCache(psf);
+		checkSize(img.getN(), img.getH(), img.getW(), otfs);
+
+		return deconvolve(img, otfs, makeDeconvolution());
+	}
+
+	/**
+	 * Make a volume filled with zeros to load an image into, in a mapped file
+	 * in the out-of-core directory if it is set, otherwise in memory
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @return The volume, a MappedVolumeStore is closed by the caller
+	 * 
+	 * @throws IOException
+	 *         If the mapped file cannot be created
+	 */
+	public VolumeStore makeVolume(final int n, final int h, final int w)
+			throws IOException {
+		final File dir = outOfCoreDir;
+		if (dir == null)
+			return new Volume3D(n, h, w);
+
+		return new MappedVolumeStore(n, h, w, dir);
+	}
+
+	/**
+	 * @return The deconvolution of a padded volume with the configured
+	 *         method, later changes of the configuration do not affect it
+	 */
+	BlockDeconvolution makeDeconvolution() {
+		final DeconvMethod deconvMethod = method;
+		if (deconvMethod.isIterative()) {
+			final StoppingRule rule = new StoppingRule(
+				iterations,
+				changeTolerance,
+				divergenceTolerance,
+				timeBudgetMillis);
+			final double bg = background;
+			return (img, otf) -> deconvolutionRL(
+				img,
+				otf,
+				deconvMethod,
+				bg,
+				rule);
+		}
+
+		final double reg = regItem;
+		return (img, otf) -> deconvolutionLsq(img, otf, deconvMethod, reg);
+	}
+
+	/**
+	 * @return True if the OTF cache is used
+	 */
+	boolean isOTFCacheUsed() {
+		return otfCacheDir != null && otfCacheBytes > 0;
+	}
+
+	/**
+	 * Make the optical transfer functions of a psf set in the precision of
+	 * the configured method, with the OTF cache if it is used
+	 * 
+	 * @param psf
+	 *        The jagged 3D matrix of the psf set, its background subtracted
+	 * 
+	 * @return The optical transfer functions
+	 */
+	TransferCache makeTransferCache(final double[][][] psf) {
+		return makeTransferCache(psf, () -> psf);
+	}
+
+	/**
+	 * Make the optical transfer functions of a psf set in the precision of
+	 * the configured method, with the OTF cache if it is used. The psf set is
+	 * only loaded when a function is not in the cache.
+	 * 
+	 * @param rawPsf
+	 *        The jagged 3D matrix of the psf set as it is stored, the key of
+	 *        the OTF cache, it has the size of the loaded psf set
+	 * 
+	 * @param loader
+	 *        Loads the jagged 3D matrix of the psf set to transform
+	 * 
+	 * @return The optical transfer functions
+	 */
+	TransferCache makeTransferCache(
+			final double[][][] rawPsf,
+			final Supplier<double[][][]> loader) {
+		final OTFCache otfCache = isOTFCacheUsed()
+			? new OTFCache(otfCacheDir, otfCacheBytes)
+			: null;
+		return new TransferCache(
+			rawPsf,
+			loader,
+			otfCache,
+			getPrecision(method));
+	}
+
+	/**
+	 * Deconvolve an image volume as a whole, or tile by tile in parallel if
+	 * the tile size is set, in the threads of the engine
+	 * 
+	 * @param img
+	 *        The image volume
+	 * 
+	 * @param psf
+	 *        The optical transfer functions of the psf
+	 * 
+	 * @param deconvolution
+	 *        Deconvolves a padded image volume with the optical transfer
+	 *        function of the same size
+	 * 
+	 * @return The deconvolved volume of the size of the image volume
+	 */
+	Volume3D deconvolve(
+			final Volume3D img,
+			final TransferCache psf,
+			final BlockDeconvolution deconvolution) {
+		if (tileN <= 0 && tileH <= 0 && tileW <= 0)
+			return run(() -> deconvolvePadded(img, psf, deconvolution));
+
+		final TiledDeconvolution tiling = new TiledDeconvolution(
+			tileN,
+			tileH,
+			tileW,
+			psf.n,
+			psf.h,
+			psf.w);
+		return run(() -> tiling.deconvolve(
+			img,
+			block -> deconvolvePadded(block, psf, deconvolution)));
+	}
+
+	/**
+	 * Deconvolve an image volume in a store, in memory if it is a Volume3D,
+	 * otherwise tile by tile into a mapped volume in the out-of-core
+	 * directory
+	 * 
+	 * @param img
+	 *        The image volume
+	 * 
+	 * @param psf
+	 *        The optical transfer functions of the psf
+	 * 
+	 * @param deconvolution
+	 *        Deconvolves a padded image volume with the optical transfer
+	 *        function of the same size
+	 * 
+	 * @return The deconvolved volume of the size of the image volume, the
+	 *         caller closes it if it is a MappedVolumeStore
+	 * 
+	 * @throws IOException
+	 *         If the mapped volume cannot be created
+	 */
+	VolumeStore deconvolve(
+			final VolumeStore img,
+			final TransferCache psf,
+			final BlockDeconvolution deconvolution)
+			throws IOException {
+		if (img instanceof Volume3D)
+			return deconvolve((Volume3D) img, psf, deconvolution);
+
+		final MappedVolumeStore result = new MappedVolumeStore(
+			img.getN(),
+			img.getH(),
+			img.getW(),
+			outOfCoreDir);
+		try {
+			deconvolve(img, result, psf, deconvolution);
+		}
+		catch (final RuntimeException e) {
+			result.close();
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Deconvolve an image volume in a store tile by tile into another store
+	 * in the threads of the engine. The volume is split into tiles of
+	 * DEFAULT_TILE_SIZE rows and columns if the tile size is not set.
+	 * 
+	 * @param img
+	 *        The image volume
+	 * 
+	 * @param result
+	 *        The volume of the same size filled with zeros, to store the
+	 *        deconvolved volume
+	 * 
+	 * @param psf
+	 *        The optical transfer functions of the psf
+	 * 
+	 * @param deconvolution
+	 *        Deconvolves a padded image volume with the optical transfer
+	 *        function of the same size
+	 */
+	void deconvolve(
+			final VolumeStore img,
+			final VolumeStore result,
+			final TransferCache psf,
+			final BlockDeconvolution deconvolution) {
+		final boolean isTiled = tileN > 0 || tileH > 0 || tileW > 0;
+		final TiledDeconvolution tiling = new TiledDeconvolution(
+			isTiled ? tileN : 0,
+			isTiled ? tileH : DEFAULT_TILE_SIZE,
+			isTiled ? tileW : DEFAULT_TILE_SIZE,
+			psf.n,
+			psf.h,
+			psf.w);
+
+		run(() -> {
+			tiling.deconvolve(
+				img,
+				result,
+				block -> deconvolvePadded(block, psf, deconvolution));
+			return result;
+		});
+	}
+
+	/**
+	 * Pad an image volume with the guard band of the psf, deconvolve it and
+	 * crop the result back
+	 * 
+	 * @param img
+	 *        The image volume
+	 * 
+	 * @param psf
+	 *        The optical transfer functions of the psf
+	 * 
+	 * @param deconvolution
+	 *        Deconvolves a padded image volume with the optical transfer
+	 *        function of the same size
+	 * 
+	 * @return The deconvolved volume of the size of the image volume
+	 */
+	private Volume3D deconvolvePadded(
+			final Volume3D img,
+			final TransferCache psf,
+			final BlockDeconvolution deconvolution) {
+		final PaddingPlan plan = new PaddingPlan(
+			img.n,
+			img.h,
+			img.w,
+			psf.n,
+			psf.h,
+			psf.w,
+			paddingFill);
+		final OpticalTransfer otf = psf.get(plan.padN, plan.padH, plan.padW);
+
+		return plan.crop(deconvolution.apply(plan.pad(img), otf));
+	}
+
+	/**
+	 * Run a job in the scheduler of the engine, or in the shared scheduler if
+	 * the number of threads is not set, so its parallel loops and streams
+	 * run in the pool of the scheduler
+	 * 
+	 * @param job
+	 * 
+	 * @return The result of the job
+	 */
+	private <T> T run(final Supplier<T> job) {
+		final ComputeScheduler current = scheduler;
+		return (current == null ? ComputeScheduler.getShared() : current)
+			.call(job);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *         If the volume of n x h x w is smaller than the psf
+	 */
+	private static void checkSize(
+			final int n,
+			final int h,
+			final int w,
+			final TransferCache psf) {
+		if (psf.n > n || psf.h > h || psf.w > w)
+			throw new IllegalArgumentException(
+				"The size of the image should be large than size of the psf.");
+	}
+
+
+	/**
+	 * Estimate background of a image single
+	 * 
+	 * @param imgSi
+	 *        image single
+	 * 
+	 * @return The background value
+	 */
+	public static double getBackground(final ImageSingle<?> imgSi) {
+		// get pixel data and pixel coordinates
+		final int width = imgSi.getWidth();
+		final int height = imgSi.getHeight();
+		final PixelCoordinates[] pCoordinates = new PixelCoordinates[1];
+		final double[][] pData = new double[1][];
+		pCoordinates[0] = new PixelCoordinates(height, width);
+		pData[0] = imgSi.getPixelValues(pCoordinates[0]);
+
+		// calculate background
+		final NonParametricBackgroundMethod.Default npbMethod
+			= new NonParametricBackgroundMethod.Default();
+		npbMethod.calculationMethod = BACKGROUND_CALCULATION;
+		npbMethod.extractionMethod = BACKGROUND_EXTRACTION;
+		final double[] background
+			= npbMethod.getBackground(pData, pCoordinates);
+		return background[0];
+	}
+
+	/**
+	 * Estimate background of a image matrix as the median of its edge pixels,
+	 * the pixels of the first and last rows and columns. The matrix is not
+	 * wrapped in an image single and no memory is allocated for it, so the
+	 * planes of a set can be estimated in parallel.
+	 * 
+	 * @param input
+	 *        The image data, the rows are of the same length
+	 * 
+	 * @return The background value
+	 */
+	public static double getBackground(final double[][] input) {
+		return EdgeMedian.of(input);
+	}
+
+	/**
+	 * Estimate background of a 16 bit image as the median of its edge pixels,
+	 * counted in a histogram of the raw pixels
+	 * 
+	 * @param input
+	 *        The unsigned 16 bit pixels row by row
+	 * 
+	 * @param width
+	 * 
+	 * @param height
+	 * 
+	 * @return The background value
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the pixels do not match the size
+	 */
+	public static double getBackground(
+			final short[] input,
+			final int width,
+			final int height) {
+		return EdgeMedian.of(input, width, height);
+	}
+
+	/**
+	 * Subtract background from the image data, if an element in the result is
+	 * smaller than 0, set it to 0
+	 * 
+	 * @param input
+	 *        The image data
+	 * 
+	 * @param background
+	 *        The value of the background
+	 * 
+	 * @return The processed image data
+	 */
+	public static double[][] subtractBackground(
+			final double[][] input,
+			final double background) {
+		final double[][] result = add(input, -1.0 * background);
+		for (int i = 0; i < result.length; i++)
+			for (int j = 0; j < result[i].length; j++)
+				if (result[i][j] < 0)
+					result[i][j] = 0;
+		return result;
+	}
+
+	/**
+	 * Subtract the background of an image matrix, the median of its edge
+	 * pixels, if an element in the result is smaller than 0, set it to 0
+	 * 
+	 * @param input
+	 *        The image data
+	 * 
+	 * @return The processed image data
+	 */
+	public static double[][] subtractBackground(final double[][] input) {
+		return subtractBackground(input, getBackground(input));
+	}
+
+	/**
+	 * Subtract the backgrounds of the planes of a set, the median of the edge
+	 * pixels of each plane. The planes are estimated and subtracted in
+	 * parallel in the compute scheduler, a plane at a time.
+	 * 
+	 * @param planes
+	 *        The image matrices, each is replaced by the processed matrix
+	 */
+	public static void subtractBackgrounds(final double[][][] planes) {
+		ComputeScheduler.getShared().forRange(
+			0,
+			planes.length,
+			z -> planes[z] = subtractBackground(planes[z]));
+	}
+
+	/**
+	 * convert the elements of the input array into 16 bit integer
+	 * 
+	 * @param input
+	 *        The input array
+	 * 
+	 * @param max
+	 *        The maximum value in the 3D image matrix
+	 * 
+	 * @return An array of 16 bit integers
+	 */
+	public static short[] convertToInt16(
+			final double[] input,
+			final double max) {
+
+		// truncate the input array from 0
+		final double[] positive = truncate(input, max, 0);
+
+		/*
+		 * if the maximum value of the input array is larger than the upper
+		 * bound of short, re-scale the array.
+		 */
+		final double ub = 0x7FFF;
+		final double lb = 0;
+
+		if (max > ub) {
+
+			// re-scale the matrix of the current plane
+			final double localMax = max(input);
+			final double localUb = ub * localMax / max;
+			final double[] rescaled
+				= rescaleI(positive.clone(), lb, localUb);
+			final short[] result = toShort(rescaled);
+			return result;
+		}
+
+		return toShort(positive);
+	}
+
+	/**
+	 * Apply deconvolution using Richardson-Lucy algorithm with the optical
+	 * transfer function of the psf, which is only read
+	 * 
+	 * @param img
+	 *        The image volume, it is not modified
+	 * 
+	 * @param otf
+	 *        The optical transfer function of the psf volume of the same size
+	 * 
+	 * @param deconvMethod
+	 *        The deconvolution method
+	 * 
+	 * @param bg
+	 *        The background
+	 * 
+	 * @param rule
+	 *        The stopping rules of the iterations
+	 * 
+	 * @return The deconvolved image volume
+	 */
+	Volume3D deconvolutionRL(
+			final Volume3D img,
+			final OpticalTransfer otf,
+			final DeconvMethod deconvMethod,
+			final double bg,
+			final StoppingRule rule) {
+		// the iterations report their progress between 0.4 and 0.7
+		final StoppingRule.Monitor monitor = rule.start(
+			iterationListener,
+			progress -> showProgress(0.4 + 0.3 * progress));
+
+		if (otf.precision == Precision.FLOAT) {
+			// iterate in float
+			final FloatDeconvolutionRL engine
+				= new FloatDeconvolutionRL(img, otf, deconvMethod, bg, EPS);
+			showProgress(0.4);
+
+			final Volume3D result = engine.deconvolve(monitor);
+			showProgress(0.7);
+
+			return result;
+		}
+
+		if (deconvMethod == DeconvMethod.SCALED_GRADIENT_PROJECTION) {
+			// iterate with the scaled gradient projection
+			final SGPDeconvolution engine
+				= new SGPDeconvolution(img, otf, bg, EPS);
+			showProgress(0.4);
+
+			final Volume3D result = engine.deconvolve(monitor);
+			showProgress(0.7);
+
+			return result;
+		}
+
+		/*
+		 * the OTF is computed once for the job and its adjoint is applied on
+		 * the fly by Spectrum3D.multiplyConjI
+		 */
+		final Spectrum3D psfTrans = otf.getSpectrum();
+
+		showProgress(0.3);
+
+		// calculate initial value of the image matrix in the iteration
+		final Volume3D imgRaw = negativeToZero(img, 0);
+		final Volume3D imgIterIn = negativeToZero(img, -1.0 * bg);
+
+		// allocate the buffers of the iterations once for the whole job
+		final RLWorkspace ws = new RLWorkspace(
+			imgIterIn,
+			deconvMethod,
+			monitor.isMetricsNeeded()
+				|| deconvMethod == DeconvMethod.SQUAREM_RICHARDSON_LUCY);
+
+		showProgress(0.4);
+
+		// apply the deconvolution algorithms until a stopping rule is met
+		boolean isDone = false;
+		switch (deconvMethod) {
+			case AGARD:
+				while (!isDone) {
+					agardIteration(imgIterIn, psfTrans, imgRaw, ws);
+					isDone = next(monitor, ws);
+				}
+				break;
+			case RICHARDSON_LUCY:
+				while (!isDone) {
+					iterationRL(imgIterIn, psfTrans, imgRaw, bg, ws);
+					isDone = next(monitor, ws);
+				}
+				break;
+			case ACCEL_RICHARDSON_LUCY:
+
+				// this method require more than three iterations
+				if (monitor.getMaxIterations() < 3)
+					break;
+
+				// apply the first iteration, get item gY
+				ws.imgIterPre.copyFrom(imgIterIn);
+				iterationRL(imgIterIn, psfTrans, imgRaw, bg, ws);
+				difference(imgIterIn, ws.imgIterPre, ws.gY);
+				if (next(monitor, ws))
+					break;
+
+				// apply the second iteration, get item gX
+				ws.imgIterPre.copyFrom(imgIterIn);
+				iterationRL(imgIterIn, psfTrans, imgRaw, bg, ws);
+				difference(imgIterIn, ws.imgIterPre, ws.gX);
+				isDone = next(monitor, ws);
+
+				// apply the rest of the iterations
+				while (!isDone) {
+
+					/*
+					 * make the transformed image matrix for the LR iteration
+					 * in imgIterIn, keep the current value in imgIterPre
+					 */
+					makeImageMatrix(imgIterIn, ws.imgIterPre, ws.gX, ws.gY);
+
+					// gY takes gX, the buffer of gY keeps the input of RL
+					ws.rotateSteps();
+					ws.gX.copyFrom(imgIterIn);
+
+					// RL iteration
+					iterationRL(imgIterIn, psfTrans, imgRaw, bg, ws);
+
+					// refresh gX with the step of the RL iteration
+					difference(imgIterIn, ws.gX, ws.gX);
+					isDone = next(monitor, ws);
+				}
+				break;
+			case SQUAREM_RICHARDSON_LUCY:
+				while (!isDone) {
+					isDone = squaremCycle(
+						imgIterIn,
+						psfTrans,
+						imgRaw,
+						bg,
+						ws,
+						monitor);
+				}
+				break;
+			default:
+				break;
+		}
+
+		showProgress(0.7);
+
+		return imgIterIn;
+	}
+
+	/**
+	 * One cycle of the SQUAREM accelerated Richardson-Lucy algorithm. Two RL
+	 * iterations from x0 give the step r = x1 - x0 and the second difference
+	 * v = x2 - 2 x1 + x0, the estimate is extrapolated to
+	 * x0 - 2 alpha r + alpha^2 v with alpha = -|r| / |v|, and a third RL
+	 * iteration stabilizes it. While the I-divergence of the extrapolated
+	 * estimate is larger than the one of x0, alpha is halved toward -1, where
+	 * the extrapolation is the plain RL estimate x2, and the third iteration
+	 * is repeated. Every RL iteration is recorded by the monitor, so a cycle
+	 * stops as soon as a stopping rule is met.
+	 * 
+	 * @param imgIter
+	 *        The current value of the image matrix
+	 * 
+	 * @param psfTrans
+	 *        The Fourier transformed PSF
+	 * 
+	 * @param rawImg
+	 *        The original value of the image matrix
+	 * 
+	 * @param bg
+	 *        The background value
+	 * 
+	 * @param ws
+	 *        The buffers of the iteration, with the buffers of the metrics
+	 * 
+	 * @param monitor
+	 *        The monitor of the stopping rules
+	 * 
+	 * @return True if a stopping rule is met
+	 */
+	private boolean squaremCycle(
+			final Volume3D imgIter,
+			final Spectrum3D psfTrans,
+			final Volume3D rawImg,
+			final double bg,
+			final RLWorkspace ws,
+			final StoppingRule.Monitor monitor) {
+		// the first iteration, imgIterPre keeps x0 and gY takes r
+		ws.imgIterPre.copyFrom(imgIter);
+		iterationRL(imgIter, psfTrans, rawImg, bg, ws);
+		final double divergence = ws.getDivergence();
+		difference(imgIter, ws.imgIterPre, ws.gY);
+		if (next(monitor, ws))
+			return true;
+
+		// the second iteration, gX takes v
+		iterationRL(imgIter, psfTrans, rawImg, bg, ws);
+		secondDifference(imgIter, ws.imgIterPre, ws.gY, ws.gX);
+		if (next(monitor, ws))
+			return true;
+
+		// the step length, no shorter than the plain RL step
+		final double rNorm = VolumeKernels.dot(ws.gY, ws.gY);
+		final double vNorm = VolumeKernels.dot(ws.gX, ws.gX);
+		double alpha
+			= vNorm > 0 ? Math.min(-Math.sqrt(rNorm / vNorm), -1) : -1;
+
+		// extrapolate and stabilize, backtrack while the divergence increases
+		for (int backtrack = 0;; backtrack++) {
+			extrapolate(imgIter, ws.imgIterPre, ws.gY, ws.gX, alpha);
+			iterationRL(imgIter, psfTrans, rawImg, bg, ws);
+			if (next(monitor, ws))
+				return true;
+			if (alpha == -1 || ws.getDivergence() <= divergence)
+				return false;
+
+			alpha = backtrack < MAX_BACKTRACKS - 1 ? (alpha - 1) / 2 : -1;
+		}
+	}
+
+	/**
+	 * Record an iteration with the metrics in the buffers of the iteration
+	 * 
+	 * @return True if a stopping rule is met
+	 */
+	private static boolean next(
+			final StoppingRule.Monitor monitor,
+			final RLWorkspace ws) {
+		return monitor.next(ws.getRelativeChange(), ws.getDivergence());
+	}
+
+	/**
+	 * Apply deconvolution with image data and the optical transfer function
+	 * of the psf using regularized least square algorithm
+	 * 
+	 * @param img
+	 *        The image volume, it is not modified
+	 * 
+	 * @param otf
+	 *        The double precision optical transfer function of the psf volume
+	 *        of the same size, it is not modified
+	 * 
+	 * @param deconvMethod
+	 *        The deconvolution method
+	 * 
+	 * @param regItem
+	 *        The regularization item
+	 * 
+	 * @return The deconvolved image volume
+	 */
+	Volume3D deconvolutionLsq(
+			final Volume3D img,
+			final OpticalTransfer otf,
+			final DeconvMethod deconvMethod,
+			final double regItem)
+			throws IllegalArgumentException {
+
+		/*
+		 * Make fft to the image matrix, it is real so only the half spectrum
+		 * is kept, the spectrum of the psf is copied since it is modified
+		 */
+		final Volume3D imgIn = Volume3D.forFFT(img.n, img.h, img.w);
+		imgIn.copyFrom(img);
+		Spectrum3D imgTransMat = JTransforms3DUtil.rfft3D(imgIn);
+		final Spectrum3D psfTransMat = otf.getSpectrum().copy();
+		showProgress(0.4);
+
+		// make factors in the following calculation
+		Volume3D psfAbs = psfTransMat.getAbs();
+		final double psfMax = psfAbs.max();
+
+		Spectrum3D.divideI(psfTransMat, psfMax);
+		Volume3D psfNormAbs = psfTransMat.getAbs();
+		psfTransMat.getConjugateI();
+		Spectrum3D psfNormMat = Spectrum3D.fromReal(psfNormAbs, img.w);
+		Spectrum3D psfPow2 = Spectrum3D.power(psfNormMat, 2);
+		Spectrum3D psfPow4 = Spectrum3D.power(psfNormMat, 4);
+
+		psfAbs = null;
+		psfNormAbs = null;
+		psfNormMat = null;
+		showProgress(0.5);
+
+		// apply deconvolution algorithms
+		Spectrum3D deconvTrans = null;
+		switch (deconvMethod) {
+			case SIMPLE_RLS:
+				deconvTrans
+					= simpleRLS(imgTransMat, psfTransMat, psfPow2, regItem);
+				break;
+			case MAT_RLS:
+				deconvTrans
+					= matRLS(imgTransMat, psfTransMat, psfPow2, regItem);
+				break;
+			case MODIFIED_RLS:
+				deconvTrans
+					= modifiedRLS(
+						imgTransMat,
+						psfTransMat,
+						psfPow2,
+						psfPow4,
+						regItem);
+				break;
+			case WEIGHTED_RLS:
+				deconvTrans
+					= weightedRLS(
+						imgTransMat,
+						psfTransMat,
+						psfPow2,
+						regItem);
+				break;
+			default:
+				break;
+		}
+
+		imgTransMat = null;
+		psfPow2 = null;
+		psfPow4 = null;
+		showProgress(0.6);
+
+		// apply inverse fft to the result from the last step
+		final Volume3D deconvReal = JTransforms3DUtil.irfft3D(deconvTrans);
+		showProgress(0.7);
+
+		return deconvReal;
+	}
+
+	/**
+	 * iCircShift the psf matrix and normalize the matrix
+	 * 
+	 * @param input
+	 *        The psf volume
+	 * 
+	 * @param psfN
+	 *        The number of planes of the psf in the volume
+	 * 
+	 * @param psfH
+	 *        The number of rows of the psf in the volume
+	 * 
+	 * @param psfW
+	 *        The number of columns of the psf in the volume
+	 * 
+	 * @return The processed psf volume, the rows are padded for the in place
+	 *         FFT
+	 */
+	static Volume3D processPSF(
+			final Volume3D input,
+			final int psfN,
+			final int psfH,
+			final int psfW) {
+
+		// make circshift to the psf matrix
+		final int shiftZ = (int) Math.floor(psfN / 2);
+		final int shiftY = (int) Math.floor(psfH / 2);
+		final int shiftX = (int) Math.floor(psfW / 2);
+		final Volume3D psfShift
+			= Volume3D.forFFT(input.n, input.h, input.w);
+		iCircShift(input, psfShift, shiftZ, shiftY, shiftX);
+
+		// normalize psf matrix
+		final double psfSum = psfShift.sum();
+		psfShift.multiplyI(1 / psfSum);
+
+		return psfShift;
+	}
+
+	/**
+	 * Inverse circular shift to the counter-clockwise by shiftZ, shiftY,
+	 * shiftX to each dimension
+	 * 
+	 * @param input
+	 *        The volume to be shifted
+	 * 
+	 * @param result
+	 *        The volume of the same size to store the shifted volume
+	 * 
+	 * @param shiftZ
+	 * 
+	 * @param shiftY
+	 * 
+	 * @param shiftX
+	 */
+	private static void iCircShift(
+			final Volume3D input,
+			final Volume3D result,
+			final int shiftZ,
+			final int shiftY,
+			final int shiftX) {
+		final int n = input.n;
+		final int h = input.h;
+		final int w = input.w;
+
+		VolumeKernels.forRange(n, h * w, z -> {
+			final int zIndex = z < shiftZ ? z - shiftZ + n : z - shiftZ;
+			for (int y = 0; y < h; y++) {
+				final int yIndex = y < shiftY ? y - shiftY + h : y - shiftY;
+				final int offset = input.index(z, y, 0);
+				final int rOffset = result.index(zIndex, yIndex, 0);
+
+				for (int x = 0; x < w; x++) {
+					final int xIndex = x < shiftX ? x - shiftX + w : x - shiftX;
+					result.data[rOffset + xIndex] = input.data[offset + x];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Copy a row of a volume into the same row of another volume of the same
+	 * size
+	 * 
+	 * @param src
+	 *        The source volume
+	 * 
+	 * @param dst
+	 *        The destination volume
+	 * 
+	 * @param row
+	 *        The index of the row
+	 */
+	private static void copyRow(
+			final Volume3D src,
+			final Volume3D dst,
+			final int row) {
+		System.arraycopy(
+			src.data,
+			row * src.rowStride,
+			dst.data,
+			row * dst.rowStride,
+			src.w);
+	}
+
+	/**
+	 * Add the background to a row of the reblurred image and divide the raw
+	 * image by it in the same pass, zeros in the denominator are substituted
+	 * into EPS
+	 * 
+	 * @param rawImg
+	 *        The raw image volume
+	 * 
+	 * @param reblurred
+	 *        The reblurred image volume, it is overwritten by the ratio
+	 * 
+	 * @param bg
+	 *        The background value
+	 * 
+	 * @param row
+	 *        The index of the row
+	 * 
+	 * @param divergence
+	 *        The I-divergence of the raw image from the reblurred image of
+	 *        each row, the element of the row is set, null to not compute it
+	 */
+	private static void divideReblurredRow(
+			final Volume3D rawImg,
+			final Volume3D reblurred,
+			final double bg,
+			final int row,
+			final double[] divergence) {
+		final int rawOffset = row * rawImg.rowStride;
+		final int offset = row * reblurred.rowStride;
+
+		if (divergence == null) {
+			ElementKernels.get().ratio(
+				rawImg.data,
+				rawOffset,
+				reblurred.data,
+				offset,
+				reblurred.w,
+				bg,
+				EPS);
+			return;
+		}
+
+		double sum = 0;
+		for (int x = 0; x < reblurred.w; x++) {
+			final double raw = rawImg.data[rawOffset + x];
+			final double denor = reblurred.data[offset + x] + bg;
+			reblurred.data[offset + x] = raw / (denor == 0 ? EPS : denor);
+			sum += denor;
+			if (raw > 0)
+				sum += raw * Math.log(raw / Math.max(denor, EPS)) - raw;
+		}
+		divergence[row] = sum;
+	}
+
+	/**
+	 * Add an offset to the input volume and convert the negative elements to
+	 * zero
+	 * 
+	 * @param input
+	 * 
+	 * @param offset
+	 *        The value added to every element
+	 * 
+	 * @return The converted volume
+	 */
+	private Volume3D negativeToZero(final Volume3D input, final double offset) {
+		final Volume3D result = new Volume3D(input.n, input.h, input.w);
+
+		VolumeKernels.forRange(input.rows(), input.w, row -> {
+			final int offsetIn = row * input.rowStride;
+			final int offsetR = row * result.rowStride;
+
+			for (int x = 0; x < input.w; x++) {
+				final double value = input.data[offsetIn + x] + offset;
+				if (value >= 0)
+					result.data[offsetR + x] = value;
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Subtract y from x
+	 * 
+	 * @param x
+	 * 
+	 * @param y
+	 * 
+	 * @param result
+	 *        The volume to store the difference, it can be x or y
+	 */
+	private static void difference(
+			final Volume3D x,
+			final Volume3D y,
+			final Volume3D result) {
+		VolumeKernels.forRange(x.rows(), x.w, row -> {
+			final int xOffset = row * x.rowStride;
+			final int yOffset = row * y.rowStride;
+			final int rOffset = row * result.rowStride;
+
+			for (int i = 0; i < x.w; i++)
+				result.data[rOffset + i]
+					= x.data[xOffset + i] - y.data[yOffset + i];
+		});
+	}
+
+	/**
+	 * Calculate the second difference x2 - 2 x1 + x0 of two iterations from
+	 * x0, with x1 = x0 + r
+	 * 
+	 * @param x2
+	 *        The value after the second iteration
+	 * 
+	 * @param x0
+	 *        The value before the first iteration
+	 * 
+	 * @param r
+	 *        The step of the first iteration
+	 * 
+	 * @param result
+	 *        The volume to store the second difference
+	 */
+	private static void secondDifference(
+			final Volume3D x2,
+			final Volume3D x0,
+			final Volume3D r,
+			final Volume3D result) {
+		VolumeKernels.forRange(x2.rows(), x2.w, row -> {
+			final int offset = row * x2.rowStride;
+			final int x0Offset = row * x0.rowStride;
+			final int rOffset = row * r.rowStride;
+			final int resultOffset = row * result.rowStride;
+
+			for (int i = 0; i < x2.w; i++)
+				result.data[resultOffset + i] = x2.data[offset + i]
+					- x0.data[x0Offset + i] - 2 * r.data[rOffset + i];
+		});
+	}
+
+	/**
+	 * Extrapolate the image matrix to x0 - 2 alpha r + alpha^2 v in the
+	 * SQUAREM accelerated Richardson-Lucy algorithm, and convert the negative
+	 * elements to zero
+	 * 
+	 * @param imgIter
+	 *        The volume to store the extrapolated image matrix
+	 * 
+	 * @param x0
+	 *        The image matrix at the start of the cycle
+	 * 
+	 * @param r
+	 *        The step of the first iteration
+	 * 
+	 * @param v
+	 *        The second difference of the first two iterations
+	 * 
+	 * @param alpha
+	 *        The step length, not larger than -1
+	 */
+	private static void extrapolate(
+			final Volume3D imgIter,
+			final Volume3D x0,
+			final Volume3D r,
+			final Volume3D v,
+			final double alpha) {
+		VolumeKernels.forRange(imgIter.rows(), imgIter.w, row -> {
+			final int offset = row * imgIter.rowStride;
+			final int x0Offset = row * x0.rowStride;
+			final int rOffset = row * r.rowStride;
+			final int vOffset = row * v.rowStride;
+
+			for (int i = 0; i < imgIter.w; i++) {
+				final double value = x0.data[x0Offset + i]
+					- 2 * alpha * r.data[rOffset + i]
+					+ alpha * alpha * v.data[vOffset + i];
+				imgIter.data[offset + i] = value >= 0 ? value : 0;
+			}
+		});
+	}
+
+	/**
+	 * Prepare the image matrix data for the Richardson-Lucy iteration in the
+	 * accelerated Richardson-Lucy algorithm. The transformed image matrix is
+	 * written to imgIter and the current value of imgIter is moved to
+	 * imgIterPre, in the same pass.
+	 * 
+	 * @param imgIter
+	 *        The current value of the image matrix
+	 * 
+	 * @param imgIterPre
+	 *        The previous value of the image matrix
+	 * 
+	 * @param gX
+	 *        The first element in the acceleration factor calculation
+	 * 
+	 * @param gY
+	 *        The second element in the acceleration factor calculation
+	 */
+	private static void makeImageMatrix(
+			final Volume3D imgIter,
+			final Volume3D imgIterPre,
+			final Volume3D gX,
+			final Volume3D gY) {
+		// calculate the acceleration factor
+		final double alphaNumer = VolumeKernels.dot(gX, gY);
+		final double alphaDenor = VolumeKernels.dot(gY, gY);
+
+		// keep imgIter unchanged if the factor is out of range
+		final double alpha = alphaNumer / (alphaDenor + EPS);
+		if (alpha > 1 || alpha < 0) {
+			imgIterPre.copyFrom(imgIter);
+			return;
+		}
+
+		// calculate the transformed imgIter
+		VolumeKernels.forRange(imgIter.rows(), imgIter.w, row -> {
+			final int offset = row * imgIter.rowStride;
+			final int preOffset = row * imgIterPre.rowStride;
+
+			for (int i = 0; i < imgIter.w; i++) {
+				final double current = imgIter.data[offset + i];
+				final double value = current
+					+ alpha * (current - imgIterPre.data[preOffset + i]);
+				imgIter.data[offset + i] = value >= 0 ? value : 0;
+				imgIterPre.data[preOffset + i] = current;
+			}
+		});
+	}
+
+	/**
+	 * One iteration in Agard algorithm
+	 * 
+	 * @param imgIter
+	 *        The current value of the image matrix
+	 * 
+	 * @param psfTrans
+	 *        The Fourier transformed PSF
+	 * 
+	 * @param rawImg
+	 *        The original value of the image matrix
+	 * 
+	 * @param ws
+	 *        The buffers of the iteration
+	 * 
+	 * @return The image matrix after the current iteration
+	 */
+	private Volume3D agardIteration(
+			final Volume3D imgIter,
+			final Spectrum3D psfTrans,
+			final Volume3D rawImg,
+			final RLWorkspace ws) {
+
+		final Volume3D fft = ws.fft;
+
+		// calculate iteration factor, the ratio is taken row by row
+		final Spectrum3D imgIterTrans = JTransforms3DUtil.rfft3D(
+			fft,
+			row -> copyRow(imgIter, fft, row));
+		Spectrum3D.multiplyI(imgIterTrans, psfTrans);
+		final Volume3D iterFactor = JTransforms3DUtil.irfft3D(
+			imgIterTrans,
+			row -> divideReblurredRow(rawImg, fft, 0, row, ws.divergence));
+
+		// multiply the imgIter with the iteration factor
+		multiplyPositive(imgIter, iterFactor, ws);
+
+		return imgIter;
+	}
+
+	/**
+	 * One iteration in Richardson-Lucy algorithm
+	 * 
+	 * @param imgIter
+	 *        The current value of the image matrix
+	 * 
+	 * @param psfTrans
+	 *        The Fourier transformed PSF
+	 * 
+	 * @param rawImg
+	 *        The original value of the image matrix
+	 * 
+	 * @param bg
+	 *        The background value
+	 * 
+	 * @param ws
+	 *        The buffers of the iteration
+	 * 
+	 * @return The image matrix after the current iteration
+	 */
+	private Volume3D iterationRL(
+			final Volume3D imgIter,
+			final Spectrum3D psfTrans,
+			final Volume3D rawImg,
+			final double bg,
+			final RLWorkspace ws) {
+
+		final Volume3D fft = ws.fft;
+
+		/*
+		 * calculate transformation factor, the reblurred rows are divided as
+		 * soon as they are transformed back, while they are still in cache
+		 */
+		final Spectrum3D imgTrans = JTransforms3DUtil.rfft3D(
+			fft,
+			row -> copyRow(imgIter, fft, row));
+		Spectrum3D.multiplyI(imgTrans, psfTrans);
+		final Volume3D iterFactor = JTransforms3DUtil.irfft3D(
+			imgTrans,
+			row -> divideReblurredRow(rawImg, fft, bg, row, ws.divergence));
+
+		// calculate LR transformed image data and update imgIter row by row
+		final Spectrum3D factorMatTrans = JTransforms3DUtil.rfft3D(iterFactor);
+		Spectrum3D.multiplyConjI(factorMatTrans, psfTrans);
+		JTransforms3DUtil.irfft3D(
+			factorMatTrans,
+			row -> multiplyPositiveRow(imgIter, fft, row, ws));
+
+		return imgIter;
+	}
+
+	/**
+	 * Multiply the image volume with a factor volume in place, and convert
+	 * the negative elements to zero
+	 * 
+	 * @param imgIter
+	 *        The image volume
+	 * 
+	 * @param factor
+	 *        The factor volume of the same size
+	 * 
+	 * @param ws
+	 *        The buffers of the iteration, to store the change of each row
+	 */
+	private static void multiplyPositive(
+			final Volume3D imgIter,
+			final Volume3D factor,
+			final RLWorkspace ws) {
+		VolumeKernels.forRange(imgIter.rows(), imgIter.w, row -> {
+			multiplyPositiveRow(imgIter, factor, row, ws);
+		});
+	}
+
+	/**
+	 * Multiply a row of the image volume with the same row of a factor
+	 * volume in place, and convert the negative elements to zero
+	 * 
+	 * @param imgIter
+	 *        The image volume
+	 * 
+	 * @param factor
+	 *        The factor volume of the same size
+	 * 
+	 * @param row
+	 *        The index of the row
+	 * 
+	 * @param ws
+	 *        The buffers of the iteration, the squared norms of the update
+	 *        and of the image volume before it are stored for the row if
+	 *        the metrics are computed
+	 */
+	private static void multiplyPositiveRow(
+			final Volume3D imgIter,
+			final Volume3D factor,
+			final int row,
+			final RLWorkspace ws) {
+		final int offset = row * imgIter.rowStride;
+		final int fOffset = row * factor.rowStride;
+
+		if (ws.change == null) {
+			ElementKernels.get().multiplyPositive(
+				imgIter.data,
+				offset,
+				factor.data,
+				fOffset,
+				imgIter.w);
+			return;
+		}
+
+		double change = 0;
+		double norm = 0;
+		for (int x = 0; x < imgIter.w; x++) {
+			final double current = imgIter.data[offset + x];
+			final double value = current * factor.data[fOffset + x];
+			final double next = value < 0 ? 0 : value;
+			imgIter.data[offset + x] = next;
+			change += (next - current) * (next - current);
+			norm += current * current;
+		}
+		ws.change[row] = change;
+		ws.norm[row] = norm;
+	}
+
+	/**
+	 * Single regularized least square algorithm
+	 * 
+	 * @param img
+	 * 
+	 * @param psf
+	 * 
+	 * @param psfPow2
+	 * 
+	 * @param regItem
+	 *        Regularization item
+	 * 
+	 * @return Deconvolution factor
+	 */
+	private Spectrum3D simpleRLS(
+			final Spectrum3D img,
+			final Spectrum3D psf,
+			final Spectrum3D psfPow2,
+			final double regItem) {
+		// calculate numerator and denominator
+		Spectrum3D numor = Spectrum3D.multiply(psf, img);
+		Spectrum3D denor = Spectrum3D.add(psfPow2, regItem);
+
+		// divide denominator to numerator
+		Spectrum3D.divideI(numor, denor);
+		denor = null;
+
+		return numor;
+	}
+
+	/**
+	 * The regularized least square algorithm used in MATLAB
+	 * 
+	 * @param img
+	 * 
+	 * @param psf
+	 * 
+	 * @param psfPow2
+	 * 
+	 * @param regItem
+	 *        Regularization item
+	 * 
+	 * @return Deconvolution factor
+	 */
+	private Spectrum3D matRLS(
+			final Spectrum3D img,
+			final Spectrum3D psf,
+			final Spectrum3D psfPow2,
+			final double regItem) {
+		// calculate numerator and denominator
+		final Spectrum3D numor = Spectrum3D.multiply(psf, img);
+		final Spectrum3D denor = Spectrum3D.add(psfPow2, regItem);
+
+		// process denominator
+		final double oTiny = 5.0e-8;
+		Volume3D numorAbs = numor.getAbs();
+		final double numorMax = numorAbs.max();
+		final double oSmall = numorMax * oTiny;
+
+		VolumeKernels.forChunks(denor.length(), 1, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				if (denor.data[2 * i] < oSmall)
+					if (denor.data[2 * i] > 0)
+						denor.data[2 * i] = oSmall;
+					else
+						denor.data[2 * i] = -1.0 * oSmall;
+			}
+		});
+
+		// divide denominator to numerator
+		Spectrum3D.divideI(numor, denor);
+		numorAbs = null;
+
+		return numor;
+	}
+
+	/**
+	 * Modified regularized least square algorithm
+	 * 
+	 * @param img
+	 * 
+	 * @param psf
+	 * 
+	 * @param psfPow2
+	 * 
+	 * @param psfPow4
+	 * 
+	 * @param regItem
+	 *        Regularization item
+	 * 
+	 * @return Deconvolution factor
+	 */
+	private Spectrum3D modifiedRLS(
+			final Spectrum3D img,
+			final Spectrum3D psf,
+			final Spectrum3D psfPow2,
+			final Spectrum3D psfPow4,
+			final double regItem) {
+		// calculate numerator and denominator
+		Spectrum3D item = Spectrum3D.multiply(psf, img);
+		Spectrum3D numor = Spectrum3D.multiply(item, psfPow2);
+		Spectrum3D denor = Spectrum3D.add(psfPow4, regItem);
+
+		// divide denominator to numerator
+		Spectrum3D.divideI(numor, denor);
+		denor = null;
+		item = null;
+
+		return numor;
+	}
+
+	/**
+	 * Weighted regularized least square algorithm. The weight factor is not
+	 * symmetric, so the half spectrum of the result is made from the average
+	 * of the deconvolution factors at the frequency and its mirror, which
+	 * equals to the real part of the result on the full spectrum.
+	 * 
+	 * @param img
+	 * 
+	 * @param psf
+	 * 
+	 * @param psfPow2
+	 * 
+	 * @param regItem
+	 *        Regularization item
+	 * 
+	 * @return Deconvolution factor
+	 */
+	private Spectrum3D weightedRLS(
+			final Spectrum3D img,
+			final Spectrum3D psf,
+			final Spectrum3D psfPow2,
+			final double regItem) {
+		// calculate numerator
+		final Spectrum3D numor = Spectrum3D.multiply(psf, img);
+		final int n = numor.n;
+		final int h = numor.h;
+		final int w = numor.width;
+		final double factorDenor = n * n + h * h + w * w;
+		final double scale = 1 / factorDenor * 2 * Math.PI * 2 * regItem;
+
+		// divide the averaged weighted denominators to numerator
+		VolumeKernels.forRange(n, h * numor.w, z -> {
+			final double factorZ = weightItem(z, n);
+			final double mirrorZ = weightItem((n - z) % n, n);
+
+			for (int y = 0; y < h; y++) {
+				final double factorY = weightItem(y, h);
+				final double mirrorY = weightItem((h - y) % h, h);
+
+				for (int k = 0; k < numor.w; k++) {
+					final double factorX = weightItem(k, w);
+					final double mirrorX = weightItem((w - k) % w, w);
+					final int index = numor.index(z, y, k);
+
+					final double denor = psfPow2.data[index];
+					final double weight
+						= 0.5 / (denor + (factorZ + factorY + factorX) * scale)
+							+ 0.5
+								/ (denor
+									+ (mirrorZ + mirrorY + mirrorX) * scale);
+					numor.data[index] *= weight;
+					numor.data[index + 1] *= weight;
+				}
+			}
+		});
+
+		return numor;
+	}
+
+	/**
+	 * The squared distance to the center along one dimension of the weight
+	 * factor in the weighted regularized least square algorithm, after the
+	 * factor is ifftShifted
+	 * 
+	 * @param index
+	 *        The index in the ifftShifted factor
+	 * 
+	 * @param length
+	 *        The length of the dimension
+	 * 
+	 * @return The squared distance
+	 */
+	private static double weightItem(final int index, final int length) {
+		final int mid = length / 2;
+		final double item
+			= (index + mid) % length + 1 - Math.round((double) length / 2);
+		return item * item;
+	}
+
+	/**
+	 * Report the completion of a deconvolution to the progress listener
+	 * 
+	 * @param input
+	 *        The completion between 0 and 1
+	 */
+	private void showProgress(final double input) {
+		progressListener.accept(input);
+	}
+
+	/**
+	 * The optical transfer functions of the psf of a job, one for each size
+	 * of the padded volumes. Each is loaded from the OTF cache or computed on
+	 * first use, and then shared by the blocks and the stacks of the job.
+	 */
+	static final class TransferCache {
+
+		/** The number of planes of the psf */
+		final int n;
+
+		/** The number of rows of the psf */
+		final int h;
+
+		/** The number of columns of the psf */
+		final int w;
+
+		/** Loads the jagged 3D matrix of the psf set */
+		private final Supplier<double[][][]> loader;
+
+		/** The jagged 3D matrix of the psf set, null until it is loaded */
+		private double[][][] rawPsf;
+
+		/** The OTF cache, null if it is not used */
+		private final OTFCache otfCache;
+
+		/** The content hash of the psf planes in the OTF cache */
+		private final byte[] psfHash;
+
+		/** The precision of the optical transfer functions */
+		private final Precision precision;
+
+		/** The optical transfer functions by the size n, h, w */
+		private final ConcurrentHashMap<List<Integer>, OpticalTransfer> otfs
+			= new ConcurrentHashMap<>();
+
+		/**
+		 * Constructor of the optical transfer functions of a loaded psf set,
+		 * without the OTF cache
+		 * 
+		 * @param rawPsf
+		 *        The jagged 3D matrix of the psf set
+		 * 
+		 * @param precision
+		 *        The precision of the optical transfer functions
+		 */
+		TransferCache(final double[][][] rawPsf, final Precision precision) {
+			this(rawPsf, () -> rawPsf, null, precision);
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param storedPsf
+		 *        The jagged 3D matrix of the psf set as it is stored, it is
+		 *        hashed for the key of the OTF cache, and it has the size of
+		 *        the loaded psf set
+		 * 
+		 * @param loader
+		 *        Loads the jagged 3D matrix of the psf set, it is called once
+		 *        when a function is not in the OTF cache
+		 * 
+		 * @param otfCache
+		 *        The OTF cache, null to not use it
+		 * 
+		 * @param precision
+		 *        The precision of the optical transfer functions
+		 */
+		TransferCache(
+				final double[][][] storedPsf,
+				final Supplier<double[][][]> loader,
+				final OTFCache otfCache,
+				final Precision precision) {
+			int maxH = 0;
+			int maxW = 0;
+			for (final double[][] plane : storedPsf) {
+				maxH = Math.max(maxH, plane.length);
+				maxW = Math.max(maxW, plane[0].length);
+			}
+
+			n = storedPsf.length;
+			h = maxH;
+			w = maxW;
+			this.loader = loader;
+			this.otfCache = otfCache;
+			psfHash = otfCache == null ? null : OTFCache.hash(storedPsf);
+			this.precision = precision;
+		}
+
+		/**
+		 * @return The optical transfer function of the padded size padN x
+		 *         padH x padW, the threads asking for a size that is being
+		 *         computed wait for it
+		 * 
+		 * @throws UncheckedIOException
+		 *         If the function cannot be loaded from or stored in the OTF
+		 *         cache
+		 */
+		OpticalTransfer get(final int padN, final int padH, final int padW) {
+			final List<Integer> size = Arrays.asList(padN, padH, padW);
+			return otfs.computeIfAbsent(size, key -> {
+				try {
+					if (otfCache != null) {
+						final OpticalTransfer cached = otfCache
+							.load(psfHash, padN, padH, padW, precision);
+						if (cached != null)
+							return cached;
+					}
+
+					final Volume3D psf
+						= Volume3D.fromMatrix(getRawPsf(), padN, padH, padW);
+					final OpticalTransfer result = new OpticalTransfer(
+						processPSF(psf, n, h, w),
+						precision);
+					if (otfCache != null)
+						otfCache.store(psfHash, result);
+
+					return result;
+				}
+				catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+
+		/**
+		 * @return The jagged 3D matrix of the psf set, it is loaded once
+		 */
+		private synchronized double[][][] getRawPsf() {
+			if (rawPsf == null)
+				rawPsf = loader.get();
+			return rawPsf;
+		}
+	}
+
+	/** Deconvolves a padded volume with the optical transfer function */
+	@FunctionalInterface
+	static interface BlockDeconvolution {
+
+		/**
+		 * @param img
+		 *        The padded image volume, it is not modified
+		 * 
+		 * @param otf
+		 *        The optical transfer function of the size of the volume
+		 * 
+		 * @return The deconvolved volume of the same size
+		 */
+		Volume3D apply(Volume3D img, OpticalTransfer otf);
+	}
+
+	/**
+	 * The buffers of the Richardson-Lucy and Agard iterations. They are
+	 * allocated once per deconvolution job and reused by every iteration, so
+	 * an iteration does not allocate any volume.
+	 */
+	private static final class RLWorkspace {
+
+		/** The buffer of the FFTs, its rows are padded for the in place FFT */
+		final Volume3D fft;
+
+		/**
+		 * The previous value of the image matrix in the accelerated RL, the
+		 * value at the start of the cycle in SQUAREM
+		 */
+		final Volume3D imgIterPre;
+
+		/**
+		 * The last step of the image matrix in the accelerated RL, the
+		 * second difference in SQUAREM
+		 */
+		Volume3D gX;
+
+		/** The step before gX in the accelerated RL, the first in SQUAREM */
+		Volume3D gY;
+
+		/** The I-divergence of each row, null if it is not computed */
+		final double[] divergence;
+
+		/** The squared norm of the update of each row, null if not computed */
+		final double[] change;
+
+		/** The squared norm of each row before the update */
+		final double[] norm;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param img
+		 *        The image volume, only its size is used
+		 * 
+		 * @param deconvMethod
+		 *        The deconvolution method, the buffers of the acceleration
+		 *        are only allocated for the accelerated RL methods
+		 * 
+		 * @param isMetricsNeeded
+		 *        The buffers of the metrics are only allocated if true
+		 */
+		RLWorkspace(
+				final Volume3D img,
+				final DeconvMethod deconvMethod,
+				final boolean isMetricsNeeded) {
+			fft = Volume3D.forFFT(img.n, img.h, img.w);
+			divergence = isMetricsNeeded ? new double[img.rows()] : null;
+			change = isMetricsNeeded ? new double[img.rows()] : null;
+			norm = isMetricsNeeded ? new double[img.rows()] : null;
+
+			if (deconvMethod == DeconvMethod.ACCEL_RICHARDSON_LUCY
+				|| deconvMethod == DeconvMethod.SQUAREM_RICHARDSON_LUCY) {
+				imgIterPre = new Volume3D(img.n, img.h, img.w);
+				gX = new Volume3D(img.n, img.h, img.w);
+				gY = new Volume3D(img.n, img.h, img.w);
+			}
+			else {
+				imgIterPre = null;
+				gX = null;
+				gY = null;
+			}
+		}
+
+		/**
+		 * Rotate the ring of the steps, gY takes the buffer of gX and gX
+		 * takes the buffer of the oldest step to be overwritten
+		 */
+		void rotateSteps() {
+			final Volume3D oldest = gY;
+			gY = gX;
+			gX = oldest;
+		}
+
+		/**
+		 * @return The I-divergence of the last iteration, NaN if it is not
+		 *         computed
+		 */
+		double getDivergence() {
+			if (divergence == null)
+				return Double.NaN;
+
+			double result = 0;
+			for (final double value : divergence)
+				result += value;
+			return result;
+		}
+
+		/**
+		 * @return The relative change of the last iteration, NaN if it is not
+		 *         computed
+		 */
+		double getRelativeChange() {
+			if (change == null)
+				return Double.NaN;
+
+			double changeSum = 0;
+			double normSum = 0;
+			for (int row = 0; row < change.length; row++) {
+				changeSum += change[row];
+				normSum += norm[row];
+			}
+			return normSum > 0 ? Math.sqrt(changeSum / normSum) : 0;
+		}
+	}
+}
@@ -1,36 +1,25 @@
 package miatool.plugins;
 
 import static miatool.core.miatooldirectory.MIAToolDirectory.IMAGES_DIR;
-import static miatool.core.util.MIAUtil.buildPath;
-import static miatool.core.util.numerics.MIAMatOps.max;
-import static miatool.core.util.numerics.MIAMatOps.rescaleI;
 import static miatool.core.util.numerics.MIAMatOps.sum;
 import static miatool.core.util.numerics.MIAMatOps.toShort;
-import static miatool.core.util.numerics.MIAMatOps.truncate;
 import static miatool.core.util.numerics.MIAMatOps.copy;
-import static miatool.core.util.numerics.MIAMatOps.multiply;
-import static miatool.core.util.numerics.MIAMatOps.add;
-import static miatool.core.util.numerics.MIAMatOps.xyzToYzx;
-import static miatool.core.util.numerics.MIAMatOps.xyzToZxy;
-import static miatool.core.util.numerics.MIAMatOps.divide;
-import static miatool.core.util.numerics.MIAMatOps.isSameSize;
-import static miatool.core.util.numerics.MIAMatOps.multiplyI;
-import static miatool.core.util.numerics.MIAMatOps.addI;
 import static miatool.core.util.numerics.MIAMatOps.linearize;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.function.Consumer;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
-import org.jtransforms.fft.DoubleFFT_3D;
 import com.sun.javafx.application.PlatformImpl;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
@@ -41,7 +30,6 @@ import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import miatool.core.miatooldirectory.MIAToolDirectory;
-import miatool.core.setssingles.image.GreyD64RAMSingle;
 import miatool.core.setssingles.image.GreyU16DiskSingle;
 import miatool.core.setssingles.image.ImageSet;
 import miatool.core.setssingles.image.ImageSingle;
@@ -49,11 +37,9 @@ import miatool.core.setssingles.intensity.IntensityAdjustSet;
 import miatool.core.setssingles.segmentation.SegmentationSet;
 import miatool.core.setssingles.segmentation.SegmentationSingle;
 import miatool.core.setssingles.segmentation.component.SegmentationComponent;
-import miatool.core.util.FileUtil;
 import miatool.core.util.MIAUtil;
 import miatool.core.util.PixelCoordinates;
 import miatool.core.util.miatiff.MIATIFFWriter;
-import miatool.core.util.numerics.ComplexMatrix3D;
 import miatool.core.util.numerics.MIAUnits;
 import miatool.miamain.MIABrowser;
 import miatool.miamain.MIATool;
@@ -63,12 +49,11 @@ import miatool.modules.estimation.math.integration.TrapezoidalPixelIntegrator;
 import miatool.modules.estimation.math.integration.TrapezoidalPsf3DIntegrator;
 import miatool.modules.estimation.models.PSFFramework.PSFImage;
 import miatool.modules.estimation.models.single.BornWolf3D;
-import miatool.modules.estimation.nonparametric.NonParametricBackgroundMethod;
-import miatool.modules.estimation.nonparametric.NonParametricBackgroundMethod.Default.CalculationMethod;
-import miatool.modules.estimation.nonparametric.NonParametricBackgroundMethod.Default.ExtractionMethod;
 import miatool.modules.estimation.util.Detector;
 import miatool.modules.process.MIAProcessingChain;
 import miatool.modules.process.commontasks.PercentileIntensityAutoAdjusterBlock;
+import miatool.plugins.DeconvolutionEngine.BlockDeconvolution;
+import miatool.plugins.DeconvolutionEngine.TransferCache;
 import miatool.tools.MIAToolDirectoryBrowser;
 import miatool.tools.adjustmenttools.intensitytool.IntensityTool;
 import miatool.tools.adjustmenttools.segmentationtool.SegmentationTool;
@@ -108,7 +93,7 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 	public int lenPsf;
 
 	/** the minimum value Epsilon from MatLab */
-	public static final double EPS = 2.220446049250313e-16;
+	public static final double EPS = DeconvolutionEngine.EPS;
 
 	public Button deconvBtn;
 	public Button getImgSetBtn;
@@ -120,6 +105,8 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 	public Button csViewerBtn;
 
 	public TextField regItemTf;
+	public TextField iterTf;
+	public TextField tolTf;
 	public TextField psfMtdTf;
 	public TextField convTf;
 	public TextField psfSetTf;
@@ -129,6 +116,7 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 	public Text completionTf;
 
 	public ComboBox<String> deconvMethodCb;
+	public CheckBox batchCb;
 	public ProgressBar prob;
 	public static final String WINDOW_TITLE = "Deconvolution Plugin";
 	public static final String MENU_TITLE = "Deconvolution Tools";
@@ -153,14 +141,38 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 	/** The indicator for updating the psf set and the segmentation set */
 	private boolean isUpdate = true;
 
-	/** A 3D matrix to store the image data */
-	private double[][][] imgDataIn;
+	/** The deconvolution of the jobs, configured from the controls */
+	private final DeconvolutionEngine engine = new DeconvolutionEngine();
 
-	/** The array to store the lengths of images */
-	private int[] imgHArr;
+	/** The rows and columns of a tile of the out-of-core deconvolution */
+	public static final int DEFAULT_TILE_SIZE
+		= DeconvolutionEngine.DEFAULT_TILE_SIZE;
 
-	/** The array to store the widths of images */
-	private int[] imgWArr;
+	/** The number of workers of the batch deconvolution by default */
+	public static final int DEFAULT_BATCH_THREADS = 2;
+
+	/** The number of stacks deconvolved at once in the batch deconvolution */
+	private int batchThreads = DEFAULT_BATCH_THREADS;
+
+	/** The number of threads reading and writing the image files by default */
+	public static final int DEFAULT_IO_THREADS = PlaneLoader.DEFAULT_IO_THREADS;
+
+	/** The number of threads reading and writing the planes */
+	private int ioThreads = DEFAULT_IO_THREADS;
+
+	/** Dithers the deconvolved planes when they are quantised */
+	private boolean dither = false;
+
+	/** Keeps the deconvolutions of the stacks from showing their progress */
+	private volatile boolean isBatchRunning = false;
+
+	/** The folder of the OTF cache in the MIAToolDirectory */
+	public static final String OTF_CACHE_DIR
+		= ImageSetDeconvolution.OTF_CACHE_DIR;
+
+	/** The size limit of the OTF cache by default, 1 GB */
+	public static final long DEFAULT_OTF_CACHE_BYTES
+		= DeconvolutionEngine.DEFAULT_OTF_CACHE_BYTES;
 
 	public static void main(final String[] args) {
 		MIATool.main(args);
@@ -191,19 +203,15 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		final int shiftW = w - midW;
 
 		final double[][][] result = new double[n][h][w];
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < n; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
+		VolumeKernels.forRange(n, h * w, z -> {
 			for (int y = 0; y < h; y++) {
 				for (int x = 0; x < w; x++) {
 					final int indexZ
-						= tuple < midN ? tuple + shiftN : tuple - midN;
+						= z < midN ? z + shiftN : z - midN;
 					final int indexY = y < midH ? y + shiftH : y - midH;
 					final int indexX = x < midW ? x + shiftW : x - midW;
 
-					result[indexZ][indexY][indexX] = input[tuple][y][x];
+					result[indexZ][indexY][indexX] = input[z][y][x];
 				}
 			}
 		});
@@ -235,11 +243,7 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		final int w = input[0][0].length;
 
 		final double[][][] result = new double[n][h][w];
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < n; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
+		VolumeKernels.forRange(n, h * w, z -> {
 			for (int y = 0; y < h; y++) {
 				for (int x = 0; x < w; x++) {
 					final int xIndex;
@@ -256,12 +260,12 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 					else
 						yIndex = y - shiftY;
 
-					if (tuple < shiftZ)
-						zIndex = tuple - shiftZ + n;
+					if (z < shiftZ)
+						zIndex = z - shiftZ + n;
 					else
-						zIndex = tuple - shiftZ;
+						zIndex = z - shiftZ;
 
-					result[zIndex][yIndex][xIndex] = input[tuple][y][x];
+					result[zIndex][yIndex][xIndex] = input[z][y][x];
 				}
 			}
 		});
@@ -269,98 +273,198 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		return result;
 	}
 
+	/** Constructor */
+	public DeconvolutionPlugin() {
+		super();
+		engine.setProgressListener(this::showProgress);
+	}
+
+	/**
+	 * Set the fill of the padding around the volumes in the deconvolution.
+	 * The volumes are padded to sizes that the FFT handles fast with a guard
+	 * band of half of the psf, and the result is cropped back. With
+	 * {@link PaddingPlan.Fill#NONE} the volumes are not padded.
+	 * 
+	 * @param fill
+	 *        The fill of the padding
+	 */
+	public void setPaddingFill(final PaddingPlan.Fill fill) {
+		engine.setPaddingFill(fill);
+	}
+
+	/**
+	 * @return The fill of the padding around the volumes in the deconvolution
+	 */
+	public PaddingPlan.Fill getPaddingFill() {
+		return engine.getPaddingFill();
+	}
+
 	/**
-	 * Estimate background of a image single
+	 * Set the size of the tiles of the tiled deconvolution. The volume is
+	 * split into tiles that are extended by a margin of the size of the psf,
+	 * deconvolved in parallel and stitched with feathering, so the memory of
+	 * the FFTs is bounded by the size of the tiles. A dimension whose tile
+	 * size is not positive is not split, and the volume is deconvolved as a
+	 * whole if none is positive.
+	 * 
+	 * @param tileN
+	 *        The number of planes of a tile
 	 * 
-	 * @param imgSi
-	 *        image single
+	 * @param tileH
+	 *        The number of rows of a tile
 	 * 
-	 * @return The background value
+	 * @param tileW
+	 *        The number of columns of a tile
 	 */
-	public static double getBackground(final ImageSingle<?> imgSi) {
-		// get pixel data and pixel coordinates
-		final int width = imgSi.getWidth();
-		final int height = imgSi.getHeight();
-		final PixelCoordinates[] pCoordinates = new PixelCoordinates[1];
-		final double[][] pData = new double[1][];
-		pCoordinates[0] = new PixelCoordinates(height, width);
-		pData[0] = imgSi.getPixelValues(pCoordinates[0]);
-
-		// calculate background
-		final NonParametricBackgroundMethod.Default npbMethod
-			= new NonParametricBackgroundMethod.Default();
-		npbMethod.calculationMethod = CalculationMethod.MEDIAN;
-		npbMethod.extractionMethod = ExtractionMethod.EDGES;
-		final double[] background
-			= npbMethod.getBackground(pData, pCoordinates);
-		return background[0];
+	public void setTileSize(final int tileN, final int tileH, final int tileW) {
+		engine.setTileSize(tileN, tileH, tileW);
 	}
 
 	/**
-	 * Subtract background from the image data, if an element in the result is
-	 * smaller than 0, set it to 0
+	 * Set the directory of the out-of-core deconvolution. The image set is
+	 * loaded into a memory-mapped file in the directory instead of the heap,
+	 * and deconvolved tile by tile into another mapped file, so the operating
+	 * system pages the planes in and out as the tiles are processed. The
+	 * tiles are of DEFAULT_TILE_SIZE rows and columns unless the tile size is
+	 * set.
 	 * 
-	 * @param input
-	 *        The image data
+	 * @param directory
+	 *        The directory of the mapped files, null to keep the volumes in
+	 *        memory
+	 */
+	public void setOutOfCoreDirectory(final File directory) {
+		engine.setOutOfCoreDirectory(directory);
+	}
+
+	/**
+	 * Set the number of workers of the batch deconvolution. Each worker loads,
+	 * deconvolves and saves one stack at a time, and the deconvolution of a
+	 * stack is itself parallel, so a few workers are enough to keep the
+	 * processors busy while the others read and write the image files.
 	 * 
-	 * @param background
-	 *        The value of the background
+	 * @param threads
+	 *        The number of stacks deconvolved at once
 	 * 
-	 * @return The processed image data
+	 * @throws IllegalArgumentException
+	 *         If the number is not positive
 	 */
-	public static double[][] subtractBackground(
-			final double[][] input,
-			final double background) {
-		final double[][] result = add(input, -1.0 * background);
-		for (int i = 0; i < result.length; i++)
-			for (int j = 0; j < result[i].length; j++)
-				if (result[i][j] < 0)
-					result[i][j] = 0;
-		return result;
+	public void setBatchThreads(final int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+				"The number of workers should be positive");
+
+		batchThreads = threads;
 	}
 
-	/** Constructor */
-	public DeconvolutionPlugin() {
-		super();
+	/**
+	 * Set the number of threads reading and writing the planes. The planes
+	 * are read and their backgrounds estimated ahead of the planes written to
+	 * the volume of the deconvolution, and the deconvolved planes are
+	 * quantised and written while the next stack is computed, so more threads
+	 * hide more latency of a slow disk or network share.
+	 * 
+	 * @param threads
+	 *        The number of I/O threads
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the number is not positive
+	 */
+	public void setIOThreads(final int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+				"The number of I/O threads should be positive");
+
+		ioThreads = threads;
 	}
 
 	/**
-	 * convert the elements of the input array into 16 bit integer
+	 * Set the dithering of the deconvolved planes. The planes are quantised
+	 * to 16 bit samples by rounding, with dithering a uniform noise of one
+	 * level is added instead, so the faint structures keep their mean
+	 * intensity.
 	 * 
-	 * @param input
-	 *        The input array
+	 * @param dither
+	 *        True to dither the samples
+	 */
+	public void setDither(final boolean dither) {
+		this.dither = dither;
+	}
+
+	/**
+	 * Set the size limit of the OTF cache. The optical transfer functions of
+	 * the psf are kept in the OTFCache folder of the MIAToolDirectory, keyed
+	 * by the content of the psf planes, the size of the padded volume, the
+	 * precision, the background estimation and the version of the files, so a
+	 * repeated job with the same psf only reads the raw psf planes to hash
+	 * them. The functions used least recently are deleted when the cache is
+	 * larger than the limit, and a function that cannot be read or written
+	 * fails the deconvolution.
+	 * 
+	 * @param bytes
+	 *        The size limit in bytes, zero to not use the cache
 	 * 
-	 * @param max
-	 *        The maximum value in the 3D image matrix
+	 * @throws IllegalArgumentException
+	 *         If the size limit is negative
+	 */
+	public void setOTFCacheSize(final long bytes) {
+		engine.setOTFCacheSize(bytes);
+	}
+
+	/**
+	 * Set the tolerance of the relative change of the I-divergence of the
+	 * iterative methods, see {@link DeconvolutionEngine#setDivergenceTolerance}
 	 * 
-	 * @return An array of 16 bit integers
+	 * @param tolerance
+	 *        The tolerance, zero to not use it
 	 */
-	public static short[] convertToInt16(
-			final double[] input,
-			final double max) {
+	public void setDivergenceTolerance(final double tolerance) {
+		engine.setDivergenceTolerance(tolerance);
+	}
 
-		// truncate the input array from 0
-		final double[] positive = truncate(input, max, 0);
+	/**
+	 * Set the time budget of the iterations of a volume, see
+	 * {@link DeconvolutionEngine#setTimeBudget}
+	 * 
+	 * @param millis
+	 *        The budget in milliseconds, zero to not use it
+	 */
+	public void setTimeBudget(final long millis) {
+		engine.setTimeBudget(millis);
+	}
 
-		/*
-		 * if the maximum value of the input array is larger than the upper
-		 * bound of short, re-scale the array.
-		 */
-		final double ub = 0x7FFF;
-		final double lb = 0;
-
-		if (max > ub) {
-
-			// re-scale the matrix of the current plane
-			final double localMax = max(input);
-			final double localUb = ub * localMax / max;
-			final double[] rescaled
-				= rescaleI(positive.clone(), lb, localUb);
-			final short[] result = toShort(rescaled);
-			return result;
-		}
+	/**
+	 * @param listener
+	 *        Receives the metrics of each iteration of the iterative methods,
+	 *        null to not compute them
+	 */
+	public void setIterationListener(
+			final Consumer<IterationMetrics> listener) {
+		engine.setIterationListener(listener);
+	}
+
+	/**
+	 * Set the floating point precision of a deconvolution method
+	 * 
+	 * @param deconvMethod
+	 *        The deconvolution method
+	 * 
+	 * @param precision
+	 *        The precision of the volumes, the spectra and the FFTs
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If single precision is asked for a method that is not iterative
+	 */
+	public void setPrecision(
+			final DeconvMethod deconvMethod,
+			final Precision precision) {
+		engine.setPrecision(deconvMethod, precision);
+	}
 
-		return toShort(positive);
+	/**
+	 * @return The floating point precision of a deconvolution method
+	 */
+	public Precision getPrecision(final DeconvMethod deconvMethod) {
+		return engine.getPrecision(deconvMethod);
 	}
 
 	/**
@@ -390,122 +494,64 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 			final double bg,
 			final int n) {
 		/*
-		 * make img and psf matrices rectangular and of the size lenConv x imgH
-		 * x imgW
+		 * make img matrix rectangular and of the size lenConv x imgH x imgW,
+		 * the psf is made of the size of each padded block
 		 */
-		double[][][] img = makeDeconvSize(rawImg);
-		double[][][] psf = makeDeconvSize(rawPsf);
-
-		// rotate the matrices to the size of height x width x n
-		final double[][][] imgR = xyzToZxy(img);
-		final double[][][] psfR = xyzToZxy(psf);
-
-		// make circshift to the psf matrix and normalize it
-		double[][][] psfNorm = processPSF(psfR);
-
-		// make Fourier transform to the psf matrix
-		ComplexMatrix3D psfIn
-			= new ComplexMatrix3D(psfNorm, new double[imgH][imgW][lenConv]);
-		final ComplexMatrix3D psfTrans = JTransforms3DUtil.fft3D(psfIn);
-
-		img = null;
-		psf = null;
-		psfNorm = null;
-		psfIn = null;
-
-		showProgress(0.3);
-
-		// calculate initial value of the image matrix in the iteration
-		double[][][] imgRaw = negativeToZero(imgR);
-
-		List<Integer> tuples = new ArrayList<>();
-		for (int i = 0; i < imgH; i++)
-			tuples.add(i);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			addI(imgR[tuple], -1.0 * bg);
-		});
-
-		double[][][] imgIterIn = negativeToZero(imgR);
-
-		showProgress(0.4);
-
-		// apply the deconvolution algorithms
-		switch (deconvMethod) {
-			case AGARD:
-				for (int j = 0; j < n; j++)
-					agardIteration(imgIterIn, psfTrans, imgRaw);
-				break;
-			case RICHARDSON_LUCY:
-				for (int k = 0; k < n; k++)
-					iterationRL(imgIterIn, psfTrans, imgRaw, bg);
-
-				break;
-			case ACCEL_RICHARDSON_LUCY:
-
-				// this method require more than three iterations
-				if (n < 3)
-					break;
-
-				// apply the first iteration, get item gY
-				double[][][] imgIterPre = copy(imgIterIn);
-				iterationRL(imgIterIn, psfTrans, imgRaw, bg);
-				double[][][] gY = add(
-					imgIterIn,
-					multiply(imgIterPre, -1.0));
-
-				// apply the second iteration, get item gX
-				imgIterPre = null;
-				imgIterPre = copy(imgIterIn);
-				iterationRL(imgIterIn, psfTrans, imgRaw, bg);
-				double[][][] gX = add(
-					imgIterIn,
-					multiply(imgIterPre, -1.0));
-
-				// apply the rest of the iterations
-				double[][][] imgMatIn;
-
-				for (int x = 2; x < n; x++) {
-
-					// make the transformed image matrix for the LR iteration
-					imgMatIn = makeImageMatrix(
-						imgIterIn,
-						imgIterPre,
-						gX,
-						gY);
-
-					imgIterPre = null;
-					imgIterPre = copy(imgIterIn);
-					imgIterIn = null;
-					imgIterIn = copy(imgMatIn);
-
-					// RL iteration
-					iterationRL(imgMatIn, psfTrans, imgRaw, bg);
-
-					// refresh variables
-					gY = null;
-					gY = copy(gX);
-					gX = null;
-					gX = add(
-						imgMatIn,
-						multiply(imgIterIn, -1.0));
-
-					imgIterIn = null;
-					imgIterIn = copy(imgMatIn);
-					imgMatIn = null;
-				}
-				break;
-			default:
-				break;
-		}
-
-		showProgress(0.7);
-
-		// rotate the matrix back to the size of n x height x width
-		final double[][][] result = xyzToYzx(imgIterIn);
-		imgIterIn = null;
+		final Volume3D img = makeDeconvSize(rawImg);
+
+		final TransferCache psf
+			= new TransferCache(rawPsf, getPrecision(deconvMethod));
+		final StoppingRule rule = new StoppingRule(n);
+
+		return engine.deconvolve(
+			img,
+			psf,
+			(block, otf) -> engine
+				.deconvolutionRL(block, otf, deconvMethod, bg, rule))
+				.toMatrix();
+	}
 
-		return result;
+	/**
+	 * Apply deconvolution using Richardson-Lucy algorithm
+	 * 
+	 * @param img
+	 *        The image volume, it is not modified
+	 * 
+	 * @param psf
+	 *        The psf volume of the same size, with the psf in its first
+	 *        lenPsf x psfH x psfW elements
+	 * 
+	 * @param deconvMethod
+	 *        The deconvolution method
+	 * 
+	 * @param bg
+	 *        The background
+	 * 
+	 * @param n
+	 *        The number of iterations
+	 * 
+	 * @return The deconvolved image volume
+	 */
+	public Volume3D deconvolutionRL(
+			final Volume3D img,
+			final Volume3D psf,
+			final DeconvMethod deconvMethod,
+			final double bg,
+			final int n) {
+		/*
+		 * make circshift to the psf matrix, normalize it in double and make
+		 * FFT to it in the precision of the method
+		 */
+		final OpticalTransfer otf = new OpticalTransfer(
+			DeconvolutionEngine.processPSF(psf, lenPsf, psfH, psfW),
+			getPrecision(deconvMethod));
+
+		return engine.deconvolutionRL(
+			img,
+			otf,
+			deconvMethod,
+			bg,
+			new StoppingRule(n));
 	}
 
 	/**
@@ -534,107 +580,51 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 			throws IllegalArgumentException {
 
 		/*
-		 * make img and psf matrices rectangular and of the size lenConv x imgH
-		 * x imgW
+		 * make img matrix rectangular and of the size lenConv x imgH x imgW,
+		 * the psf is made of the size of each padded block
 		 */
-		final double[][][] img = makeDeconvSize(rawImg);
-		final double[][][] psf = makeDeconvSize(rawPsf);
-
-		// rotate the matrices to the size of height x width x n
-		double[][][] imgR = xyzToZxy(img);
-		double[][][] psfR = xyzToZxy(psf);
-
-		// make circshift to the psf matrix and normalize it
-		double[][][] psfNorm = processPSF(psfR);
-
-		// make psf and img matrices into complex matrices
-		ComplexMatrix3D imgIn
-			= new ComplexMatrix3D(imgR, new double[imgH][imgW][lenConv]);
-		ComplexMatrix3D psfIn
-			= new ComplexMatrix3D(psfNorm, new double[imgH][imgW][lenConv]);
-
-		// Make fft to the image matrix and the psf matrix
-		ComplexMatrix3D imgTransMat
-			= JTransforms3DUtil.fft3D(imgIn);
-		ComplexMatrix3D psfTransMat
-			= JTransforms3DUtil.fft3D(psfIn);
-
-		imgR = null;
-		psfR = null;
-		imgIn = null;
-		psfIn = null;
-		psfNorm = null;
-		showProgress(0.4);
-
-		// make factors in the following calculation
-		double[][][] psfAbs = psfTransMat.getAbs();
-		final double psfMax
-			= max(max(max(psfAbs)));
-
-		ComplexMatrix3D.divideI(psfTransMat, psfMax);
-		double[][][] psfNormAbs = psfTransMat.getAbs();
-		psfTransMat.getConjugateI();
-		ComplexMatrix3D psfNormMat = new ComplexMatrix3D(
-			psfNormAbs,
-			new double[imgH][imgW][lenConv]);
-		ComplexMatrix3D psfPow2 = ComplexMatrix3D.power(psfNormMat, 2);
-		ComplexMatrix3D psfPow4 = ComplexMatrix3D.power(psfNormMat, 4);
-
-		psfAbs = null;
-		psfNormAbs = null;
-		psfNormMat = null;
-		showProgress(0.5);
-
-		// apply deconvolution algorithms
-		ComplexMatrix3D deconvTrans = null;
-		switch (deconvMethod) {
-			case SIMPLE_RLS:
-				deconvTrans
-					= simpleRLS(imgTransMat, psfTransMat, psfPow2, regItem);
-				break;
-			case MAT_RLS:
-				deconvTrans
-					= matRLS(imgTransMat, psfTransMat, psfPow2, regItem);
-				break;
-			case MODIFIED_RLS:
-				deconvTrans
-					= modifiedRLS(
-						imgTransMat,
-						psfTransMat,
-						psfPow2,
-						psfPow4,
-						regItem);
-				break;
-			case WEIGHTED_RLS:
-				deconvTrans
-					= weightedRLS(
-						imgTransMat,
-						psfTransMat,
-						psfPow2,
-						regItem);
-				break;
-			default:
-				break;
-		}
+		final Volume3D img = makeDeconvSize(rawImg);
 
-		imgTransMat = null;
-		psfPow2 = null;
-		psfPow4 = null;
-		showProgress(0.6);
+		final TransferCache psf = new TransferCache(rawPsf, Precision.DOUBLE);
 
-		// apply inverse fft to the result from the last step
-		ComplexMatrix3D deconvResMat
-			= JTransforms3DUtil.ifft3D(deconvTrans);
-		double[][][] deconvRealR = deconvResMat.getReal();
-		showProgress(0.7);
+		return engine.deconvolve(
+			img,
+			psf,
+			(block, otf) -> engine
+				.deconvolutionLsq(block, otf, deconvMethod, regItem))
+				.toMatrix();
+	}
 
-		// rotate the matrix back to the size of n x height x width
-		final double[][][] deconvReal = xyzToYzx(deconvRealR);
-		deconvTrans = null;
-		deconvRealR = null;
-		deconvResMat = null;
+	/**
+	 * Apply deconvolution with image data and psf using regularized least
+	 * square algorithm
+	 * 
+	 * @param img
+	 *        The image volume, it is not modified
+	 * 
+	 * @param psf
+	 *        The psf volume of the same size, with the psf in its first
+	 *        lenPsf x psfH x psfW elements
+	 * 
+	 * @param deconvMethod
+	 *        The deconvolution method
+	 * 
+	 * @param regItem
+	 *        The regularization item
+	 * 
+	 * @return The deconvolved image volume
+	 */
+	public Volume3D deconvolutionLsq(
+			final Volume3D img,
+			final Volume3D psf,
+			final DeconvMethod deconvMethod,
+			final double regItem)
+			throws IllegalArgumentException {
+		final OpticalTransfer otf = new OpticalTransfer(
+			DeconvolutionEngine.processPSF(psf, lenPsf, psfH, psfW),
+			Precision.DOUBLE);
 
-		return deconvReal;
+		return engine.deconvolutionLsq(img, otf, deconvMethod, regItem);
 	}
 
 	public void setupFrame() {
@@ -721,6 +711,9 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		imgGrid.add(getImgSetBtn, 1, 0);
 		imgGrid.add(imgSeriesTf, 0, 1);
 		imgGrid.add(new Label("Series Dimension"), 1, 1);
+		batchCb = new CheckBox("Deconvolve All Stacks");
+		batchCb.setDisable(true);
+		imgGrid.add(batchCb, 0, 2, 2, 1);
 		final TitledPane imgPane = new TitledPane();
 		imgPane.setCollapsible(false);
 		imgPane.setText("2. Choose Image Set");
@@ -732,6 +725,9 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		deconvParamGrid.setVgap(4);
 		deconvParamGrid.setHgap(4);
 		regItemTf = new TextField("1e-7");
+		iterTf = new TextField(
+			Integer.toString(DeconvolutionEngine.DEFAULT_ITERATIONS));
+		tolTf = new TextField("0");
 		deconvMethodCb = new ComboBox<String>();
 		deconvMethodCb.getItems().addAll(
 			DeconvMethod.SIMPLE_RLS.getMethod(),
@@ -740,11 +736,17 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 			DeconvMethod.WEIGHTED_RLS.getMethod(),
 			DeconvMethod.AGARD.getMethod(),
 			DeconvMethod.RICHARDSON_LUCY.getMethod(),
-			DeconvMethod.ACCEL_RICHARDSON_LUCY.getMethod());
+			DeconvMethod.ACCEL_RICHARDSON_LUCY.getMethod(),
+			DeconvMethod.SQUAREM_RICHARDSON_LUCY.getMethod(),
+			DeconvMethod.SCALED_GRADIENT_PROJECTION.getMethod());
 		deconvParamGrid.add(regItemTf, 0, 0);
 		deconvParamGrid.add(new Label("Regularization Parameter"), 1, 0);
 		deconvParamGrid.add(deconvMethodCb, 0, 1);
 		deconvParamGrid.add(new Label("Deconvolution Method"), 1, 1);
+		deconvParamGrid.add(iterTf, 0, 2);
+		deconvParamGrid.add(new Label("Maximum Iterations"), 1, 2);
+		deconvParamGrid.add(tolTf, 0, 3);
+		deconvParamGrid.add(new Label("Relative Change Tolerance"), 1, 3);
 		final TitledPane deconvParamPane = new TitledPane();
 		deconvParamPane.setCollapsible(false);
 		deconvParamPane.setText("3. Choose Deconvoluton Parameters");
@@ -1070,8 +1072,10 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		}
 
 		imgSet = loadedImage.get(0);
-		if (imgSet.size().length > 1)
+		if (imgSet.size().length > 1) {
 			imgSeriesTf.setDisable(false);
+			batchCb.setDisable(false);
+		}
 		updateFields();
 		return;
 	}
@@ -1135,7 +1139,8 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		}
 
 		// save segImgSet into mtd
-		segImgSet = saveImageSet(segData, segLen, segSetName);
+		segImgSet = new ImageSetDeconvolution(engine, mtd, ioThreads, dither)
+			.saveImageSet(segData, segLen, segSetName);
 		segData = null;
 		updateFields();
 
@@ -1258,90 +1263,29 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 			lenConv = psfSize;
 		}
 
-		// make arrays for the image size
-		final int[] psfHArr = new int[psfSize];
-		final int[] psfWArr = new int[psfSize];
-
-		// make 3D matrices for image sets
-		double[][][] psfDataIn = new double[psfSize][][];
-
-		// Load image data to imgDataIn matrix
-		loadImageSet(nImgDim, imgDim, imgSize);
-		showProgress(0.1);
-
-		// Load psf data into psfDataIn matrix
-		for (int j = 0; j < psfSize; j++) {
-			if (segImgSet != null) {
-				final ImageSingle<?> psfImgSi = segImgSet.get0iR(j);
-				double[][] psfData = psfImgSi.get2DImageMatrix();
-
-				psfHArr[j] = psfData.length;
-				psfWArr[j] = psfData[0].length;
-				psfDataIn[j] = copy(psfData);
-				psfData = null;
-			}
-			else {
-				final int[] psfIndex = new int[nPsfDim];
-				psfIndex[psfDim] = j;
-				final ImageSingle<?> psfSingle = psfSet.get0iR(psfIndex);
-				if (!GreyU16DiskSingle.class.isInstance(psfSingle)) {
-					JOptionPane.showMessageDialog(
-						menuItem,
-						"The image single has to be GreyU16DiskSingle",
-						"Wrong Image Format!",
-						JOptionPane.ERROR_MESSAGE);
-					return;
-				}
-
-				// subtract the background from the image
-				final double psfBg = getBackground(psfSingle);
-				double[][] psfData
-					= subtractBackground(
-						psfSingle.get2DImageMatrix(),
-						psfBg);
-
-				psfHArr[j] = psfData.length;
-				psfWArr[j] = psfData[0].length;
-				psfDataIn[j] = copy(psfData);
-				psfSingle.flush();
-				psfData = null;
-			}
-		}
-
-		imgH = max(imgHArr);
-		imgW = max(imgWArr);
-		psfH = max(psfHArr);
-		psfW = max(psfWArr);
-		showProgress(0.2);
-
-		if (psfH > imgH || psfW > imgW) {
-			JOptionPane.showMessageDialog(
-				menuItem,
-				"The size of the image should be large than size of the psf.",
-				"Wrong Image Size!",
-				JOptionPane.ERROR_MESSAGE);
-			return;
-		}
-
 		// load deconvolution method
 		final DeconvMethod deconvMethod
 			= DeconvMethod.findMethod(deconvMethodCb.getValue());
 		if (deconvMethod == null)
 			return;
 
-		double[][][] deconvData;
+		engine.setMethod(deconvMethod);
 
-		if (deconvMethod == DeconvMethod.AGARD
-			|| deconvMethod == DeconvMethod.RICHARDSON_LUCY
-			|| deconvMethod == DeconvMethod.ACCEL_RICHARDSON_LUCY) {
+		if (deconvMethod.isIterative()) {
 
-			// Use Richardson-Lucy algorithm, the number of iterations is 10
-			deconvData = deconvolutionRL(
-				imgDataIn,
-				psfDataIn,
-				deconvMethod,
-				0,
-				10);
+			/*
+			 * Use Richardson-Lucy algorithm, iterate until the relative
+			 * change of the estimate is below the tolerance or the maximum
+			 * number of iterations is reached
+			 */
+			final String iterations = iterTf.getText();
+			final String tolerance = tolTf.getText();
+			if (iterations == null || tolerance == null)
+				return;
+
+			engine.setIterations(Integer.valueOf(iterations.trim()));
+			engine.setChangeTolerance(Double.valueOf(tolerance.trim()));
+			engine.setBackground(0);
 		}
 		else {
 
@@ -1350,543 +1294,243 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 			if (regItem == null)
 				return;
 
-			final double regItemValue = Double.valueOf(regItem);
+			engine.setRegularization(Double.valueOf(regItem));
+		}
+
+		final BlockDeconvolution deconvolution = engine.makeDeconvolution();
+
+		final ImageSetDeconvolution imageSets
+			= new ImageSetDeconvolution(engine, mtd, ioThreads, dither);
+
+		// the psf is transformed once and shared by the blocks and stacks
+		final ImageSingle<?>[] psfSingles
+			= getPsfSingles(nPsfDim, psfDim, psfSize);
+		if (psfSingles == null)
+			return;
+
+		final TransferCache psf;
+		try {
+			psf = imageSets.makeTransferCache(psfSingles, segImgSet != null);
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		psfH = psf.h;
+		psfW = psf.w;
+		showProgress(0.1);
+
+		if (nImgDim > 1 && batchCb != null && batchCb.isSelected()) {
+			// deconvolve every stack of the image set
+			isBatchRunning = true;
+			deconvSet = imageSets.deconvolveBatch(
+				imgSet,
+				imgDim,
+				lenConv,
+				psf,
+				deconvolution,
+				batchThreads,
+				this::showBatchProgress);
+			isBatchRunning = false;
+			compareSet = null;
+			showProgress(1.0);
+			return;
+		}
+
+		final GreyU16DiskSingle[] imgSingles
+			= getImgSingles(nImgDim, imgDim, imgSize);
+		if (imgSingles == null)
+			return;
 
-			// Apply deconvolution with least square based algorithm
-			deconvData = deconvolutionLsq(
-				imgDataIn,
-				psfDataIn,
-				deconvMethod,
-				regItemValue);
+		if (psfH > imgH || psfW > imgW) {
+			JOptionPane.showMessageDialog(
+				menuItem,
+				"The size of the image should be large than size of the psf.",
+				"Wrong Image Size!",
+				JOptionPane.ERROR_MESSAGE);
+			return;
 		}
 
-		imgDataIn = null;
-		psfDataIn = null;
+		/*
+		 * Load image data to the image volume or to the mapped image store,
+		 * the OTF cache reports its I/O errors unchecked from the workers
+		 */
+		VolumeStore deconvData;
+		try {
+			final VolumeStore img
+				= imageSets.loadImageSet(imgSingles, lenConv, imgH, imgW);
+			showProgress(0.2);
+			try {
+				deconvData = engine.deconvolve(img, psf, deconvolution);
+			}
+			finally {
+				if (img instanceof MappedVolumeStore)
+					((MappedVolumeStore) img).close();
+			}
+		}
+		catch (final IOException | UncheckedIOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(
+				menuItem,
+				e.getMessage(),
+				"Deconvolution failed!",
+				JOptionPane.ERROR_MESSAGE);
+			return;
+		}
 		showProgress(0.8);
 
 		/*
 		 * save deconvolution set, the length of the deconvolution series
 		 * follows the length of img
 		 */
-		deconvSet = saveImageSet(deconvData, imgSize, "Deconvolution");
+		deconvSet
+			= imageSets.saveImageSet(deconvData, imgSize, "Deconvolution");
+		if (deconvData instanceof MappedVolumeStore)
+			((MappedVolumeStore) deconvData).close();
 		deconvData = null;
 
 		// save comparison image set
 		final int compareLen = imgSet.size()[0];
-		compareSet = makeCompareSet(imgSet, deconvSet, compareLen, "Compare");
+		compareSet = imageSets.makeCompareSet(
+			imgSet,
+			deconvSet,
+			compareLen,
+			"Compare");
 		showProgress(1.0);
 	}
 
 	/**
-	 * Make the input matrix of the size of deconvoltuon, wich is lenConv x imgH
-	 * x imgW
+	 * Take the singles of the psf set, or of the segmented psf set if there is
+	 * one, they are read by the I/O threads
 	 * 
-	 * @param input
+	 * @param nPsfDim
+	 *        The number of dimensions in the psf set
+	 * 
+	 * @param psfDim
+	 *        The dimension of the psf series
+	 * 
+	 * @param psfSize
+	 *        The length of the psf series
 	 * 
-	 * @return A 3D matrix of lenConv x imgH x imgW
+	 * @return The image singles of the psf series, null if a single is not
+	 *         GreyU16DiskSingle
 	 */
-	private double[][][] makeDeconvSize(final double[][][] input) {
-		final double[][][] result = new double[lenConv][imgH][imgW];
-
-		List<Integer> tuples = new ArrayList<>();
-		for (int k = 0; k < input.length; k++)
-			tuples.add(k);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			final int h = input[tuple].length;
-			final int w = input[tuple][0].length;
+	private ImageSingle<?>[] getPsfSingles(
+			final int nPsfDim,
+			final int psfDim,
+			final int psfSize) {
+		final ImageSet segSet = segImgSet;
+		final ImageSingle<?>[] result = new ImageSingle<?>[psfSize];
+		for (int j = 0; j < psfSize; j++) {
+			if (segSet != null) {
+				result[j] = segSet.get0iR(j);
+				continue;
+			}
 
-			for (int j = 0; j < h; j++)
-				for (int i = 0; i < w; i++)
-					result[tuple][j][i] = input[tuple][j][i];
-		});
+			final int[] psfIndex = new int[nPsfDim];
+			psfIndex[psfDim] = j;
+			result[j] = psfSet.get0iR(psfIndex);
+			if (!GreyU16DiskSingle.class.isInstance(result[j])) {
+				JOptionPane.showMessageDialog(
+					menuItem,
+					"The image single has to be GreyU16DiskSingle",
+					"Wrong Image Format!",
+					JOptionPane.ERROR_MESSAGE);
+				return null;
+			}
+		}
 
 		return result;
 	}
 
 	/**
-	 * iCircShift the psf matrix and normalize the matrix
+	 * Take the singles of the image series and set the size of the image
+	 * volume from the sizes of the singles, so the pixels are read once when
+	 * the series is loaded
 	 * 
-	 * @param input
-	 *        The psf matrix
+	 * @param nImgDim
+	 *        The number of dimensions in the image set
 	 * 
-	 * @return The processed psf matrix
+	 * @param imgDim
+	 *        The dimension of the image series
+	 * 
+	 * @param imgSize
+	 *        The length of the image series
+	 * 
+	 * @return The image singles of the image series, null if a single is not
+	 *         GreyU16DiskSingle
 	 */
-	private double[][][] processPSF(final double[][][] input) {
-
-		// make circshift to the psf matrix
-		final int shiftX = (int) Math.floor(lenPsf / 2);
-		final int shiftY = (int) Math.floor(psfW / 2);
-		final int shiftZ = (int) Math.floor(psfH / 2);
-		double[][][] psfShift = iCircShift(input, shiftZ, shiftY, shiftX);
+	private GreyU16DiskSingle[] getImgSingles(
+			final int nImgDim,
+			final int imgDim,
+			final int imgSize) {
+		final GreyU16DiskSingle[] result = new GreyU16DiskSingle[imgSize];
+		imgH = 0;
+		imgW = 0;
+		for (int i = 0; i < imgSize; i++) {
+			final int[] imgIndex = new int[nImgDim];
+			imgIndex[imgDim] = i;
+			final ImageSingle<?> imgSingle = imgSet.get0iR(imgIndex);
+			if (!GreyU16DiskSingle.class.isInstance(imgSingle)) {
+				JOptionPane.showMessageDialog(
+					menuItem,
+					"The image single has to be GreyU16DiskSingle",
+					"Wrong Image Format!",
+					JOptionPane.ERROR_MESSAGE);
+				return null;
+			}
 
-		// normalize psf matrix
-		final double psfSum = sum(sum(sum(psfShift)));
-		multiplyI(psfShift, 1 / psfSum);
+			result[i] = (GreyU16DiskSingle) imgSingle;
+			imgH = Math.max(imgH, result[i].getHeight());
+			imgW = Math.max(imgW, result[i].getWidth());
+		}
 
-		return psfShift;
+		return result;
 	}
 
 	/**
-	 * Dot divide x by y, substitute zeros in y into EPS to x
-	 * 
-	 * @param x
-	 * 
-	 * @param y
+	 * Make the input matrix of the size of deconvoltuon, wich is lenConv x imgH
+	 * x imgW
 	 * 
-	 * @return The result matrix
+	 * @param input
 	 * 
-	 * @throws IllegalArgumentException
-	 *         If input arguments have different sizes
+	 * @return A volume of lenConv x imgH x imgW
 	 */
-	private double[][][] dotDivide(
-			final double[][][] x,
-			final double[][][] y) {
-		if (!isSameSize(x, y))
-			throw new IllegalArgumentException(
-				"Input arguments should be of the same size");
-
-		final int n = y.length;
-		final int h = y[0].length;
-		final int w = y[0][0].length;
-
-		// substitute the elements equal to zero in y to EPS
-		final double[][][] result = new double[n][][];
-
-		List<Integer> tuples = new ArrayList<>();
-		for (int k = 0; k < n; k++)
-			tuples.add(k);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			final double[][] denor = copy(y[tuple]);
-
-			for (int i = 0; i < w; i++) {
-				for (int j = 0; j < h; j++) {
-					if (denor[j][i] == 0)
-						denor[j][i] = EPS;
-				}
-			}
-
-			result[tuple] = copy(divide(x[tuple], denor));
-		});
-
-		return result;
-	}
+	private Volume3D makeDeconvSize(final double[][][] input) {
+		return Volume3D.fromMatrix(input, lenConv, imgH, imgW);
+	}
 
 	/**
-	 * Convert the negative elements in the input matrix to zero
+	 * Show the percentage of completion in the progress bar
 	 * 
 	 * @param input
-	 * 
-	 * @return The converted matrix
-	 */
-	private double[][][] negativeToZero(final double[][][] input) {
-		final int n = input.length;
-		final int h = input[0].length;
-		final int w = input[0][0].length;
-
-		final double[][][] result = new double[n][h][w];
-
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < n; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			for (int y = 0; y < h; y++) {
-				for (int x = 0; x < w; x++) {
-					if (input[tuple][y][x] >= 0)
-						result[tuple][y][x] = input[tuple][y][x];
-				}
-			}
-		});
-
-		return result;
-	}
-
-	/**
-	 * Prepare the image matrix data for the Richardson-Lucy iteration in the
-	 * accelerated Richardson-Lucy algorithm
-	 * 
-	 * @param imgIter
-	 *        The current value of the image matrix
-	 * 
-	 * @param imgIterPre
-	 *        The previous value of the image matrix
-	 * 
-	 * @param gX
-	 *        The first element in the acceleration factor calculation
-	 * 
-	 * @param gY
-	 *        The second element in the acceleration factor calculation
-	 * 
-	 * @return The image matrix for the lucyIteration
-	 */
-	private double[][][] makeImageMatrix(
-			final double[][][] imgIter,
-			final double[][][] imgIterPre,
-			final double[][][] gX,
-			final double[][][] gY) {
-		// calculate the acceleration factor
-		double[] alphaDenor = new double[imgH];
-		double[] alphaNumer = new double[imgH];
-
-		for (int i = 0; i < imgH; i++) {
-			alphaNumer[i] = sum(
-				sum(multiply(gX[i], gY[i])));
-			alphaDenor[i] = sum(
-				sum(multiply(gY[i], gY[i])));
-		}
-
-		final double alpha
-			= sum(alphaNumer) / (sum(alphaDenor) + EPS);
-		alphaDenor = null;
-		alphaNumer = null;
-
-		// calculate the transformed imgIter
-		double[][][] imgIterIn;
-
-		if (alpha > 1 || alpha < 0)
-			imgIterIn = copy(imgIter);
-		else {
-			double[][][] imgIterMat = add(
-				imgIter,
-				multiply(imgIterPre, -1.0));
-
-			double[][][] imgIterItem = multiply(imgIterMat, alpha);
-			imgIterIn = negativeToZero(add(imgIter, imgIterItem));
-			imgIterMat = null;
-			imgIterItem = null;
-		}
-
-		return imgIterIn;
-	}
-
-	/**
-	 * One iteration in Agard algorithm
-	 * 
-	 * @param imgIter
-	 *        The current value of the image matrix
-	 * 
-	 * @param psfTrans
-	 *        The Fourier transformed PSF
-	 * 
-	 * @param rawImg
-	 *        The original value of the image matrix
-	 * 
-	 * @return The image matrix after the current iteration
-	 */
-	private double[][][] agardIteration(
-			final double[][][] imgIter,
-			final ComplexMatrix3D psfTrans,
-			final double[][][] rawImg) {
-
-		// calculate iteration factor
-		ComplexMatrix3D imgIterMat = new ComplexMatrix3D(
-			imgIter,
-			new double[imgH][imgW][lenConv]);
-		ComplexMatrix3D imgIterTrans
-			= JTransforms3DUtil.fft3D(imgIterMat);
-		ComplexMatrix3D.multiplyI(imgIterTrans, psfTrans);
-		double[][][] prodTrans
-			= JTransforms3DUtil.ifft3D(imgIterTrans).getReal();
-		final double[][][] iterFactor = dotDivide(rawImg, prodTrans);
-
-		// multiply the imgIter with the iteration factor
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < imgH; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			for (int x = 0; x < lenConv; x++) {
-				for (int y = 0; y < imgW; y++) {
-					imgIter[tuple][y][x]
-						= imgIter[tuple][y][x] * iterFactor[tuple][y][x];
-					if (imgIter[tuple][y][x] < 0)
-						imgIter[tuple][y][x] = 0;
-				}
-			}
-		});
-
-		imgIterMat = null;
-		imgIterTrans = null;
-		prodTrans = null;
-
-		return imgIter;
-	}
-
-	/**
-	 * One iteration in Richardson-Lucy algorithm
-	 * 
-	 * @param imgIter
-	 *        The current value of the image matrix
-	 * 
-	 * @param psfTrans
-	 *        The Fourier transformed PSF
-	 * 
-	 * @param rawImg
-	 *        The original value of the image matrix
-	 * 
-	 * @param bg
-	 *        The background value
-	 * 
-	 * @return The image matrix after the current iteration
-	 */
-	private double[][][] iterationRL(
-			final double[][][] imgIter,
-			final ComplexMatrix3D psfTrans,
-			final double[][][] rawImg,
-			final double bg) {
-
-		// calculate transformation factor
-		ComplexMatrix3D imgIterMat
-			= new ComplexMatrix3D(imgIter, new double[imgH][imgW][lenConv]);
-		ComplexMatrix3D imgTrans = JTransforms3DUtil.fft3D(imgIterMat);
-		ComplexMatrix3D.multiplyI(imgTrans, psfTrans);
-		ComplexMatrix3D prodTrans
-			= ComplexMatrix3D.add(JTransforms3DUtil.ifft3D(imgTrans), bg);
-		double[][][] iterFactor = dotDivide(rawImg, prodTrans.getReal());
-		final ComplexMatrix3D factorMat = new ComplexMatrix3D(
-			iterFactor,
-			new double[imgH][imgW][lenConv]);
-
-		imgIterMat = null;
-		imgTrans = null;
-		prodTrans = null;
-		iterFactor = null;
-
-		// calculate LR transformed image data
-		ComplexMatrix3D factorMatTrans = JTransforms3DUtil.fft3D(factorMat);
-		ComplexMatrix3D psfConj = psfTrans.getConjugate();
-		ComplexMatrix3D.multiplyI(factorMatTrans, psfConj);
-		final double[][][] imgFactor
-			= JTransforms3DUtil.ifft3D(factorMatTrans).getReal();
-
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < imgH; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			for (int x = 0; x < lenConv; x++) {
-				for (int y = 0; y < imgW; y++) {
-					imgIter[tuple][y][x]
-						= imgIter[tuple][y][x] * imgFactor[tuple][y][x];
-					if (imgIter[tuple][y][x] < 0)
-						imgIter[tuple][y][x] = 0;
-				}
-			}
-		});
-
-		factorMatTrans = null;
-		psfConj = null;
-
-		return imgIter;
-	}
-
-	/**
-	 * Single regularized least square algorithm
-	 * 
-	 * @param img
-	 * 
-	 * @param psf
-	 * 
-	 * @param psfPow2
-	 * 
-	 * @param regItem
-	 *        Regularization item
-	 * 
-	 * @return Deconvolution factor
-	 */
-	private ComplexMatrix3D simpleRLS(
-			final ComplexMatrix3D img,
-			final ComplexMatrix3D psf,
-			final ComplexMatrix3D psfPow2,
-			final double regItem) {
-		// calculate numerator and denominator
-		ComplexMatrix3D numor = ComplexMatrix3D.multiply(psf, img);
-		ComplexMatrix3D denor = ComplexMatrix3D.add(psfPow2, regItem);
-
-		// divide denominator to numerator
-		ComplexMatrix3D.divideI(numor, denor);
-		denor = null;
-
-		return numor;
-	}
-
-	/**
-	 * The regularized least square algorithm used in MATLAB
-	 * 
-	 * @param img
-	 * 
-	 * @param psf
-	 * 
-	 * @param psfPow2
-	 * 
-	 * @param regItem
-	 *        Regularization item
-	 * 
-	 * @return Deconvolution factor
+	 *        The value showed in the progress bar
 	 */
-	private ComplexMatrix3D matRLS(
-			final ComplexMatrix3D img,
-			final ComplexMatrix3D psf,
-			final ComplexMatrix3D psfPow2,
-			final double regItem) {
-		// calculate numerator and denominator
-		final ComplexMatrix3D numor = ComplexMatrix3D.multiply(psf, img);
-		final ComplexMatrix3D denor = ComplexMatrix3D.add(psfPow2, regItem);
-
-		// process denominator
-		final double oTiny = 5.0e-8;
-		double[][][] numorAbs = numor.getAbs();
-		final double numorMax
-			= max(max(max(numorAbs)));
-		final double oSmall = numorMax * oTiny;
-
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < imgH; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			for (int y = 0; y < imgW; y++) {
-				for (int x = 0; x < lenConv; x++) {
-					if (denor.real[tuple][y][x] < oSmall)
-						if (denor.real[tuple][y][x] > 0)
-							denor.real[tuple][y][x] = oSmall;
-						else
-							denor.real[tuple][y][x] = -1.0 * oSmall;
-				}
-			}
-		});
-
-		// divide denominator to numerator
-		ComplexMatrix3D.divideI(numor, denor);
-		numorAbs = null;
-
-		return numor;
-	}
+	private void showProgress(final double input) {
+		if (prob == null || completionTf == null || isBatchRunning)
+			return;
 
-	/**
-	 * Modified regularized least square algorithm
-	 * 
-	 * @param img
-	 * 
-	 * @param psf
-	 * 
-	 * @param psfPow2
-	 * 
-	 * @param psfPow4
-	 * 
-	 * @param regItem
-	 *        Regularization item
-	 * 
-	 * @return Deconvolution factor
-	 */
-	private ComplexMatrix3D modifiedRLS(
-			final ComplexMatrix3D img,
-			final ComplexMatrix3D psf,
-			final ComplexMatrix3D psfPow2,
-			final ComplexMatrix3D psfPow4,
-			final double regItem) {
-		// calculate numerator and denominator
-		ComplexMatrix3D item = ComplexMatrix3D.multiply(psf, img);
-		ComplexMatrix3D numor = ComplexMatrix3D.multiply(item, psfPow2);
-		ComplexMatrix3D denor = ComplexMatrix3D.add(psfPow4, regItem);
-
-		// divide denominator to numerator
-		ComplexMatrix3D.divideI(numor, denor);
-		denor = null;
-		item = null;
-
-		return numor;
+		final double percentile = input * 100;
+		prob.setProgress(input);
+		completionTf.setText(String.format("Complete: %3.0f%%", percentile));
 	}
 
 	/**
-	 * Weighted regularized least square algorithm
+	 * Show the number of deconvolved stacks in the progress bar
 	 * 
-	 * @param img
+	 * @param finished
+	 *        The number of deconvolved stacks
 	 * 
-	 * @param psf
-	 * 
-	 * @param psfPow2
-	 * 
-	 * @param regItem
-	 *        Regularization item
-	 * 
-	 * @return Deconvolution factor
+	 * @param stacks
+	 *        The number of stacks
 	 */
-	private ComplexMatrix3D weightedRLS(
-			final ComplexMatrix3D img,
-			final ComplexMatrix3D psf,
-			final ComplexMatrix3D psfPow2,
-			final double regItem) {
-		// calculate weight factor
-		final double[][][] factor = new double[imgH][imgW][lenConv];
-		final double factorDenor
-			= imgH * imgH + imgW * imgW + lenConv * lenConv;
-
-		List<Integer> tuples = new ArrayList<>();
-		for (int z = 0; z < imgH; z++)
-			tuples.add(z);
-
-		tuples.parallelStream().forEachOrdered(tuple -> {
-			for (int y = 0; y < imgW; y++) {
-				for (int x = 0; x < lenConv; x++) {
-					final double itemH
-						= (double) tuple + 1 - Math.round((double) imgH / 2);
-					final double factorH = itemH * itemH;
-
-					final double itemW
-						= (double) y + 1 - Math.round((double) imgW / 2);
-					final double factorW = itemW * itemW;
-
-					final double itemConv
-						= (double) x + 1 - Math.round((double) lenConv / 2);
-					final double factorConv = itemConv * itemConv;
-
-					factor[tuple][y][x]
-						= (factorH + factorW + factorConv)
-							/ factorDenor
-							* 2
-							* Math.PI
-							* 2
-							* regItem;
-				}
-			}
-		});
-
-		// ifftshift factor
-		double[][][] factorShift = ifftShift(factor);
-		ComplexMatrix3D factorComp
-			= new ComplexMatrix3D(
-				factorShift,
-				new double[imgH][imgW][lenConv]);
-
-		// calculate numerator and denominator
-		ComplexMatrix3D numor = ComplexMatrix3D.multiply(psf, img);
-		ComplexMatrix3D denor = ComplexMatrix3D.add(psfPow2, factorComp);
-
-		// divide denominator to numerator
-		ComplexMatrix3D.divideI(numor, denor);
-		denor = null;
-		factorShift = null;
-		factorComp = null;
-
-		return numor;
-	}
-
-	/**
-	 * Show the percentage of completion in the progress bar
-	 * 
-	 * @param input
-	 *        The value showed in the progress bar
-	 */
-	private void showProgress(final double input) {
+	private void showBatchProgress(final int finished, final int stacks) {
 		if (prob == null || completionTf == null)
 			return;
 
-		final double percentile = input * 100;
-		prob.setProgress(input);
-		completionTf.setText(String.format("Complete: %3.0f%%", percentile));
+		prob.setProgress((double) finished / stacks);
+		completionTf.setText(
+			String.format("Complete: %d of %d stacks", finished, stacks));
 	}
 
 	/**
@@ -1928,54 +1572,6 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		return result;
 	}
 
-	/**
-	 * Load data from a image set
-	 * 
-	 * @param nImgDim
-	 *        The number of dimensions in the image set
-	 * 
-	 * @param imgDim
-	 *        The dimension of the image series
-	 * 
-	 * @param imgSize
-	 *        The length of the image series
-	 */
-	private void loadImageSet(
-			final int nImgDim,
-			final int imgDim,
-			final int imgSize) {
-		imgDataIn = new double[imgSize][][];
-		imgHArr = new int[imgSize];
-		imgWArr = new int[imgSize];
-
-		// Load image data to imgDataIn matrix
-		for (int i = 0; i < imgSize; i++) {
-			final ImageSingle<?> imgSingle;
-			final int[] imgIndex = new int[nImgDim];
-			imgIndex[imgDim] = i;
-			imgSingle = imgSet.get0iR(imgIndex);
-			if (!GreyU16DiskSingle.class.isInstance(imgSingle)) {
-				JOptionPane.showMessageDialog(
-					menuItem,
-					"The image single has to be GreyU16DiskSingle",
-					"Wrong Image Format!",
-					JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-
-			// subtract background from the image
-			final double imgBg = getBackground(imgSingle);
-			double[][] imgData
-				= subtractBackground(imgSingle.get2DImageMatrix(), imgBg);
-
-			imgHArr[i] = imgData.length;
-			imgWArr[i] = imgData[0].length;
-			imgDataIn[i] = copy(imgData);
-			imgSingle.flush();
-			imgData = null;
-		}
-	}
-
 	/**
 	 * Refresh the image set on the image set browser
 	 * 
@@ -2027,388 +1623,6 @@ public class DeconvolutionPlugin implements MIAPlugin, ActionListener {
 		intTool.getSetBrowser().setAsLoaded(intSet);
 	}
 
-	/**
-	 * save image set to mtd and path
-	 * 
-	 * @param input
-	 * 
-	 * @param length
-	 *        The length of the new image set
-	 * 
-	 * @param seriesName
-	 *        The name of the new image set in mtd
-	 * 
-	 * @return The newly saved image set
-	 */
-	private ImageSet saveImageSet(
-			final double[][][] input,
-			final int length,
-			final String seriesName) {
-		// Create new series directories in the MIAToolDirectory
-		final String mtdRoot = mtd.getRootPath();
-		final String imgFiles = buildPath(mtdRoot, IMAGES_DIR);
-		final String seriesFolder = buildPath(imgFiles, seriesName);
-
-		// delete the directory that already existed and creat a new directory
-		final File dir = new File(seriesFolder);
-		if (dir.exists())
-			dir.delete();
-		new File(seriesFolder).mkdirs();
-
-		// Save images to disk
-		final ImageSet result = new ImageSet(length);
-		final double max = max(max(max(input)));
-		for (int j = 0; j < length; j++) {
-			final int height = input[j].length;
-			final int width = input[j][0].length;
-
-			// subtract backgrouond from the data
-			final GreyD64RAMSingle ramImgSi = new GreyD64RAMSingle(input[j]);
-			final double ramImgSiBg = getBackground(ramImgSi);
-			double[][] ramImgData = subtractBackground(input[j], ramImgSiBg);
-
-			// linearize data
-			double[] linData = linearize(ramImgData);
-			short[] sData = convertToInt16(linData, max);
-
-			// make file names
-			final String fileName = "s1_" + Integer.toString(j + 1) + ".tif";
-			final String newImgName = buildPath(seriesFolder, fileName);
-
-			// save files
-			final MIATIFFWriter mtw = new MIATIFFWriter(sData, width, height);
-			try {
-				mtw.write(0, newImgName);
-			}
-			catch (final IOException e) {
-				e.printStackTrace();
-			}
-
-			// make a new image set and fill it with the saved images
-			final GreyU16DiskSingle imgSingle;
-			final String imgName = buildPath(IMAGES_DIR, seriesName, fileName);
-			imgSingle = new GreyU16DiskSingle(imgName, true);
-			result.set0iR(imgSingle, j);
-
-			// flush memory
-			linData = null;
-			sData = null;
-			ramImgData = null;
-			ramImgSi.flush();
-			imgSingle.flush();
-		}
-
-		// save results to mtd
-		result.setFilename(seriesName);
-		result.setParent(mtd);
-		try {
-			mtd.saveObject(null, result);
-		}
-		catch (final IOException e) {
-			e.printStackTrace();
-		}
-
-		return result;
-	}
-
-	/**
-	 * Make a image set in which the first row is the original image set and the
-	 * second row is the deconvolution image set
-	 * 
-	 * @param inputO
-	 *        the original image set
-	 * 
-	 * @param inputR
-	 *        the deconvolution image set
-	 * 
-	 * @return the combined image set for comparison
-	 */
-	private ImageSet makeCompareSet(
-			final ImageSet inputO,
-			final ImageSet inputR,
-			final int length,
-			final String seriesName) {
-		// Create new series directories in the MIAToolDirectory
-		final String mtdRoot = mtd.getRootPath();
-		final String imgFiles = MIAUtil.buildPath(mtdRoot, IMAGES_DIR);
-		final String seriesFolderO
-			= MIAUtil.buildPath(imgFiles, seriesName, "Series1");
-		final String seriesFolderR
-			= MIAUtil.buildPath(imgFiles, seriesName, "Series2");
-
-		// Create new directories
-		new File(seriesFolderO).mkdirs();
-		new File(seriesFolderR).mkdirs();
-
-		// Save images to the disk
-		final ImageSet result = new ImageSet(2, length);
-		final int[] inputOSize = inputO.size();
-
-		for (int j = 0; j < length; j++) {
-			// get image singles from the image set
-			final GreyU16DiskSingle oSi;
-			if (inputOSize.length == 1)
-				oSi = (GreyU16DiskSingle) inputO.get0iR(j);
-			else
-				oSi = (GreyU16DiskSingle) inputO.get0iR(j, 0, 0);
-
-			final GreyU16DiskSingle rSi = (GreyU16DiskSingle) inputR.get0iR(j);
-
-			// get file location
-			final String oSiPath = oSi.getImagePath();
-			final String rSiPath = rSi.getImagePath();
-
-			// make destination file names
-			final String fileNameO = "s1_" + Integer.toString(j + 1) + ".tif";
-			final String fileNameR = "s2_" + Integer.toString(j + 1) + ".tif";
-			final String newOSiPath
-				= MIAUtil.buildPath(seriesFolderO, fileNameO);
-			final String newRSiPath
-				= MIAUtil.buildPath(seriesFolderR, fileNameR);
-
-			// copy files to the new destinations
-			final File oSiFile = new File(oSiPath);
-			final File newOSiFile = new File(newOSiPath);
-			final File rSiFile = new File(rSiPath);
-			final File newRSiFile = new File(newRSiPath);
-			try {
-				FileUtil.copyFile(oSiFile, newOSiFile);
-				FileUtil.copyFile(rSiFile, newRSiFile);
-			}
-			catch (final IOException e) {
-				e.printStackTrace();
-			}
-
-			// make a new image set with the saved images
-			final GreyU16DiskSingle imgSingleO;
-			final GreyU16DiskSingle imgSingleR;
-			final String imgNameO
-				= buildPath(IMAGES_DIR, seriesName, "Series1", fileNameO);
-			final String imgNameR
-				= buildPath(IMAGES_DIR, seriesName, "Series2", fileNameR);
-			imgSingleO = new GreyU16DiskSingle(imgNameO, true);
-			imgSingleR = new GreyU16DiskSingle(imgNameR, true);
-			result.set0iR(imgSingleO, 0, j);
-			result.set0iR(imgSingleR, 1, j);
-
-			// flush memory
-			oSi.flush();
-			rSi.flush();
-		}
-
-		// Save the image set to the MIAToolDirectory
-		result.setFilename(seriesName);
-		result.setParent(mtd);
-		try {
-			mtd.saveObject(null, result);
-		}
-		catch (final IOException e) {
-			e.printStackTrace();
-		}
-
-		return result;
-	}
-
-	/** Utility class for the JTransform library */
-	public static class JTransforms3DUtil {
-		/**
-		 * Convert a 3D matrix used by JTransform into an object of
-		 * ComplexMatrix3D
-		 * 
-		 * @param complex
-		 *        3D matrix for JTransforms
-		 * 
-		 * @return ComplexMatrix3D
-		 */
-		public static ComplexMatrix3D convertToComplexMatrix3D(
-				final double[][][] complex) {
-			final int n = complex.length;
-			final int h = complex[0].length;
-			final int w = complex[0][0].length / 2;
-
-			// Initialize elements of the output
-			final double[][][] real = new double[n][h][w];
-			final double[][][] imaginary = new double[n][h][w];
-
-			/*
-			 * loop through the 3D matrix to separate the real part and
-			 * imaginary parts
-			 */
-			List<Integer> tuples = new ArrayList<>();
-			for (int z = 0; z < n; z++)
-				tuples.add(z);
-
-			tuples.parallelStream().forEachOrdered(tuple -> {
-				for (int y = 0; y < h; y++) {
-					for (int x = 0; x < w; x++) {
-						real[tuple][y][x] = complex[tuple][y][2 * x];
-						imaginary[tuple][y][x] = complex[tuple][y][2 * x + 1];
-					}
-				}
-			});
-
-			// Construct the output object
-			final ComplexMatrix3D result = new ComplexMatrix3D(real, imaginary);
-
-			return result;
-		}
-
-		/**
-		 * Convert the object into a 3D complex matrix in which the real part
-		 * and the imaginary part of a complex number are stored one by another
-		 * 
-		 * @param input
-		 *        ComplexMatrix3D
-		 * 
-		 * @return 3D matrix for JTransforms
-		 */
-		public static double[][][] convertToMatrix(
-				final ComplexMatrix3D input) {
-			final int n = input.real.length;
-			final int h = input.real[0].length;
-			final int w = input.real[0][0].length;
-
-			final double[][][] result = new double[n][h][2 * w];
-
-			List<Integer> tuples = new ArrayList<>();
-			for (int z = 0; z < n; z++)
-				tuples.add(z);
-
-			tuples.parallelStream().forEachOrdered(tuple -> {
-				for (int y = 0; y < h; y++) {
-					for (int x = 0; x < w; x++) {
-						result[tuple][y][2 * x] = input.real[tuple][y][x];
-						result[tuple][y][2 * x + 1]
-							= input.imaginary[tuple][y][x];
-					}
-				}
-			});
-
-			return result;
-		}
-
-		/**
-		 * Make 3D FFT
-		 * 
-		 * @param input
-		 *        matrix for JTransforms
-		 * 
-		 * @return Fourier transformed matrix
-		 */
-		public static ComplexMatrix3D fft3D(final ComplexMatrix3D input) {
-			double[][][] matrix = convertToMatrix(input);
-			final int n = matrix.length;
-			final int h = matrix[0].length;
-			final int w = matrix[0][0].length / 2;
-
-			// make a new instance of JTransforms and apply FFT
-			final DoubleFFT_3D fft = new DoubleFFT_3D(n, h, w);
-			fft.complexForward(matrix);
-
-			final ComplexMatrix3D compMat = convertToComplexMatrix3D(matrix);
-			matrix = null;
-
-			return compMat;
-		}
-
-		/**
-		 * Make 3D inverse FFT
-		 * 
-		 * @param input
-		 *        matrix for JTransforms
-		 * 
-		 * @return Inverse Fourier transformed matrix
-		 */
-		public static ComplexMatrix3D ifft3D(final ComplexMatrix3D input) {
-			double[][][] matrix = convertToMatrix(input);
-			final int n = matrix.length;
-			final int h = matrix[0].length;
-			final int w = matrix[0][0].length / 2;
-
-			/*
-			 * make a new instance of JTransforms and apply iFFT, re-scale the
-			 * result
-			 */
-			final DoubleFFT_3D ifft = new DoubleFFT_3D(n, h, w);
-			ifft.complexInverse(matrix, true);
-
-			final ComplexMatrix3D compMat = convertToComplexMatrix3D(matrix);
-			matrix = null;
-
-			return compMat;
-		}
-	}
-
-	/** Define the methods of deconvolution */
-	public static enum DeconvMethod {
-		/** Simple regularied least square algorithm */
-		SIMPLE_RLS("Simple regularized least square"),
-
-		/**
-		 * The regularized least squared algorithm translated from MATLAB
-		 * build-in function
-		 */
-		MAT_RLS("Matlab regularized least square"),
-
-		/**
-		 * Added modifying factor to the numerator of the deconvolution factor
-		 */
-		MODIFIED_RLS("Modified regularized least square"),
-
-		/** Added a weight to each element in the deconvolution factor */
-		WEIGHTED_RLS("Weighted regularized least square"),
-
-		/** Agard algorithm */
-		AGARD("Agard algorithm"),
-
-		/** Richardson_Lucy algorithm */
-		RICHARDSON_LUCY("Richardson-Lucy algorithm"),
-
-		/** Accelerated Richardson-Lucy algorithm */
-		ACCEL_RICHARDSON_LUCY("Accelerated Richardson-Lucy algorithm");
-
-		private final String method;
-
-		DeconvMethod(final String str) {
-			this.method = str;
-		}
-
-		/**
-		 * 
-		 * @return the deconvolution method
-		 */
-		public String getMethod() {
-			return this.method;
-		}
-
-		/**
-		 * find the method for the input string
-		 * 
-		 * @return the deconvolution method
-		 */
-		public static DeconvMethod findMethod(final String input) {
-			if (input == null)
-				return null;
-
-			DeconvMethod method = null;
-			if (input.equals(SIMPLE_RLS.getMethod()))
-				method = SIMPLE_RLS;
-			if (input.equals(MAT_RLS.getMethod()))
-				method = MAT_RLS;
-			if (input.equals(MODIFIED_RLS.getMethod()))
-				method = MODIFIED_RLS;
-			if (input.equals(WEIGHTED_RLS.getMethod()))
-				method = WEIGHTED_RLS;
-			if (input.equals(AGARD.getMethod()))
-				method = AGARD;
-			if (input.equals(RICHARDSON_LUCY.getMethod()))
-				method = RICHARDSON_LUCY;
-			if (input.equals(ACCEL_RICHARDSON_LUCY.getMethod()))
-				method = ACCEL_RICHARDSON_LUCY;
-			return method;
-		}
-	}
-
 	/**
 	 * Inner class to simulate a Born-Wolf 3D PSF image.
 	 * 
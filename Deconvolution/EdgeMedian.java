@@ -0,0 +1,193 @@
+package miatool.plugins;
+
+/**
+ * The background of an image as the median of its edge pixels, the pixels
+ * of the first and last rows and columns each taken once. The median of an
+ * even number of pixels is the mean of the two middle pixels. A 16 bit
+ * image is counted in a histogram of its edge pixels and a real image is
+ * selected in linear time, both in buffers kept by the calling thread, so
+ * no memory is allocated for a plane and the planes can be estimated in
+ * parallel. It gives the background the NonParametricBackgroundMethod
+ * gives for an image single, which EdgeMedianTest checks.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class EdgeMedian {
+
+	/** The number of values of an unsigned 16 bit pixel */
+	private static final int GREY_LEVELS = 1 << 16;
+
+	/** The histograms of the threads, all zero between two estimates */
+	private static final ThreadLocal<int[]> HISTOGRAM
+		= ThreadLocal.withInitial(() -> new int[GREY_LEVELS]);
+
+	/** The edge pixels of the threads */
+	private static final ThreadLocal<double[]> EDGES
+		= ThreadLocal.withInitial(() -> new double[0]);
+
+	private EdgeMedian() {
+	}
+
+	/**
+	 * @param data
+	 *        The unsigned 16 bit pixels row by row
+	 * 
+	 * @param width
+	 * 
+	 * @param height
+	 * 
+	 * @return The median of the edge pixels
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the pixels do not match the size
+	 */
+	static double of(final short[] data, final int width, final int height) {
+		if (width < 1 || height < 1 || data.length < width * height)
+			throw new IllegalArgumentException(
+				"The pixels do not match the size of the image");
+
+		final int[] histogram = HISTOGRAM.get();
+		final int count = edgeCount(width, height);
+		for (int i = 0; i < count; i++)
+			histogram[data[edgeIndex(i, width, height)] & 0xFFFF]++;
+
+		// find the two middle levels, they are the same for an odd count
+		final int lower = (count - 1) / 2;
+		final int upper = count / 2;
+		int lowerLevel = -1;
+		int upperLevel = -1;
+		for (int level = 0, seen = 0; upperLevel < 0; level++) {
+			seen += histogram[level];
+			if (lowerLevel < 0 && seen > lower)
+				lowerLevel = level;
+			if (seen > upper)
+				upperLevel = level;
+		}
+
+		// clear the bins of the edges only
+		for (int i = 0; i < count; i++)
+			histogram[data[edgeIndex(i, width, height)] & 0xFFFF] = 0;
+
+		return 0.5 * (lowerLevel + upperLevel);
+	}
+
+	/**
+	 * @param plane
+	 *        The jagged image matrix, the rows are of the length of the
+	 *        first row
+	 * 
+	 * @return The median of the edge pixels
+	 */
+	static double of(final double[][] plane) {
+		final int height = plane.length;
+		final int width = plane[0].length;
+
+		final int n = edgeCount(width, height);
+		double[] values = EDGES.get();
+		if (values.length < n) {
+			values = new double[n];
+			EDGES.set(values);
+		}
+
+		for (int i = 0; i < n; i++) {
+			final int index = edgeIndex(i, width, height);
+			values[i] = plane[index / width][index % width];
+		}
+
+		final double upper = select(values, n, n / 2);
+		if (n % 2 == 1)
+			return upper;
+
+		// the lower middle is the largest value below the upper middle
+		double lower = values[0];
+		for (int i = 1; i < n / 2; i++)
+			if (values[i] > lower)
+				lower = values[i];
+		return 0.5 * (lower + upper);
+	}
+
+	/**
+	 * @return The number of edge pixels of an image
+	 */
+	private static int edgeCount(final int width, final int height) {
+		if (height == 1)
+			return width;
+		return 2 * width + (height - 2) * Math.min(width, 2);
+	}
+
+	/**
+	 * The edge pixels are the first row, the last row, and the first and last
+	 * pixels of the rows between them
+	 * 
+	 * @param i
+	 *        The number of the edge pixel, from 0
+	 * 
+	 * @return The index y * width + x of the edge pixel
+	 */
+	private static int edgeIndex(
+			final int i,
+			final int width,
+			final int height) {
+		if (i < width)
+			return i;
+		if (i < 2 * width)
+			return (height - 1) * width + i - width;
+
+		// the sides of the rows between, two pixels or one in a row
+		final int side = i - 2 * width;
+		if (width == 1)
+			return (side + 1) * width;
+		return (side / 2 + 1) * width + (side % 2) * (width - 1);
+	}
+
+	/**
+	 * Select the k-th smallest of the first n values in place, the values
+	 * before k are not larger than it afterwards
+	 * 
+	 * @return The k-th smallest value, from 0
+	 */
+	private static double select(
+			final double[] values,
+			final int n,
+			final int k) {
+		int left = 0;
+		int right = n - 1;
+		while (left < right) {
+			// the median of three as the pivot
+			final int mid = (left + right) >>> 1;
+			if (values[mid] < values[left])
+				swap(values, mid, left);
+			if (values[right] < values[left])
+				swap(values, right, left);
+			if (values[right] < values[mid])
+				swap(values, right, mid);
+			final double pivot = values[mid];
+
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot)
+					i++;
+				while (values[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(values, i++, j--);
+			}
+
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return values[k];
+		}
+		return values[k];
+	}
+
+	private static void swap(final double[] values, final int i, final int j) {
+		final double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+}
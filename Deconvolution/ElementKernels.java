@@ -0,0 +1,277 @@
+package miatool.plugins;
+
+/**
+ * Element-wise kernels of the spectral passes of the deconvolutions, on the
+ * interleaved complex elements of a {@link Spectrum3D} and on the rows of a
+ * {@link Volume3D}. The scalar kernels run everywhere. The vector kernels of
+ * {@link VectorElementKernels} use the SIMD instructions of the processor
+ * through jdk.incubator.vector, they are loaded by their name on the first
+ * use of the kernels, so the scalar kernels are used if the module is not
+ * available at runtime or the vectors of the processor are too short. A
+ * kernel works on a range of elements, the ranges are run in parallel by
+ * the callers through {@link VolumeKernels}.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+interface ElementKernels {
+
+	/** The scalar kernels */
+	ElementKernels SCALAR = new Scalar();
+
+	/**
+	 * @return The selected kernels
+	 */
+	static ElementKernels get() {
+		return Selection.current;
+	}
+
+	/**
+	 * Select the vector kernels or the scalar kernels for all the spectra
+	 * and volumes
+	 * 
+	 * @param vector
+	 *        True for the vector kernels if they are available
+	 * 
+	 * @return True if the vector kernels are selected
+	 */
+	static boolean select(final boolean vector) {
+		final ElementKernels kernels = vector ? Selection.VECTOR : null;
+		Selection.current = kernels == null ? SCALAR : kernels;
+		return kernels != null;
+	}
+
+	/**
+	 * Multiply the complex elements of a with b in place
+	 * 
+	 * @param from
+	 *        The index of the first complex element
+	 * 
+	 * @param to
+	 *        The index after the last complex element
+	 */
+	void multiply(double[] a, double[] b, int from, int to);
+
+	/**
+	 * Multiply the complex elements of a with the complex conjugates of b in
+	 * place
+	 * 
+	 * @param from
+	 *        The index of the first complex element
+	 * 
+	 * @param to
+	 *        The index after the last complex element
+	 */
+	void multiplyConj(double[] a, double[] b, int from, int to);
+
+	/**
+	 * Divide the complex elements of a by b in place
+	 * 
+	 * @param from
+	 *        The index of the first complex element
+	 * 
+	 * @param to
+	 *        The index after the last complex element
+	 */
+	void divide(double[] a, double[] b, int from, int to);
+
+	/**
+	 * Store the absolute values of the complex elements of a at the same
+	 * indices of a real array
+	 * 
+	 * @param from
+	 *        The index of the first complex element
+	 * 
+	 * @param to
+	 *        The index after the last complex element
+	 */
+	void abs(double[] a, double[] result, int from, int to);
+
+	/**
+	 * Store the powers of the complex elements of a at the same indices of
+	 * the result
+	 * 
+	 * @param p
+	 *        The exponent
+	 * 
+	 * @param from
+	 *        The index of the first complex element
+	 * 
+	 * @param to
+	 *        The index after the last complex element
+	 */
+	void power(double[] a, int p, double[] result, int from, int to);
+
+	/**
+	 * Overwrite a row of real denominators with the ratios of a row of
+	 * numerators to the denominators plus a shift, a zero sum is replaced by
+	 * eps
+	 * 
+	 * @param length
+	 *        The number of elements of the rows
+	 */
+	void ratio(
+			double[] num,
+			int numOffset,
+			double[] den,
+			int denOffset,
+			int length,
+			double shift,
+			double eps);
+
+	/**
+	 * Multiply a row of real values with a row of factors in place, and
+	 * convert the negative products to zero
+	 * 
+	 * @param length
+	 *        The number of elements of the rows
+	 */
+	void multiplyPositive(
+			double[] x,
+			int offset,
+			double[] factor,
+			int fOffset,
+			int length);
+
+	/** The selection of the kernels */
+	final class Selection {
+
+		/** The vector kernels, null if they are not available */
+		static final ElementKernels VECTOR = loadVector();
+
+		/** The selected kernels, the vector kernels by default */
+		static volatile ElementKernels current
+			= VECTOR == null ? SCALAR : VECTOR;
+
+		private Selection() {
+		}
+
+		/**
+		 * @return The vector kernels, null if the vector module is missing
+		 *         or the vectors of the processor are too short to help
+		 */
+		private static ElementKernels loadVector() {
+			try {
+				return (ElementKernels) Class
+					.forName("miatool.plugins.VectorElementKernels")
+					.getDeclaredConstructor()
+					.newInstance();
+			}
+			catch (final ReflectiveOperationException | LinkageError e) {
+				return null;
+			}
+		}
+	}
+
+	/** The scalar kernels, plain loops over the elements */
+	final class Scalar implements ElementKernels {
+
+		@Override
+		public void multiply(
+				final double[] a,
+				final double[] b,
+				final int from,
+				final int to) {
+			for (int i = from; i < to; i++) {
+				final double ar = a[2 * i];
+				final double ai = a[2 * i + 1];
+				final double br = b[2 * i];
+				final double bi = b[2 * i + 1];
+				a[2 * i] = ar * br - ai * bi;
+				a[2 * i + 1] = ar * bi + ai * br;
+			}
+		}
+
+		@Override
+		public void multiplyConj(
+				final double[] a,
+				final double[] b,
+				final int from,
+				final int to) {
+			for (int i = from; i < to; i++) {
+				final double ar = a[2 * i];
+				final double ai = a[2 * i + 1];
+				final double br = b[2 * i];
+				final double bi = b[2 * i + 1];
+				a[2 * i] = ar * br + ai * bi;
+				a[2 * i + 1] = ai * br - ar * bi;
+			}
+		}
+
+		@Override
+		public void divide(
+				final double[] a,
+				final double[] b,
+				final int from,
+				final int to) {
+			for (int i = from; i < to; i++) {
+				final double ar = a[2 * i];
+				final double ai = a[2 * i + 1];
+				final double br = b[2 * i];
+				final double bi = b[2 * i + 1];
+				final double denor = br * br + bi * bi;
+				a[2 * i] = (ar * br + ai * bi) / denor;
+				a[2 * i + 1] = (ai * br - ar * bi) / denor;
+			}
+		}
+
+		@Override
+		public void abs(
+				final double[] a,
+				final double[] result,
+				final int from,
+				final int to) {
+			for (int i = from; i < to; i++) {
+				final double re = a[2 * i];
+				final double im = a[2 * i + 1];
+				result[i] = Math.sqrt(re * re + im * im);
+			}
+		}
+
+		@Override
+		public void power(
+				final double[] a,
+				final int p,
+				final double[] result,
+				final int from,
+				final int to) {
+			for (int i = from; i < to; i++) {
+				final double re = a[2 * i];
+				final double im = a[2 * i + 1];
+				final double abs = Math.pow(Math.sqrt(re * re + im * im), p);
+				final double arg = Math.atan2(im, re) * p;
+				result[2 * i] = abs * Math.cos(arg);
+				result[2 * i + 1] = abs * Math.sin(arg);
+			}
+		}
+
+		@Override
+		public void ratio(
+				final double[] num,
+				final int numOffset,
+				final double[] den,
+				final int denOffset,
+				final int length,
+				final double shift,
+				final double eps) {
+			for (int x = 0; x < length; x++) {
+				final double denor = den[denOffset + x] + shift;
+				den[denOffset + x]
+					= num[numOffset + x] / (denor == 0 ? eps : denor);
+			}
+		}
+
+		@Override
+		public void multiplyPositive(
+				final double[] x,
+				final int offset,
+				final double[] factor,
+				final int fOffset,
+				final int length) {
+			for (int i = 0; i < length; i++) {
+				final double value = x[offset + i] * factor[fOffset + i];
+				x[offset + i] = value < 0 ? 0 : value;
+			}
+		}
+	}
+}
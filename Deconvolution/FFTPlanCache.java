@@ -0,0 +1,279 @@
+package miatool.plugins;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.jtransforms.fft.DoubleFFT_1D;
+import org.jtransforms.fft.DoubleFFT_2D;
+import org.jtransforms.fft.DoubleFFT_3D;
+import org.jtransforms.fft.FloatFFT_1D;
+
+/**
+ * Thread-safe cache of JTransforms FFT plans keyed by the shape of the
+ * transform. Building a plan computes the twiddle tables of the transform, so
+ * volumes of the same shape share one plan. A JTransforms plan serves both the
+ * forward and the inverse transform, so the direction is not part of the key.
+ * The least recently used plan is evicted when the cache is full.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class FFTPlanCache {
+
+	/** The default number of plans kept in the cache */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/** The cache shared by the deconvolution and the simulations */
+	private static final FFTPlanCache SHARED
+		= new FFTPlanCache(DEFAULT_CAPACITY);
+
+	/** The maximum number of plans kept in the cache */
+	private final int capacity;
+
+	/** The plans in the order of access */
+	private final LinkedHashMap<PlanKey, Object> plans;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity
+	 *        The maximum number of plans kept in the cache
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the capacity is smaller than 1
+	 */
+	public FFTPlanCache(final int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException(
+				"The capacity of the cache should be at least 1");
+
+		this.capacity = capacity;
+		plans = new LinkedHashMap<PlanKey, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<PlanKey, Object> eldest) {
+				if (size() > FFTPlanCache.this.capacity) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return The cache shared by the deconvolution and the simulations
+	 */
+	public static FFTPlanCache getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Get the 1D plan of length w
+	 * 
+	 * @param w
+	 * 
+	 * @return The cached or newly created plan
+	 */
+	public DoubleFFT_1D getPlan1D(final int w) {
+		return getPlan(
+			new PlanKey(PlanType.DOUBLE_1D, 1, 1, w),
+			() -> new DoubleFFT_1D(w),
+			DoubleFFT_1D.class);
+	}
+
+	/**
+	 * Get the 2D plan of the size n x h
+	 * 
+	 * @param n
+	 * 
+	 * @param h
+	 * 
+	 * @return The cached or newly created plan
+	 */
+	public DoubleFFT_2D getPlan2D(final int n, final int h) {
+		return getPlan(
+			new PlanKey(PlanType.DOUBLE_2D, 1, n, h),
+			() -> new DoubleFFT_2D(n, h),
+			DoubleFFT_2D.class);
+	}
+
+	/**
+	 * Get the 3D plan of the size n x h x w
+	 * 
+	 * @param n
+	 * 
+	 * @param h
+	 * 
+	 * @param w
+	 * 
+	 * @return The cached or newly created plan
+	 */
+	public DoubleFFT_3D getPlan3D(final int n, final int h, final int w) {
+		return getPlan(
+			new PlanKey(PlanType.DOUBLE_3D, n, h, w),
+			() -> new DoubleFFT_3D(n, h, w),
+			DoubleFFT_3D.class);
+	}
+
+	/**
+	 * Get the single precision 1D plan of length w
+	 * 
+	 * @param w
+	 * 
+	 * @return The cached or newly created plan
+	 */
+	public FloatFFT_1D getFloatPlan1D(final int w) {
+		return getPlan(
+			new PlanKey(PlanType.FLOAT_1D, 1, 1, w),
+			() -> new FloatFFT_1D(w),
+			FloatFFT_1D.class);
+	}
+
+	/**
+	 * @return The number of requests served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of requests that created a new plan
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of plans removed to keep the cache in its capacity
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The maximum number of plans kept in the cache
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of plans in the cache
+	 */
+	public synchronized int size() {
+		return plans.size();
+	}
+
+	/** Remove all the plans and reset the counters */
+	public synchronized void clear() {
+		plans.clear();
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"FFTPlanCache[size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d]",
+			size(),
+			capacity,
+			getHits(),
+			getMisses(),
+			getEvictions());
+	}
+
+	/**
+	 * Look up a plan, the plan is created outside the lock so other threads
+	 * are not blocked by the creation of a large plan
+	 * 
+	 * @param key
+	 *        The key of the plan
+	 * 
+	 * @param factory
+	 *        Creates the plan on a miss
+	 * 
+	 * @param type
+	 *        The class of the plan
+	 * 
+	 * @return The plan
+	 */
+	private <T> T getPlan(
+			final PlanKey key,
+			final Supplier<T> factory,
+			final Class<T> type) {
+		synchronized (this) {
+			final Object plan = plans.get(key);
+			if (plan != null) {
+				hits.incrementAndGet();
+				return type.cast(plan);
+			}
+		}
+
+		misses.incrementAndGet();
+		final T created = factory.get();
+
+		synchronized (this) {
+			// another thread may have created the same plan in the meantime
+			final Object plan = plans.get(key);
+			if (plan != null)
+				return type.cast(plan);
+
+			plans.put(key, created);
+		}
+
+		return created;
+	}
+
+	/** The kinds of the cached plans */
+	private static enum PlanType {
+		DOUBLE_1D, DOUBLE_2D, DOUBLE_3D, FLOAT_1D
+	}
+
+	/** The key of a plan, made of the kind and the shape of the transform */
+	private static final class PlanKey {
+		private final PlanType type;
+		private final int n;
+		private final int h;
+		private final int w;
+
+		PlanKey(final PlanType type, final int n, final int h, final int w) {
+			this.type = type;
+			this.n = n;
+			this.h = h;
+			this.w = w;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof PlanKey))
+				return false;
+
+			final PlanKey other = (PlanKey) obj;
+			return type == other.type
+				&& n == other.n
+				&& h == other.h
+				&& w == other.w;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = type.hashCode();
+			result = 31 * result + n;
+			result = 31 * result + h;
+			result = 31 * result + w;
+			return result;
+		}
+	}
+}
+
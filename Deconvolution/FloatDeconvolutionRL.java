@@ -0,0 +1,442 @@
+package miatool.plugins;
+
+
+/**
+ * Single precision engine of the Agard, Richardson-Lucy and the accelerated
+ * Richardson-Lucy algorithms. The volumes, the spectra and the FFTs are in
+ * float, which halves the memory and the bandwidth of an iteration. The PSF is
+ * normalized and the acceleration factor is accumulated in double. The
+ * buffers are allocated once in the constructor and reused by every
+ * iteration, the spectrum of the PSF is shared and only read.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class FloatDeconvolutionRL {
+
+	/** The deconvolution method */
+	private final DeconvMethod deconvMethod;
+
+	/** The background */
+	private final float bg;
+
+	/** The substitute of zeros in the denominators */
+	private final float eps;
+
+	/** The Fourier transformed PSF */
+	private final FloatSpectrum3D psfTrans;
+
+	/** The original value of the image matrix */
+	private final FloatVolume3D rawImg;
+
+	/** The current value of the image matrix */
+	private final FloatVolume3D imgIter;
+
+	/** The buffer of the FFTs, its rows are padded for the in place FFT */
+	private final FloatVolume3D fft;
+
+	/** The previous value of the image matrix in the accelerated RL */
+	private final FloatVolume3D imgIterPre;
+
+	/** The last step of the image matrix in the accelerated RL */
+	private FloatVolume3D gX;
+
+	/** The step before gX in the accelerated RL */
+	private FloatVolume3D gY;
+
+	/** The I-divergence of each row in double, null if it is not computed */
+	private double[] divergence = null;
+
+	/** The squared norm of the update of each row, null if not computed */
+	private double[] change = null;
+
+	/** The squared norm of each row before the update */
+	private double[] norm = null;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param img
+	 *        The image volume, it is not modified
+	 * 
+	 * @param otf
+	 *        The single precision optical transfer function of the psf volume
+	 *        of the same size
+	 * 
+	 * @param deconvMethod
+	 *        The deconvolution method, one of the iterative methods
+	 * 
+	 * @param bg
+	 *        The background
+	 * 
+	 * @param eps
+	 *        The substitute of zeros in the denominators
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the method is not iterative, the volumes are of different
+	 *         sizes or the optical transfer function is in double precision
+	 */
+	FloatDeconvolutionRL(
+			final Volume3D img,
+			final OpticalTransfer otf,
+			final DeconvMethod deconvMethod,
+			final double bg,
+			final double eps) {
+		if (!deconvMethod.isIterative())
+			throw new IllegalArgumentException(
+				"Single precision is only available for the iterative methods");
+		if (!otf.isSameSize(img))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+
+		final int n = img.n;
+		final int h = img.h;
+		final int w = img.w;
+
+		this.deconvMethod = deconvMethod;
+		this.bg = (float) bg;
+		this.eps = (float) eps;
+
+		psfTrans = otf.getFloatSpectrum();
+
+		// calculate initial value of the image matrix in the iteration
+		rawImg = new FloatVolume3D(n, h, w);
+		imgIter = new FloatVolume3D(n, h, w);
+		VolumeKernels.forRange(img.rows(), img.w, row -> {
+			final int offset = row * img.rowStride;
+			final int fOffset = row * w;
+
+			for (int x = 0; x < w; x++) {
+				final double value = img.data[offset + x];
+				rawImg.data[fOffset + x] = value >= 0 ? (float) value : 0;
+				imgIter.data[fOffset + x]
+					= value - bg >= 0 ? (float) (value - bg) : 0;
+			}
+		});
+
+		fft = FloatVolume3D.forFFT(n, h, w);
+		if (deconvMethod == DeconvMethod.ACCEL_RICHARDSON_LUCY
+			|| deconvMethod == DeconvMethod.SQUAREM_RICHARDSON_LUCY) {
+			imgIterPre = new FloatVolume3D(n, h, w);
+			gX = new FloatVolume3D(n, h, w);
+			gY = new FloatVolume3D(n, h, w);
+		}
+		else {
+			imgIterPre = null;
+			gX = null;
+			gY = null;
+		}
+	}
+
+	/**
+	 * Apply the iterations of the deconvolution method until a stopping rule
+	 * is met
+	 * 
+	 * @param monitor
+	 *        The monitor of the stopping rules of the iterations
+	 * 
+	 * @return The deconvolved image volume in double precision
+	 */
+	Volume3D deconvolve(final StoppingRule.Monitor monitor) {
+		// SQUAREM always needs the I-divergence to backtrack its steps
+		if (monitor.isMetricsNeeded()
+			|| deconvMethod == DeconvMethod.SQUAREM_RICHARDSON_LUCY) {
+			divergence = new double[imgIter.rows()];
+			change = new double[imgIter.rows()];
+			norm = new double[imgIter.rows()];
+		}
+
+		boolean isDone = false;
+		switch (deconvMethod) {
+			case AGARD:
+				while (!isDone) {
+					iteration(0, false);
+					isDone = next(monitor);
+				}
+				break;
+			case RICHARDSON_LUCY:
+				while (!isDone) {
+					iteration(bg, true);
+					isDone = next(monitor);
+				}
+				break;
+			case ACCEL_RICHARDSON_LUCY:
+
+				// this method require more than three iterations
+				if (monitor.getMaxIterations() < 3)
+					break;
+
+				// apply the first two iterations, get items gY and gX
+				imgIterPre.copyFrom(imgIter);
+				iteration(bg, true);
+				difference(imgIter, imgIterPre, gY);
+				if (next(monitor))
+					break;
+
+				imgIterPre.copyFrom(imgIter);
+				iteration(bg, true);
+				difference(imgIter, imgIterPre, gX);
+				isDone = next(monitor);
+
+				// apply the rest of the iterations
+				while (!isDone) {
+					makeImageMatrix();
+
+					// gY takes gX, the buffer of gY keeps the input of RL
+					final FloatVolume3D oldest = gY;
+					gY = gX;
+					gX = oldest;
+					gX.copyFrom(imgIter);
+
+					iteration(bg, true);
+					difference(imgIter, gX, gX);
+					isDone = next(monitor);
+				}
+				break;
+			case SQUAREM_RICHARDSON_LUCY:
+				while (!isDone)
+					isDone = squaremCycle(monitor);
+				break;
+			default:
+				break;
+		}
+
+		return imgIter.toVolume();
+	}
+
+	/**
+	 * Record an iteration with the metrics of the rows
+	 * 
+	 * @return True if a stopping rule is met
+	 */
+	private boolean next(final StoppingRule.Monitor monitor) {
+		if (divergence == null)
+			return monitor.next(Double.NaN, Double.NaN);
+
+		double changeSum = 0;
+		double normSum = 0;
+		for (int row = 0; row < change.length; row++) {
+			changeSum += change[row];
+			normSum += norm[row];
+		}
+
+		return monitor.next(
+			normSum > 0 ? Math.sqrt(changeSum / normSum) : 0,
+			getDivergence());
+	}
+
+	/**
+	 * @return The I-divergence of the last iteration
+	 */
+	private double getDivergence() {
+		double result = 0;
+		for (final double value : divergence)
+			result += value;
+		return result;
+	}
+
+	/**
+	 * One cycle of the SQUAREM accelerated Richardson-Lucy algorithm, as in
+	 * the double precision DeconvolutionEngine, imgIterPre keeps the value at
+	 * the start of the cycle, gY the first step and gX the second difference
+	 * 
+	 * @return True if a stopping rule is met
+	 */
+	private boolean squaremCycle(final StoppingRule.Monitor monitor) {
+		imgIterPre.copyFrom(imgIter);
+		iteration(bg, true);
+		final double start = getDivergence();
+		difference(imgIter, imgIterPre, gY);
+		if (next(monitor))
+			return true;
+
+		iteration(bg, true);
+		VolumeKernels.forChunks(imgIter.data.length, 1, (from, to) -> {
+			for (int i = from; i < to; i++)
+				gX.data[i]
+					= imgIter.data[i] - imgIterPre.data[i] - 2 * gY.data[i];
+		});
+		if (next(monitor))
+			return true;
+
+		// the step length in double, no shorter than the plain RL step
+		final double rNorm = VolumeKernels.dot(gY, gY);
+		final double vNorm = VolumeKernels.dot(gX, gX);
+		double alpha
+			= vNorm > 0 ? Math.min(-Math.sqrt(rNorm / vNorm), -1) : -1;
+
+		// extrapolate and stabilize, backtrack while the divergence increases
+		for (int backtrack = 0;; backtrack++) {
+			final float a = (float) alpha;
+			VolumeKernels.forChunks(imgIter.data.length, 1, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					final float value = imgIterPre.data[i] - 2 * a * gY.data[i]
+						+ a * a * gX.data[i];
+					imgIter.data[i] = value >= 0 ? value : 0;
+				}
+			});
+
+			iteration(bg, true);
+			if (next(monitor))
+				return true;
+			if (alpha == -1 || getDivergence() <= start)
+				return false;
+
+			alpha = backtrack < DeconvolutionEngine.MAX_BACKTRACKS - 1
+				? (alpha - 1) / 2
+				: -1;
+		}
+	}
+
+	/**
+	 * One iteration in Agard or Richardson-Lucy algorithm
+	 * 
+	 * @param offset
+	 *        The background added to the reblurred image
+	 * 
+	 * @param adjoint
+	 *        Apply the adjoint of the PSF to the ratio if true, as
+	 *        Richardson-Lucy does, otherwise use the ratio directly, as Agard
+	 *        does
+	 */
+	private void iteration(final float offset, final boolean adjoint) {
+		final FloatSpectrum3D imgTrans = JTransforms3DUtil.rfft3D(
+			fft,
+			row -> System.arraycopy(
+				imgIter.data,
+				row * imgIter.rowStride,
+				fft.data,
+				row * fft.rowStride,
+				imgIter.w));
+		FloatSpectrum3D.multiplyI(imgTrans, psfTrans);
+
+		if (!adjoint) {
+			JTransforms3DUtil.irfft3D(imgTrans, row -> {
+				divideReblurredRow(offset, row);
+				multiplyPositiveRow(row);
+			});
+			return;
+		}
+
+		final FloatVolume3D iterFactor = JTransforms3DUtil.irfft3D(
+			imgTrans,
+			row -> divideReblurredRow(offset, row));
+		final FloatSpectrum3D factorTrans
+			= JTransforms3DUtil.rfft3D(iterFactor, null);
+		FloatSpectrum3D.multiplyConjI(factorTrans, psfTrans);
+		JTransforms3DUtil.irfft3D(factorTrans, row -> multiplyPositiveRow(row));
+	}
+
+	/**
+	 * Add the background to a row of the reblurred image in the FFT buffer,
+	 * and divide the raw image by it in place, the I-divergence of the row is
+	 * accumulated in double if the metrics are computed
+	 */
+	private void divideReblurredRow(final float offset, final int row) {
+		final int rawOffset = row * rawImg.rowStride;
+		final int fOffset = row * fft.rowStride;
+
+		if (divergence == null) {
+			for (int x = 0; x < fft.w; x++) {
+				final float denor = fft.data[fOffset + x] + offset;
+				fft.data[fOffset + x]
+					= rawImg.data[rawOffset + x] / (denor == 0 ? eps : denor);
+			}
+			return;
+		}
+
+		double sum = 0;
+		for (int x = 0; x < fft.w; x++) {
+			final float raw = rawImg.data[rawOffset + x];
+			final float denor = fft.data[fOffset + x] + offset;
+			fft.data[fOffset + x] = raw / (denor == 0 ? eps : denor);
+			sum += denor;
+			if (raw > 0)
+				sum += raw * Math.log(raw / Math.max((double) denor, eps))
+					- raw;
+		}
+		divergence[row] = sum;
+	}
+
+	/**
+	 * Multiply a row of the image with the factor in the FFT buffer, and
+	 * convert the negative elements to zero, the squared norms of the update
+	 * and of the row before it are accumulated in double if the metrics are
+	 * computed
+	 */
+	private void multiplyPositiveRow(final int row) {
+		final int offset = row * imgIter.rowStride;
+		final int fOffset = row * fft.rowStride;
+
+		if (change == null) {
+			for (int x = 0; x < imgIter.w; x++) {
+				final float value
+					= imgIter.data[offset + x] * fft.data[fOffset + x];
+				imgIter.data[offset + x] = value < 0 ? 0 : value;
+			}
+			return;
+		}
+
+		double changeSum = 0;
+		double normSum = 0;
+		for (int x = 0; x < imgIter.w; x++) {
+			final float current = imgIter.data[offset + x];
+			final float value = current * fft.data[fOffset + x];
+			final float next = value < 0 ? 0 : value;
+			imgIter.data[offset + x] = next;
+			changeSum += (double) (next - current) * (next - current);
+			normSum += (double) current * current;
+		}
+		change[row] = changeSum;
+		norm[row] = normSum;
+	}
+
+	/**
+	 * Write the transformed image matrix of the accelerated Richardson-Lucy
+	 * algorithm to imgIter and move the current value to imgIterPre
+	 */
+	private void makeImageMatrix() {
+		// calculate the acceleration factor in double
+		final double alphaNumer = VolumeKernels.dot(gX, gY);
+		final double alphaDenor = VolumeKernels.dot(gY, gY);
+
+		final double alpha = alphaNumer / (alphaDenor + eps);
+		if (alpha > 1 || alpha < 0) {
+			imgIterPre.copyFrom(imgIter);
+			return;
+		}
+
+		final float a = (float) alpha;
+		VolumeKernels.forRange(imgIter.rows(), imgIter.w, row -> {
+			final int offset = row * imgIter.rowStride;
+
+			for (int i = offset; i < offset + imgIter.w; i++) {
+				final float current = imgIter.data[i];
+				final float value
+					= current + a * (current - imgIterPre.data[i]);
+				imgIter.data[i] = value >= 0 ? value : 0;
+				imgIterPre.data[i] = current;
+			}
+		});
+	}
+
+	/**
+	 * Subtract y from x
+	 * 
+	 * @param x
+	 * 
+	 * @param y
+	 * 
+	 * @param result
+	 *        The volume to store the difference, it can be x or y
+	 */
+	private static void difference(
+			final FloatVolume3D x,
+			final FloatVolume3D y,
+			final FloatVolume3D result) {
+		VolumeKernels.forChunks(x.data.length, 1, (from, to) -> {
+			for (int i = from; i < to; i++)
+				result.data[i] = x.data[i] - y.data[i];
+		});
+	}
+}
@@ -0,0 +1,149 @@
+package miatool.plugins;
+
+/**
+ * The single precision half spectrum of a real 3D matrix of n x h x width,
+ * with the same layout as {@link Spectrum3D}. The complex numbers are stored
+ * interleaved and share the array of a {@link FloatVolume3D} whose rows are
+ * padded for the FFT.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class FloatSpectrum3D {
+
+	/** The number of planes */
+	public final int n;
+
+	/** The number of rows in a plane */
+	public final int h;
+
+	/** The number of complex columns in a row, width / 2 + 1 */
+	public final int w;
+
+	/** The number of columns of the real matrix */
+	public final int width;
+
+	/** The interleaved complex elements */
+	public final float[] data;
+
+	/**
+	 * Constructor of a spectrum on an existing array, the array is not copied
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param width
+	 *        The number of columns of the real matrix
+	 * 
+	 * @param data
+	 *        The array of the interleaved complex elements
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the array is too short for the spectrum
+	 */
+	public FloatSpectrum3D(
+			final int n,
+			final int h,
+			final int width,
+			final float[] data) {
+		if (data.length < n * h * Volume3D.fftRowStride(width))
+			throw new IllegalArgumentException(
+				"The array is too short for the size of the spectrum");
+
+		this.n = n;
+		this.h = h;
+		this.w = width / 2 + 1;
+		this.width = width;
+		this.data = data;
+	}
+
+	/**
+	 * @return The index of the real part of the element (z, y, k)
+	 */
+	public int index(final int z, final int y, final int k) {
+		return 2 * ((z * h + y) * w + k);
+	}
+
+	/**
+	 * @return The number of rows in the spectrum
+	 */
+	public int rows() {
+		return n * h;
+	}
+
+	/**
+	 * @return The number of complex elements in the spectrum
+	 */
+	public int length() {
+		return n * h * w;
+	}
+
+	/**
+	 * @return True if the other spectrum has the same size
+	 */
+	public boolean isSameSize(final FloatSpectrum3D other) {
+		return n == other.n && h == other.h && width == other.width;
+	}
+
+	/**
+	 * Multiply a with b in place
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the spectra are of different sizes
+	 */
+	public static void multiplyI(
+			final FloatSpectrum3D a,
+			final FloatSpectrum3D b) {
+		checkSameSize(a, b);
+
+		VolumeKernels.forChunks(a.length(), 1, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				final float ar = a.data[2 * i];
+				final float ai = a.data[2 * i + 1];
+				final float br = b.data[2 * i];
+				final float bi = b.data[2 * i + 1];
+				a.data[2 * i] = ar * br - ai * bi;
+				a.data[2 * i + 1] = ar * bi + ai * br;
+			}
+		});
+	}
+
+	/**
+	 * Multiply a with the complex conjugate of b in place, the conjugate is
+	 * not stored
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the spectra are of different sizes
+	 */
+	public static void multiplyConjI(
+			final FloatSpectrum3D a,
+			final FloatSpectrum3D b) {
+		checkSameSize(a, b);
+
+		VolumeKernels.forChunks(a.length(), 1, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				final float ar = a.data[2 * i];
+				final float ai = a.data[2 * i + 1];
+				final float br = b.data[2 * i];
+				final float bi = b.data[2 * i + 1];
+				a.data[2 * i] = ar * br + ai * bi;
+				a.data[2 * i + 1] = ai * br - ar * bi;
+			}
+		});
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *         If the spectra are of different sizes
+	 */
+	private static void checkSameSize(
+			final FloatSpectrum3D a,
+			final FloatSpectrum3D b) {
+		if (!a.isSameSize(b))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+	}
+}
@@ -0,0 +1,229 @@
+package miatool.plugins;
+
+/**
+ * A single precision real 3D matrix of n planes of h rows and w columns stored
+ * in one contiguous array, with the same layout as {@link Volume3D}. The
+ * element (z, y, x) is at (z * h + y) * rowStride + x, and a volume made by
+ * {@link #forFFT(int, int, int)} has rows padded for the in place real FFT.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class FloatVolume3D {
+
+	/** The number of planes */
+	public final int n;
+
+	/** The number of rows in a plane */
+	public final int h;
+
+	/** The number of columns in a row */
+	public final int w;
+
+	/** The distance between the starts of two neighbouring rows */
+	public final int rowStride;
+
+	/** The elements of the volume */
+	public final float[] data;
+
+	/**
+	 * Constructor of a compact volume filled with zeros
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 */
+	public FloatVolume3D(final int n, final int h, final int w) {
+		this(n, h, w, w);
+	}
+
+	/**
+	 * Constructor of a volume filled with zeros
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @param rowStride
+	 *        The distance between the starts of two neighbouring rows
+	 */
+	public FloatVolume3D(
+			final int n,
+			final int h,
+			final int w,
+			final int rowStride) {
+		this(
+			n,
+			h,
+			w,
+			rowStride,
+			new float[Volume3D.checkSize(n, h, w, rowStride)]);
+	}
+
+	/**
+	 * Constructor of a volume on an existing array, the array is not copied
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @param rowStride
+	 *        The distance between the starts of two neighbouring rows
+	 * 
+	 * @param data
+	 *        The array of the elements
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the array is too short for the volume
+	 */
+	public FloatVolume3D(
+			final int n,
+			final int h,
+			final int w,
+			final int rowStride,
+			final float[] data) {
+		if (data.length < Volume3D.checkSize(n, h, w, rowStride))
+			throw new IllegalArgumentException(
+				"The array is too short for the size of the volume");
+
+		this.n = n;
+		this.h = h;
+		this.w = w;
+		this.rowStride = rowStride;
+		this.data = data;
+	}
+
+	/**
+	 * Make a volume whose rows are padded for the in place real FFT
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @return A volume filled with zeros
+	 */
+	public static FloatVolume3D forFFT(final int n, final int h, final int w) {
+		return new FloatVolume3D(n, h, w, Volume3D.fftRowStride(w));
+	}
+
+	/**
+	 * Round the elements of a double precision volume to single precision
+	 * 
+	 * @param input
+	 *        The double precision volume
+	 * 
+	 * @param rowStride
+	 *        The row stride of the result
+	 * 
+	 * @return The single precision volume
+	 */
+	public static FloatVolume3D fromVolume(
+			final Volume3D input,
+			final int rowStride) {
+		final FloatVolume3D result
+			= new FloatVolume3D(input.n, input.h, input.w, rowStride);
+
+		VolumeKernels.forRange(input.rows(), input.w, row -> {
+			final int offset = row * input.rowStride;
+			final int rOffset = row * rowStride;
+			for (int x = 0; x < input.w; x++)
+				result.data[rOffset + x] = (float) input.data[offset + x];
+		});
+
+		return result;
+	}
+
+	/**
+	 * @return A compact double precision copy of the volume
+	 */
+	public Volume3D toVolume() {
+		final Volume3D result = new Volume3D(n, h, w);
+
+		VolumeKernels.forRange(rows(), w, row -> {
+			final int offset = row * rowStride;
+			final int rOffset = row * w;
+			for (int x = 0; x < w; x++)
+				result.data[rOffset + x] = data[offset + x];
+		});
+
+		return result;
+	}
+
+	/**
+	 * @return The index of the element (z, y, x) in the array
+	 */
+	public int index(final int z, final int y, final int x) {
+		return (z * h + y) * rowStride + x;
+	}
+
+	/**
+	 * @return The number of rows in the volume
+	 */
+	public int rows() {
+		return n * h;
+	}
+
+	/**
+	 * @return True if the rows are padded for the in place real FFT
+	 */
+	public boolean isFFTLayout() {
+		return rowStride == Volume3D.fftRowStride(w);
+	}
+
+	/**
+	 * @return True if the other volume has the same n, h and w
+	 */
+	public boolean isSameSize(final FloatVolume3D other) {
+		return n == other.n && h == other.h && w == other.w;
+	}
+
+	/**
+	 * Copy the elements of another volume of the same size, the row strides
+	 * can be different
+	 * 
+	 * @param src
+	 *        The source volume
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volumes are of different sizes
+	 */
+	public void copyFrom(final FloatVolume3D src) {
+		if (!isSameSize(src))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+
+		if (rowStride == src.rowStride) {
+			System.arraycopy(src.data, 0, data, 0, rows() * rowStride);
+			return;
+		}
+
+		VolumeKernels.forRange(rows(), w, row -> {
+			System.arraycopy(
+				src.data,
+				row * src.rowStride,
+				data,
+				row * rowStride,
+				w);
+		});
+	}
+}
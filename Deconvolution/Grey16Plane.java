@@ -0,0 +1,200 @@
+package miatool.plugins;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import miatool.core.setssingles.image.GreyU16DiskSingle;
+
+/**
+ * The raw unsigned 16 bit pixels of an image with the median of its edge
+ * pixels as its background. The pixels of a GreyU16DiskSingle are read once
+ * from its TIFF file, and the background is subtracted, the negative values
+ * are set to 0 and the pixels are converted to real values in one pass,
+ * straight into a plane of a volume.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class Grey16Plane {
+
+	/** The pixels row by row */
+	final short[] data;
+
+	/** The number of columns */
+	final int width;
+
+	/** The number of rows */
+	final int height;
+
+	/** The median of the edge pixels */
+	final double background;
+
+	/** The rows of the planes written to a volume that is not in memory */
+	private static final ThreadLocal<double[]> ROW
+		= ThreadLocal.withInitial(() -> new double[0]);
+
+	/**
+	 * Constructor, the pixels are not copied
+	 * 
+	 * @param data
+	 *        The unsigned 16 bit pixels row by row
+	 * 
+	 * @param width
+	 * 
+	 * @param height
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the pixels do not match the size
+	 */
+	Grey16Plane(final short[] data, final int width, final int height) {
+		this.data = data;
+		this.width = width;
+		this.height = height;
+		background = EdgeMedian.of(data, width, height);
+	}
+
+	/**
+	 * Read the pixels of an image single. The TIFF file of the single is
+	 * read straight into the pixels if it is a 16 bit grey image of the size
+	 * of the single, otherwise the image matrix of the single is converted.
+	 * 
+	 * @param imgSingle
+	 *        The image single
+	 * 
+	 * @return The image
+	 */
+	static Grey16Plane read(final GreyU16DiskSingle imgSingle) {
+		final int width = imgSingle.getWidth();
+		final int height = imgSingle.getHeight();
+		short[] data = null;
+		try {
+			data = readTIFF(new File(imgSingle.getImagePath()), width, height);
+		}
+		catch (final IOException e) {
+			// convert the image matrix below
+		}
+
+		if (data == null) {
+			final double[][] matrix = imgSingle.get2DImageMatrix();
+			data = new short[width * height];
+			for (int y = 0; y < matrix.length; y++)
+				for (int x = 0; x < matrix[y].length; x++)
+					data[y * width + x] = (short) matrix[y][x];
+		}
+		imgSingle.flush();
+
+		return new Grey16Plane(data, width, height);
+	}
+
+	/**
+	 * Write the pixels with the background subtracted into a plane of a
+	 * volume, a negative value is set to 0. The rows and columns of the plane
+	 * out of the image are left unchanged.
+	 * 
+	 * @param dst
+	 *        The volume, at least as large as the image in a plane
+	 * 
+	 * @param z
+	 *        The index of the plane
+	 */
+	void writeTo(final VolumeStore dst, final int z) {
+		if (dst instanceof Volume3D) {
+			final Volume3D volume = (Volume3D) dst;
+			for (int y = 0; y < height; y++)
+				convertRow(y, volume.data, volume.index(z, y, 0));
+			return;
+		}
+
+		double[] row = ROW.get();
+		if (row.length < width) {
+			row = new double[width];
+			ROW.set(row);
+		}
+		for (int y = 0; y < height; y++) {
+			convertRow(y, row, 0);
+			dst.writeRow(z, y, 0, row, 0, width);
+		}
+	}
+
+	/**
+	 * Subtract the background from a row, set the negative values to 0 and
+	 * convert the row to real values
+	 */
+	private void convertRow(
+			final int y,
+			final double[] dst,
+			final int offset) {
+		final int start = y * width;
+		for (int x = 0; x < width; x++) {
+			final double value = (data[start + x] & 0xFFFF) - background;
+			dst[offset + x] = value > 0 ? value : 0;
+		}
+	}
+
+	/**
+	 * Read the first page of a TIFF file if it is a 16 bit grey image of a
+	 * size, the buffer of the page is taken without a copy if its layout is
+	 * the layout of the pixels
+	 * 
+	 * @return The pixels row by row, null if the file is not such an image
+	 * 
+	 * @throws IOException
+	 *         If the file cannot be read
+	 */
+	private static short[] readTIFF(
+			final File file,
+			final int width,
+			final int height)
+			throws IOException {
+		final Iterator<ImageReader> readers
+			= ImageIO.getImageReadersByFormatName("tiff");
+		if (!readers.hasNext())
+			return null;
+
+		final ImageReader reader = readers.next();
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			if (input == null)
+				return null;
+
+			reader.setInput(input);
+			final Raster raster = reader.read(0).getRaster();
+			if (raster.getWidth() != width || raster.getHeight() != height
+				|| raster.getNumBands() != 1
+				|| raster.getSampleModel().getSampleSize(0) != 16)
+				return null;
+
+			if (raster.getDataBuffer() instanceof DataBufferUShort
+				&& raster.getSampleModel() instanceof ComponentSampleModel) {
+				final DataBufferUShort buffer
+					= (DataBufferUShort) raster.getDataBuffer();
+				final ComponentSampleModel model
+					= (ComponentSampleModel) raster.getSampleModel();
+				if (buffer.getNumBanks() == 1 && buffer.getOffset() == 0
+					&& buffer.getSize() == width * height
+					&& model.getPixelStride() == 1
+					&& model.getScanlineStride() == width
+					&& model.getBandOffsets()[0] == 0)
+					return buffer.getData();
+			}
+
+			// copy the pixels of another layout
+			final short[] result = new short[width * height];
+			final int[] row = new int[width];
+			for (int y = 0; y < height; y++) {
+				raster.getSamples(0, y, width, 1, 0, row);
+				for (int x = 0; x < width; x++)
+					result[y * width + x] = (short) row[x];
+			}
+			return result;
+		}
+		finally {
+			reader.dispose();
+		}
+	}
+}
@@ -4,8 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import miatool.core.util.MIAUtil;
 import miatool.core.util.MatrixUtil;
-import miatool.core.util.Parallel;
 import miatool.core.util.miatiff.MIATIFFWriter;
+import miatool.modules.parallel.ComputeScheduler;
 import simulations.StructureSimulation2D.Shape2D;
 import simulations.StructureSimulation3D.Shape3D;
 import simulations.StructureSimulation3D.Contour;
@@ -107,13 +107,10 @@ public class ImageConvolution {
 		long startTime = System.currentTimeMillis();
 		System.out.println("Convolution started.");
 
-		Parallel.startPool();
-
-		// make convolution
+		// make convolution in the threads of the shared scheduler
 		final double[][][] paddingMat = padding();
-		convolved = MatrixUtil.convolve(paddingMat, psfMatrix);
-
-		Parallel.shutdownPool();
+		convolved = ComputeScheduler.getShared().call(
+			() -> MatrixUtil.convolve(paddingMat, psfMatrix));
 
 		// save convolved image
 		final String name = shape.toString() + " CONVOLVED";
@@ -131,13 +128,11 @@ public class ImageConvolution {
 		long startTime = System.currentTimeMillis();
 		System.out.println("Convolution started.");
 
-		Parallel.startPool();
-
-		// make padding for the image matrix
+		// make padding for the image matrix, and convolve in the threads of
+		// the shared scheduler
 		final double[][][] paddingMat = padding();
-		convolved = MatrixUtil.convolve(paddingMat, psfMatrix);
-
-		Parallel.shutdownPool();
+		convolved = ComputeScheduler.getShared().call(
+			() -> MatrixUtil.convolve(paddingMat, psfMatrix));
 
 		// save convolved image
 		final String name = shape.toString() + " CONVOLVED";
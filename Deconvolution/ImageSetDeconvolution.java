@@ -0,0 +1,815 @@
+package miatool.plugins;
+
+import static miatool.core.miatooldirectory.MIAToolDirectory.IMAGES_DIR;
+import static miatool.core.util.MIAUtil.buildPath;
+import static miatool.core.util.numerics.MIAMatOps.copy;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import miatool.core.miatooldirectory.MIAToolDirectory;
+import miatool.core.setssingles.image.GreyU16DiskSingle;
+import miatool.core.setssingles.image.ImageSet;
+import miatool.core.setssingles.image.ImageSingle;
+import miatool.plugins.DeconvolutionEngine.BlockDeconvolution;
+import miatool.plugins.DeconvolutionEngine.TransferCache;
+
+/**
+ * The deconvolution of the image sets of a MIAToolDirectory without a user
+ * interface. The planes of the psf set and the image set are read by a pool
+ * of I/O threads into the volumes of a DeconvolutionEngine, and the
+ * deconvolved planes are quantised and written by the I/O threads as the 16
+ * bit images of a new image set in the images folder of the directory. A
+ * multi-dimensional image set is deconvolved stack by stack with the optical
+ * transfer functions of the psf shared by the stacks. The
+ * DeconvolutionPlugin runs its jobs with it and shows the dialogs and the
+ * progress.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class ImageSetDeconvolution {
+
+	/** The folder of the OTF cache in the MIAToolDirectory */
+	static final String OTF_CACHE_DIR = "OTFCache";
+
+	/** Receives the progress of a batch deconvolution */
+	@FunctionalInterface
+	interface BatchListener {
+
+		/**
+		 * @param finished
+		 *        The number of deconvolved stacks
+		 * 
+		 * @param stacks
+		 *        The number of stacks
+		 */
+		void finished(int finished, int stacks);
+	}
+
+	/** The deconvolution of the volumes */
+	private final DeconvolutionEngine engine;
+
+	/** The directory of the image sets */
+	private final MIAToolDirectory mtd;
+
+	/** The number of threads reading and writing the planes */
+	private final int ioThreads;
+
+	/** Dithers the deconvolved planes when they are quantised */
+	private final boolean dither;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param engine
+	 *        The deconvolution of the volumes
+	 * 
+	 * @param mtd
+	 *        The directory of the image sets, null if there is none, then the
+	 *        OTF cache is not used and no image set can be saved
+	 * 
+	 * @param ioThreads
+	 *        The number of threads reading and writing the planes
+	 * 
+	 * @param dither
+	 *        True to dither the deconvolved planes when they are quantised
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the number of I/O threads is not positive
+	 */
+	ImageSetDeconvolution(
+			final DeconvolutionEngine engine,
+			final MIAToolDirectory mtd,
+			final int ioThreads,
+			final boolean dither) {
+		if (ioThreads < 1)
+			throw new IllegalArgumentException(
+				"The number of I/O threads should be positive");
+
+		this.engine = engine;
+		this.mtd = mtd;
+		this.ioThreads = ioThreads;
+		this.dither = dither;
+	}
+
+	/**
+	 * Load the planes of a psf set
+	 * 
+	 * @param psfSingles
+	 *        The image singles of the psf series
+	 * 
+	 * @param isSegmented
+	 *        The singles are of a segmented psf set, they are kept in memory
+	 *        and their backgrounds are not subtracted
+	 * 
+	 * @param isRaw
+	 *        The backgrounds of the planes are not subtracted if true
+	 * 
+	 * @return The jagged 3D matrix of the psf set
+	 * 
+	 * @throws IOException
+	 *         If a plane cannot be read
+	 */
+	double[][][] loadPsfSet(
+			final ImageSingle<?>[] psfSingles,
+			final boolean isSegmented,
+			final boolean isRaw)
+			throws IOException {
+		final double[][][] result = new double[psfSingles.length][][];
+
+		// subtract the background from the image unless it is raw
+		final PlaneLoader.PlaneReader<double[][]> reader = j -> {
+			final double[][] psfData = psfSingles[j].get2DImageMatrix();
+			final double[][] plane = isSegmented || isRaw
+				? copy(psfData)
+				: DeconvolutionEngine.subtractBackground(psfData);
+			if (!isSegmented)
+				psfSingles[j].flush();
+			return plane;
+		};
+
+		new PlaneLoader(ioThreads, PlaneLoader.DEFAULT_QUEUE_LENGTH).load(
+			psfSingles.length,
+			reader,
+			(j, plane) -> {
+				result[j] = plane;
+				return true;
+			});
+
+		return result;
+	}
+
+	/**
+	 * Make the optical transfer functions of a psf set in the OTF cache
+	 * folder of the MIAToolDirectory. With the OTF cache only the raw psf
+	 * planes are read to hash them, and the psf is loaded and transformed
+	 * when a function is not in the cache.
+	 * 
+	 * @param psfSingles
+	 *        The image singles of the psf series
+	 * 
+	 * @param isSegmented
+	 *        The singles are of a segmented psf set
+	 * 
+	 * @return The optical transfer functions, they throw an
+	 *         UncheckedIOException if the psf cannot be loaded later
+	 * 
+	 * @throws IOException
+	 *         If a plane cannot be read
+	 */
+	TransferCache makeTransferCache(
+			final ImageSingle<?>[] psfSingles,
+			final boolean isSegmented)
+			throws IOException {
+		engine.setOTFCacheDirectory(
+			mtd == null
+				? null
+				: new File(buildPath(mtd.getRootPath(), OTF_CACHE_DIR)));
+
+		if (!engine.isOTFCacheUsed())
+			return engine.makeTransferCache(
+				loadPsfSet(psfSingles, isSegmented, false));
+
+		final double[][][] rawPsf = loadPsfSet(psfSingles, isSegmented, true);
+		return engine.makeTransferCache(rawPsf, () -> {
+			try {
+				return loadPsfSet(psfSingles, isSegmented, false);
+			}
+			catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Load the planes of an image series into a volume, in memory or in a
+	 * mapped file out of core. The 16 bit pixels are read once and written
+	 * with their background subtracted straight into the volume as they are
+	 * loaded.
+	 * 
+	 * @param imgSingles
+	 *        The image singles of the image series
+	 * 
+	 * @param n
+	 *        The number of planes of the volume, at least the length of the
+	 *        series
+	 * 
+	 * @param h
+	 *        The number of rows of the volume, at least the height of the
+	 *        images
+	 * 
+	 * @param w
+	 *        The number of columns of the volume, at least the width of the
+	 *        images
+	 * 
+	 * @return The volume, a MappedVolumeStore is closed by the caller
+	 * 
+	 * @throws IOException
+	 *         If a plane cannot be read or the mapped file cannot be created
+	 */
+	VolumeStore loadImageSet(
+			final GreyU16DiskSingle[] imgSingles,
+			final int n,
+			final int h,
+			final int w)
+			throws IOException {
+		final VolumeStore result = engine.makeVolume(n, h, w);
+		try {
+			new PlaneLoader(ioThreads, PlaneLoader.DEFAULT_QUEUE_LENGTH).load(
+				imgSingles.length,
+				i -> Grey16Plane.read(imgSingles[i]),
+				(i, plane) -> {
+					plane.writeTo(result, i);
+					return true;
+				});
+		}
+		catch (final IOException e) {
+			if (result instanceof MappedVolumeStore)
+				((MappedVolumeStore) result).close();
+			throw e;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Deconvolve every stack of a multi-dimensional image set with the same
+	 * psf. A stack is the image series along the image dimension at one index
+	 * of the other dimensions, such as a time point or a position. The stacks
+	 * are loaded, deconvolved and saved by a pool of workers which share the
+	 * optical transfer functions of the psf, so the psf is transformed once
+	 * for the whole set instead of once for each stack. A failed stack is
+	 * reported and left out of the result.
+	 * 
+	 * @param imgSet
+	 *        The image set
+	 * 
+	 * @param imgDim
+	 *        The dimension of the image series
+	 * 
+	 * @param lenConv
+	 *        The number of planes of the volume of a stack
+	 * 
+	 * @param psf
+	 *        The optical transfer functions of the psf
+	 * 
+	 * @param deconvolution
+	 *        Deconvolves a padded image volume with the optical transfer
+	 *        function of the same size
+	 * 
+	 * @param batchThreads
+	 *        The number of stacks deconvolved at once
+	 * 
+	 * @param listener
+	 *        Receives the number of deconvolved stacks
+	 * 
+	 * @return The deconvolved image set of the dimensions of the image set
+	 */
+	ImageSet deconvolveBatch(
+			final ImageSet imgSet,
+			final int imgDim,
+			final int lenConv,
+			final TransferCache psf,
+			final BlockDeconvolution deconvolution,
+			final int batchThreads,
+			final BatchListener listener) {
+		final int[] sizes = imgSet.size();
+		final int stacks = IntStream.of(sizes).reduce(1, (a, b) -> a * b)
+			/ sizes[imgDim];
+		final String seriesName = "Deconvolution";
+		final String seriesFolder = makeSeriesFolder(seriesName);
+		final ImageSet result = new ImageSet(sizes);
+		final AtomicInteger finished = new AtomicInteger();
+
+		final PlaneWriter writer
+			= new PlaneWriter(ioThreads, PlaneWriter.DEFAULT_QUEUE_LENGTH);
+		final ExecutorService workers
+			= Executors.newFixedThreadPool(batchThreads);
+		final List<Future<?>> jobs = new ArrayList<>();
+		for (int i = 0; i < stacks; i++) {
+			final int stack = i;
+			jobs.add(workers.submit(() -> {
+				deconvolveStack(
+					imgSet,
+					stack,
+					imgDim,
+					lenConv,
+					psf,
+					deconvolution,
+					seriesName,
+					seriesFolder,
+					writer,
+					result);
+				listener.finished(finished.incrementAndGet(), stacks);
+				return null;
+			}));
+		}
+		workers.shutdown();
+
+		// a failed stack is reported and left out of the result
+		for (final Future<?> job : jobs) {
+			try {
+				job.get();
+			}
+			catch (final InterruptedException | ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// the last stacks are still written while the others are finished
+		try {
+			writer.close();
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+
+		saveToDirectory(result, seriesName);
+		return result;
+	}
+
+	/**
+	 * Load, deconvolve and save one stack of the batch deconvolution
+	 * 
+	 * @param imgSet
+	 *        The image set
+	 * 
+	 * @param stack
+	 *        The index of the stack, the indices of the dimensions other than
+	 *        the image dimension in the order of the dimensions
+	 * 
+	 * @param imgDim
+	 *        The dimension of the image series
+	 * 
+	 * @param lenConv
+	 *        The number of planes of the volume of the stack
+	 * 
+	 * @param psf
+	 *        The optical transfer functions of the psf
+	 * 
+	 * @param deconvolution
+	 *        Deconvolves a padded image volume with the optical transfer
+	 *        function of the same size
+	 * 
+	 * @param seriesName
+	 *        The name of the deconvolved image set in mtd
+	 * 
+	 * @param seriesFolder
+	 *        The folder of the images of the deconvolved image set
+	 * 
+	 * @param writer
+	 *        Writes the deconvolved planes while the next stack is
+	 *        deconvolved
+	 * 
+	 * @param result
+	 *        The deconvolved image set to store the saved images
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the images are not GreyU16DiskSingle or smaller than the psf
+	 * 
+	 * @throws IOException
+	 *         If a plane of the set could not be written
+	 */
+	private void deconvolveStack(
+			final ImageSet imgSet,
+			final int stack,
+			final int imgDim,
+			final int lenConv,
+			final TransferCache psf,
+			final BlockDeconvolution deconvolution,
+			final String seriesName,
+			final String seriesFolder,
+			final PlaneWriter writer,
+			final ImageSet result)
+			throws IOException {
+		final int[] sizes = imgSet.size();
+		final int imgSize = sizes[imgDim];
+
+		// the index of the stack in the other dimensions
+		final int[] index = new int[sizes.length];
+		int rest = stack;
+		for (int d = sizes.length - 1; d >= 0; d--) {
+			if (d == imgDim)
+				continue;
+			index[d] = rest % sizes[d];
+			rest /= sizes[d];
+		}
+
+		/*
+		 * load the stack, the image set is accessed by one worker at a time
+		 * and the images are read by the workers at once
+		 */
+		final Grey16Plane[] planes = new Grey16Plane[imgSize];
+		int h = 0;
+		int w = 0;
+		for (int i = 0; i < imgSize; i++) {
+			index[imgDim] = i;
+			final ImageSingle<?> imgSingle;
+			synchronized (imgSet) {
+				imgSingle = imgSet.get0iR(index);
+			}
+			if (!GreyU16DiskSingle.class.isInstance(imgSingle))
+				throw new IllegalArgumentException(
+					"The image single has to be GreyU16DiskSingle");
+			planes[i] = Grey16Plane.read((GreyU16DiskSingle) imgSingle);
+
+			h = Math.max(h, planes[i].height);
+			w = Math.max(w, planes[i].width);
+		}
+
+		if (psf.h > h || psf.w > w)
+			throw new IllegalArgumentException(
+				"The size of the image should be large than size of the psf.");
+
+		// the planes are converted straight into the padded volume
+		final Volume3D imgData = new Volume3D(lenConv, h, w);
+		for (int i = 0; i < imgSize; i++) {
+			planes[i].writeTo(imgData, i);
+			planes[i] = null;
+		}
+
+		final Volume3D deconv = engine.deconvolve(imgData, psf, deconvolution);
+
+		// save the stack, the series of the stack is named after its index
+		final PlaneQuantiser quantiser
+			= new PlaneQuantiser(deconv.max(), dither);
+		for (int j = 0; j < imgSize; j++) {
+			final String fileName = "s" + Integer.toString(stack + 1) + "_"
+				+ Integer.toString(j + 1) + ".tif";
+			final double[][] plane = deconv.readPlane(j);
+			final int[] planeIndex = index.clone();
+			planeIndex[imgDim] = j;
+			writer.submit(() -> {
+				final GreyU16DiskSingle imgSingle = savePlane(
+					plane,
+					quantiser,
+					seriesName,
+					seriesFolder,
+					fileName);
+				synchronized (result) {
+					result.set0iR(imgSingle, planeIndex);
+				}
+			});
+		}
+	}
+
+	/**
+	 * save image set to mtd and path
+	 * 
+	 * @param input
+	 * 
+	 * @param length
+	 *        The length of the new image set
+	 * 
+	 * @param seriesName
+	 *        The name of the new image set in mtd
+	 * 
+	 * @return The newly saved image set
+	 */
+	ImageSet saveImageSet(
+			final double[][][] input,
+			final int length,
+			final String seriesName) {
+		return saveImageSet(
+			j -> input[j],
+			VolumeKernels.max(input),
+			length,
+			seriesName);
+	}
+
+	/**
+	 * save image set to mtd and path, the planes are read from the store one
+	 * at a time
+	 * 
+	 * @param input
+	 * 
+	 * @param length
+	 *        The length of the new image set
+	 * 
+	 * @param seriesName
+	 *        The name of the new image set in mtd
+	 * 
+	 * @return The newly saved image set
+	 */
+	ImageSet saveImageSet(
+			final VolumeStore input,
+			final int length,
+			final String seriesName) {
+		return saveImageSet(input::readPlane, input.max(), length, seriesName);
+	}
+
+	/**
+	 * save image set to mtd and path, the planes are taken in this thread and
+	 * quantised and written by the writer threads, with the scaling of the
+	 * maximum of all the planes
+	 * 
+	 * @param planes
+	 *        Gives the plane of an index
+	 * 
+	 * @param max
+	 *        The maximum of all the planes
+	 * 
+	 * @param length
+	 *        The length of the new image set
+	 * 
+	 * @param seriesName
+	 *        The name of the new image set in mtd
+	 * 
+	 * @return The newly saved image set
+	 */
+	private ImageSet saveImageSet(
+			final IntFunction<double[][]> planes,
+			final double max,
+			final int length,
+			final String seriesName) {
+		final String seriesFolder = makeSeriesFolder(seriesName);
+		final PlaneQuantiser quantiser = new PlaneQuantiser(max, dither);
+
+		// Save images to disk
+		final ImageSet result = new ImageSet(length);
+		try (PlaneWriter writer
+			= new PlaneWriter(ioThreads, PlaneWriter.DEFAULT_QUEUE_LENGTH)) {
+			for (int j = 0; j < length; j++) {
+				// make file names
+				final int index = j;
+				final String fileName
+					= "s1_" + Integer.toString(j + 1) + ".tif";
+
+				// make a new image set and fill it with the saved images
+				final double[][] plane = planes.apply(j);
+				writer.submit(() -> {
+					final GreyU16DiskSingle imgSingle = savePlane(
+						plane,
+						quantiser,
+						seriesName,
+						seriesFolder,
+						fileName);
+					synchronized (result) {
+						result.set0iR(imgSingle, index);
+					}
+				});
+			}
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+
+		saveToDirectory(result, seriesName);
+		return result;
+	}
+
+	/**
+	 * Create the folder of a new series in the MIAToolDirectory
+	 * 
+	 * @param seriesName
+	 *        The name of the new image set in mtd
+	 * 
+	 * @return The path of the folder
+	 */
+	private String makeSeriesFolder(final String seriesName) {
+		// Create new series directories in the MIAToolDirectory
+		final String mtdRoot = mtd.getRootPath();
+		final String imgFiles = buildPath(mtdRoot, IMAGES_DIR);
+		final String seriesFolder = buildPath(imgFiles, seriesName);
+
+		// delete the directory that already existed and creat a new directory
+		final File dir = new File(seriesFolder);
+		if (dir.exists())
+			dir.delete();
+		new File(seriesFolder).mkdirs();
+
+		return seriesFolder;
+	}
+
+	/**
+	 * Save an image with its background subtracted as a 16 bit TIFF file in
+	 * the folder of a series
+	 * 
+	 * @param plane
+	 *        The image matrix
+	 * 
+	 * @param quantiser
+	 *        Quantises the images with the scaling of the series
+	 * 
+	 * @param seriesName
+	 *        The name of the new image set in mtd
+	 * 
+	 * @param seriesFolder
+	 *        The folder of the series
+	 * 
+	 * @param fileName
+	 *        The name of the file
+	 * 
+	 * @return The image single of the saved file
+	 */
+	private static GreyU16DiskSingle savePlane(
+			final double[][] plane,
+			final PlaneQuantiser quantiser,
+			final String seriesName,
+			final String seriesFolder,
+			final String fileName) {
+		// subtract background from the data, quantise it and save the file
+		try {
+			quantiser.write(plane, buildPath(seriesFolder, fileName));
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+
+		final GreyU16DiskSingle result;
+		final String imgName = buildPath(IMAGES_DIR, seriesName, fileName);
+		result = new GreyU16DiskSingle(imgName, true);
+
+		// flush memory
+		result.flush();
+
+		return result;
+	}
+
+	/**
+	 * Save an image set to mtd
+	 * 
+	 * @param input
+	 *        The image set
+	 * 
+	 * @param seriesName
+	 *        The name of the image set in mtd
+	 */
+	private void saveToDirectory(
+			final ImageSet input,
+			final String seriesName) {
+		input.setFilename(seriesName);
+		input.setParent(mtd);
+		try {
+			mtd.saveObject(null, input);
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Make a image set in which the first row is the original image set and the
+	 * second row is the deconvolution image set. The images are not copied,
+	 * the singles of the set refer to the files of the images in the images
+	 * folder of mtd. An image out of the folder is linked, or copied if it
+	 * cannot be linked, into the Series1 or Series2 folder of the set.
+	 * 
+	 * @param inputO
+	 *        the original image set
+	 * 
+	 * @param inputR
+	 *        the deconvolution image set
+	 * 
+	 * @return the combined image set for comparison
+	 */
+	ImageSet makeCompareSet(
+			final ImageSet inputO,
+			final ImageSet inputR,
+			final int length,
+			final String seriesName) {
+		final ImageSet result = new ImageSet(2, length);
+		final int[] inputOSize = inputO.size();
+
+		for (int j = 0; j < length; j++) {
+			// get image singles from the image set
+			final GreyU16DiskSingle oSi;
+			if (inputOSize.length == 1)
+				oSi = (GreyU16DiskSingle) inputO.get0iR(j);
+			else
+				oSi = (GreyU16DiskSingle) inputO.get0iR(j, 0, 0);
+
+			final GreyU16DiskSingle rSi = (GreyU16DiskSingle) inputR.get0iR(j);
+
+			// make the singles of the comparison set
+			final String fileNameO = "s1_" + Integer.toString(j + 1) + ".tif";
+			final String fileNameR = "s2_" + Integer.toString(j + 1) + ".tif";
+			try {
+				result.set0iR(
+					referToImage(oSi, seriesName, "Series1", fileNameO),
+					0,
+					j);
+				result.set0iR(
+					referToImage(rSi, seriesName, "Series2", fileNameR),
+					1,
+					j);
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+
+			// flush memory
+			oSi.flush();
+			rSi.flush();
+		}
+
+		// Save the image set to the MIAToolDirectory
+		saveToDirectory(result, seriesName);
+
+		return result;
+	}
+
+	/**
+	 * Make an image single that refers to the file of another image single.
+	 * A file in the images folder of mtd is referred to by its path, another
+	 * file is linked into the folder of a series of a set, or copied if the
+	 * file system cannot link it.
+	 * 
+	 * @param imgSingle
+	 *        The image single of the file
+	 * 
+	 * @param setName
+	 *        The name of the set
+	 * 
+	 * @param seriesName
+	 *        The name of the series in the folder of the set
+	 * 
+	 * @param fileName
+	 *        The name of the link or the copy
+	 * 
+	 * @return The image single
+	 * 
+	 * @throws IOException
+	 *         If the file can be neither linked nor copied
+	 */
+	private GreyU16DiskSingle referToImage(
+			final GreyU16DiskSingle imgSingle,
+			final String setName,
+			final String seriesName,
+			final String fileName)
+			throws IOException {
+		final Path imgFiles = Paths.get(mtd.getRootPath(), IMAGES_DIR)
+			.toAbsolutePath()
+			.normalize();
+		final Path file
+			= Paths.get(imgSingle.getImagePath()).toAbsolutePath().normalize();
+
+		if (file.startsWith(imgFiles)) {
+			final Path relative = imgFiles.relativize(file);
+			final String[] names = new String[relative.getNameCount() + 1];
+			names[0] = IMAGES_DIR;
+			for (int i = 0; i < relative.getNameCount(); i++)
+				names[i + 1] = relative.getName(i).toString();
+			return new GreyU16DiskSingle(buildPath(names), true);
+		}
+
+		final Path link = imgFiles.resolve(setName)
+			.resolve(seriesName)
+			.resolve(fileName);
+		linkOrCopy(file, link);
+		return new GreyU16DiskSingle(
+			buildPath(IMAGES_DIR, setName, seriesName, fileName),
+			true);
+	}
+
+	/**
+	 * Make a hard link to a file, or copy the file with
+	 * {@link FileChannel#transferTo} if the file system cannot link it, such
+	 * as across two file systems. The destination is replaced if it exists.
+	 * 
+	 * @param src
+	 *        The file
+	 * 
+	 * @param dst
+	 *        The link or the copy
+	 * 
+	 * @throws IOException
+	 *         If the file can be neither linked nor copied
+	 */
+	private static void linkOrCopy(final Path src, final Path dst)
+			throws IOException {
+		Files.createDirectories(dst.getParent());
+		Files.deleteIfExists(dst);
+		try {
+			Files.createLink(dst, src);
+			return;
+		}
+		catch (final UnsupportedOperationException | IOException e) {
+			// copy the file below
+		}
+
+		try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(
+				dst,
+				StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE)) {
+			final long size = in.size();
+			for (long position = 0; position < size;)
+				position += in.transferTo(position, size - position, out);
+		}
+	}
+}
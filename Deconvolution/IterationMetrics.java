@@ -0,0 +1,67 @@
+package miatool.plugins;
+
+/**
+ * The metrics of one iteration of an iterative deconvolution. They are taken
+ * from the reblurred image and the update of the estimate that the iteration
+ * computes anyway, so they cost no extra FFT. The metrics are NaN if no
+ * stopping rule or listener asks for them.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public final class IterationMetrics {
+
+	/** The number of the iteration, from 1 */
+	public final int iteration;
+
+	/**
+	 * The relative change of the estimate in the iteration, the norm of the
+	 * update over the norm of the estimate before it
+	 */
+	public final double relativeChange;
+
+	/**
+	 * The I-divergence of the image from the reblurred estimate before the
+	 * iteration, the negative Poisson log-likelihood up to a constant
+	 */
+	public final double divergence;
+
+	/** The milliseconds since the first iteration started */
+	public final long elapsedMillis;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param iteration
+	 *        The number of the iteration, from 1
+	 * 
+	 * @param relativeChange
+	 *        The relative change of the estimate in the iteration
+	 * 
+	 * @param divergence
+	 *        The I-divergence of the image from the reblurred estimate
+	 * 
+	 * @param elapsedMillis
+	 *        The milliseconds since the first iteration started
+	 */
+	IterationMetrics(
+			final int iteration,
+			final double relativeChange,
+			final double divergence,
+			final long elapsedMillis) {
+		this.iteration = iteration;
+		this.relativeChange = relativeChange;
+		this.divergence = divergence;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"iteration %d: change %.3e, divergence %.6e, %d ms",
+			iteration,
+			relativeChange,
+			divergence,
+			elapsedMillis);
+	}
+}
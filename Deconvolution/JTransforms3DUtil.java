@@ -0,0 +1,622 @@
+package miatool.plugins;
+
+import java.util.function.IntConsumer;
+import miatool.core.util.numerics.ComplexMatrix3D;
+import org.jtransforms.fft.DoubleFFT_1D;
+import org.jtransforms.fft.DoubleFFT_3D;
+import org.jtransforms.fft.FloatFFT_1D;
+
+/**
+ * Utility class for the JTransform library
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class JTransforms3DUtil {
+	/** The buffers of the column FFTs, one for each thread */
+	private static final ThreadLocal<double[]> COLUMN_BUFFER
+		= ThreadLocal.withInitial(() -> new double[0]);
+
+	/** The single precision buffers of the column FFTs */
+	private static final ThreadLocal<float[]> FLOAT_COLUMN_BUFFER
+		= ThreadLocal.withInitial(() -> new float[0]);
+
+	/**
+	 * Convert a 3D matrix used by JTransform into an object of
+	 * ComplexMatrix3D
+	 * 
+	 * @param complex
+	 *        3D matrix for JTransforms
+	 * 
+	 * @return ComplexMatrix3D
+	 */
+	public static ComplexMatrix3D convertToComplexMatrix3D(
+			final double[][][] complex) {
+		final int n = complex.length;
+		final int h = complex[0].length;
+		final int w = complex[0][0].length / 2;
+
+		// Initialize elements of the output
+		final double[][][] real = new double[n][h][w];
+		final double[][][] imaginary = new double[n][h][w];
+
+		/*
+		 * loop through the 3D matrix to separate the real part and
+		 * imaginary parts
+		 */
+		VolumeKernels.forRange(n, h * w, z -> {
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					real[z][y][x] = complex[z][y][2 * x];
+					imaginary[z][y][x] = complex[z][y][2 * x + 1];
+				}
+			}
+		});
+
+		// Construct the output object
+		final ComplexMatrix3D result = new ComplexMatrix3D(real, imaginary);
+
+		return result;
+	}
+
+	/**
+	 * Convert the object into a 3D complex matrix in which the real part
+	 * and the imaginary part of a complex number are stored one by another
+	 * 
+	 * @param input
+	 *        ComplexMatrix3D
+	 * 
+	 * @return 3D matrix for JTransforms
+	 */
+	public static double[][][] convertToMatrix(
+			final ComplexMatrix3D input) {
+		final int n = input.real.length;
+		final int h = input.real[0].length;
+		final int w = input.real[0][0].length;
+
+		final double[][][] result = new double[n][h][2 * w];
+
+		VolumeKernels.forRange(n, h * w, z -> {
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					result[z][y][2 * x] = input.real[z][y][x];
+					result[z][y][2 * x + 1]
+						= input.imaginary[z][y][x];
+				}
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Make 3D FFT
+	 * 
+	 * @param input
+	 *        matrix for JTransforms
+	 * 
+	 * @return Fourier transformed matrix
+	 */
+	public static ComplexMatrix3D fft3D(final ComplexMatrix3D input) {
+		double[][][] matrix = convertToMatrix(input);
+		final int n = matrix.length;
+		final int h = matrix[0].length;
+		final int w = matrix[0][0].length / 2;
+
+		// get the plan of JTransforms from the cache and apply FFT
+		final DoubleFFT_3D fft = FFTPlanCache.getShared().getPlan3D(n, h, w);
+		fft.complexForward(matrix);
+
+		final ComplexMatrix3D compMat = convertToComplexMatrix3D(matrix);
+		matrix = null;
+
+		return compMat;
+	}
+
+	/**
+	 * Make 3D inverse FFT
+	 * 
+	 * @param input
+	 *        matrix for JTransforms
+	 * 
+	 * @return Inverse Fourier transformed matrix
+	 */
+	public static ComplexMatrix3D ifft3D(final ComplexMatrix3D input) {
+		double[][][] matrix = convertToMatrix(input);
+		final int n = matrix.length;
+		final int h = matrix[0].length;
+		final int w = matrix[0][0].length / 2;
+
+		/*
+		 * get the plan of JTransforms from the cache and apply iFFT,
+		 * re-scale the result
+		 */
+		final DoubleFFT_3D ifft
+			= FFTPlanCache.getShared().getPlan3D(n, h, w);
+		ifft.complexInverse(matrix, true);
+
+		final ComplexMatrix3D compMat = convertToComplexMatrix3D(matrix);
+		matrix = null;
+
+		return compMat;
+	}
+
+	/**
+	 * The length of the last dimension of the half spectrum of a real
+	 * matrix whose last dimension is of length w
+	 * 
+	 * @param w
+	 *        The length of the last dimension of the real matrix
+	 * 
+	 * @return The length of the last dimension of the half spectrum
+	 */
+	public static int halfLength(final int w) {
+		return w / 2 + 1;
+	}
+
+	/**
+	 * Make 3D FFT to a real volume in place. Only the non-redundant half
+	 * of the Hermitian-symmetric spectrum is computed. The rows are
+	 * transformed with real FFTs, then the other two dimensions are
+	 * transformed with complex FFTs for each of the remaining frequencies.
+	 * The volume is overwritten by the spectrum and should not be used
+	 * afterwards.
+	 * 
+	 * @param input
+	 *        The real volume, its rows have to be padded for the FFT
+	 * 
+	 * @return The half spectrum on the array of the volume
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the rows of the volume are not padded for the FFT
+	 */
+	public static Spectrum3D rfft3D(final Volume3D input) {
+		return rfft3D(input, null);
+	}
+
+	/**
+	 * Make 3D FFT to a real volume in place, like
+	 * {@link #rfft3D(Volume3D)}. A row operation is applied to each row
+	 * just before the row is transformed, so an element-wise step that
+	 * prepares the volume does not need a pass of its own.
+	 * 
+	 * @param input
+	 *        The real volume, its rows have to be padded for the FFT
+	 * 
+	 * @param rowOp
+	 *        Takes the index of a row and fills or modifies the row, it
+	 *        can be null
+	 * 
+	 * @return The half spectrum on the array of the volume
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the rows of the volume are not padded for the FFT
+	 */
+	public static Spectrum3D rfft3D(
+			final Volume3D input,
+			final IntConsumer rowOp) {
+		if (!input.isFFTLayout())
+			throw new IllegalArgumentException(
+				"The rows of the volume should be padded for the FFT");
+
+		final int w = input.w;
+		final int stride = input.rowStride;
+		final double[] a = input.data;
+
+		// make real FFT along the rows, unpack the result in place
+		final DoubleFFT_1D fftW = FFTPlanCache.getShared().getPlan1D(w);
+		VolumeKernels.forRange(input.rows(), w, row -> {
+			final int offset = row * stride;
+			if (rowOp != null)
+				rowOp.accept(row);
+			fftW.realForward(a, offset);
+
+			/*
+			 * the real part of the Nyquist frequency for even w, or the
+			 * imaginary part of the last frequency for odd w is packed
+			 * in the place of the imaginary part of frequency 0
+			 */
+			a[offset + w] = a[offset + 1];
+			a[offset + 1] = 0;
+			if (w % 2 == 0)
+				a[offset + w + 1] = 0;
+		});
+
+		final Spectrum3D result = new Spectrum3D(input.n, input.h, w, a);
+
+		// make complex FFT along the other two dimensions
+		transformColumns(result, true);
+
+		return result;
+	}
+
+	/**
+	 * Make 3D inverse FFT to a half spectrum in place, the missing half of
+	 * the spectrum is taken from the Hermitian symmetry and only the real
+	 * part of the result is kept. The spectrum is overwritten by the
+	 * result and should not be used afterwards.
+	 * 
+	 * @param input
+	 *        The half spectrum
+	 * 
+	 * @return The real volume on the array of the spectrum, its rows are
+	 *         padded for the FFT
+	 */
+	public static Volume3D irfft3D(final Spectrum3D input) {
+		return irfft3D(input, null);
+	}
+
+	/**
+	 * Make 3D inverse FFT to a half spectrum in place, like
+	 * {@link #irfft3D(Spectrum3D)}. A row operation is applied to each
+	 * row right after the row is transformed, while the row is still in
+	 * cache, so an element-wise step on the result does not need a pass
+	 * of its own.
+	 * 
+	 * @param input
+	 *        The half spectrum
+	 * 
+	 * @param rowOp
+	 *        Takes the index of a transformed row, it can be null
+	 * 
+	 * @return The real volume on the array of the spectrum, its rows are
+	 *         padded for the FFT
+	 */
+	public static Volume3D irfft3D(
+			final Spectrum3D input,
+			final IntConsumer rowOp) {
+		final int w = input.width;
+		final int stride = Volume3D.fftRowStride(w);
+		final double[] a = input.data;
+
+		// make inverse complex FFT along the first two dimensions
+		transformColumns(input, false);
+
+		// pack the rows and make inverse real FFT along the rows
+		final DoubleFFT_1D fftW = FFTPlanCache.getShared().getPlan1D(w);
+		VolumeKernels.forRange(input.rows(), w, row -> {
+			final int offset = row * stride;
+			a[offset + 1] = a[offset + w];
+			fftW.realInverse(a, offset, true);
+			if (rowOp != null)
+				rowOp.accept(row);
+		});
+
+		return new Volume3D(input.n, input.h, w, stride, a);
+	}
+
+	/**
+	 * Apply in place complex FFT along the planes and along the rows of a
+	 * spectrum. The columns are gathered into a buffer a plane or a row at
+	 * a time, so the buffer stays small and is read contiguously.
+	 * 
+	 * @param spectrum
+	 *        The spectrum
+	 * 
+	 * @param forward
+	 *        Apply forward FFT if true, otherwise scaled inverse FFT
+	 */
+	private static void transformColumns(
+			final Spectrum3D spectrum,
+			final boolean forward) {
+		final int n = spectrum.n;
+		final int h = spectrum.h;
+		final int wh = spectrum.w;
+		final double[] a = spectrum.data;
+
+		// transform along the rows of each plane
+		if (h > 1) {
+			final DoubleFFT_1D fftH = FFTPlanCache.getShared().getPlan1D(h);
+			VolumeKernels.forRange(n, h * wh, z -> {
+				final double[] buffer = columnBuffer(2 * h * wh);
+				transformStrided(
+					a,
+					spectrum.index(z, 0, 0),
+					2 * wh,
+					h,
+					wh,
+					buffer,
+					fftH,
+					forward);
+			});
+		}
+
+		// transform along the planes of each row
+		if (n > 1) {
+			final DoubleFFT_1D fftN = FFTPlanCache.getShared().getPlan1D(n);
+			VolumeKernels.forRange(h, n * wh, y -> {
+				final double[] buffer = columnBuffer(2 * n * wh);
+				transformStrided(
+					a,
+					spectrum.index(0, y, 0),
+					2 * h * wh,
+					n,
+					wh,
+					buffer,
+					fftN,
+					forward);
+			});
+		}
+	}
+
+	/**
+	 * Get the column buffer of the current thread, the buffer is only
+	 * reallocated when it is too short
+	 * 
+	 * @param length
+	 *        The minimum length of the buffer
+	 * 
+	 * @return The buffer
+	 */
+	private static double[] columnBuffer(final int length) {
+		double[] buffer = COLUMN_BUFFER.get();
+		if (buffer.length < length) {
+			buffer = new double[length];
+			COLUMN_BUFFER.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Apply complex FFT to wh interleaved columns of length len, whose
+	 * elements are apart by stride in the array
+	 * 
+	 * @param a
+	 *        The array
+	 * 
+	 * @param offset
+	 *        The start of the first element of the first column
+	 * 
+	 * @param stride
+	 *        The distance between two elements of a column
+	 * 
+	 * @param len
+	 *        The length of the columns
+	 * 
+	 * @param wh
+	 *        The number of the columns
+	 * 
+	 * @param buffer
+	 *        The buffer of at least 2 x len x wh elements
+	 * 
+	 * @param fft
+	 *        The 1D FFT of length len
+	 * 
+	 * @param forward
+	 *        Apply forward FFT if true, otherwise scaled inverse FFT
+	 */
+	private static void transformStrided(
+			final double[] a,
+			final int offset,
+			final int stride,
+			final int len,
+			final int wh,
+			final double[] buffer,
+			final DoubleFFT_1D fft,
+			final boolean forward) {
+		// gather the columns
+		for (int j = 0; j < len; j++) {
+			final int src = offset + j * stride;
+			for (int k = 0; k < wh; k++) {
+				buffer[2 * (k * len + j)] = a[src + 2 * k];
+				buffer[2 * (k * len + j) + 1] = a[src + 2 * k + 1];
+			}
+		}
+
+		for (int k = 0; k < wh; k++) {
+			if (forward)
+				fft.complexForward(buffer, 2 * k * len);
+			else
+				fft.complexInverse(buffer, 2 * k * len, true);
+		}
+
+		// scatter the columns back
+		for (int j = 0; j < len; j++) {
+			final int dst = offset + j * stride;
+			for (int k = 0; k < wh; k++) {
+				a[dst + 2 * k] = buffer[2 * (k * len + j)];
+				a[dst + 2 * k + 1] = buffer[2 * (k * len + j) + 1];
+			}
+		}
+	}
+
+	/**
+	 * Make single precision 3D FFT to a real volume in place, like
+	 * {@link #rfft3D(Volume3D, IntConsumer)}
+	 * 
+	 * @param input
+	 *        The real volume, its rows have to be padded for the FFT
+	 * 
+	 * @param rowOp
+	 *        Takes the index of a row and fills or modifies the row, it
+	 *        can be null
+	 * 
+	 * @return The half spectrum on the array of the volume
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the rows of the volume are not padded for the FFT
+	 */
+	public static FloatSpectrum3D rfft3D(
+			final FloatVolume3D input,
+			final IntConsumer rowOp) {
+		if (!input.isFFTLayout())
+			throw new IllegalArgumentException(
+				"The rows of the volume should be padded for the FFT");
+
+		final int w = input.w;
+		final int stride = input.rowStride;
+		final float[] a = input.data;
+
+		// make real FFT along the rows, unpack the result in place
+		final FloatFFT_1D fftW
+			= FFTPlanCache.getShared().getFloatPlan1D(w);
+		VolumeKernels.forRange(input.rows(), w, row -> {
+			final int offset = row * stride;
+			if (rowOp != null)
+				rowOp.accept(row);
+			fftW.realForward(a, offset);
+
+			a[offset + w] = a[offset + 1];
+			a[offset + 1] = 0;
+			if (w % 2 == 0)
+				a[offset + w + 1] = 0;
+		});
+
+		final FloatSpectrum3D result
+			= new FloatSpectrum3D(input.n, input.h, w, a);
+
+		// make complex FFT along the other two dimensions
+		transformColumns(result, true);
+
+		return result;
+	}
+
+	/**
+	 * Make single precision 3D inverse FFT to a half spectrum in place,
+	 * like {@link #irfft3D(Spectrum3D, IntConsumer)}
+	 * 
+	 * @param input
+	 *        The half spectrum
+	 * 
+	 * @param rowOp
+	 *        Takes the index of a transformed row, it can be null
+	 * 
+	 * @return The real volume on the array of the spectrum, its rows are
+	 *         padded for the FFT
+	 */
+	public static FloatVolume3D irfft3D(
+			final FloatSpectrum3D input,
+			final IntConsumer rowOp) {
+		final int w = input.width;
+		final int stride = Volume3D.fftRowStride(w);
+		final float[] a = input.data;
+
+		// make inverse complex FFT along the first two dimensions
+		transformColumns(input, false);
+
+		// pack the rows and make inverse real FFT along the rows
+		final FloatFFT_1D fftW
+			= FFTPlanCache.getShared().getFloatPlan1D(w);
+		VolumeKernels.forRange(input.rows(), w, row -> {
+			final int offset = row * stride;
+			a[offset + 1] = a[offset + w];
+			fftW.realInverse(a, offset, true);
+			if (rowOp != null)
+				rowOp.accept(row);
+		});
+
+		return new FloatVolume3D(input.n, input.h, w, stride, a);
+	}
+
+	/**
+	 * Apply in place single precision complex FFT along the planes and
+	 * along the rows of a spectrum
+	 * 
+	 * @param spectrum
+	 *        The spectrum
+	 * 
+	 * @param forward
+	 *        Apply forward FFT if true, otherwise scaled inverse FFT
+	 */
+	private static void transformColumns(
+			final FloatSpectrum3D spectrum,
+			final boolean forward) {
+		final int n = spectrum.n;
+		final int h = spectrum.h;
+		final int wh = spectrum.w;
+		final float[] a = spectrum.data;
+
+		// transform along the rows of each plane
+		if (h > 1) {
+			final FloatFFT_1D fftH
+				= FFTPlanCache.getShared().getFloatPlan1D(h);
+			VolumeKernels.forRange(n, h * wh, z -> {
+				final float[] buffer = floatColumnBuffer(2 * h * wh);
+				transformStrided(
+					a,
+					spectrum.index(z, 0, 0),
+					2 * wh,
+					h,
+					wh,
+					buffer,
+					fftH,
+					forward);
+			});
+		}
+
+		// transform along the planes of each row
+		if (n > 1) {
+			final FloatFFT_1D fftN
+				= FFTPlanCache.getShared().getFloatPlan1D(n);
+			VolumeKernels.forRange(h, n * wh, y -> {
+				final float[] buffer = floatColumnBuffer(2 * n * wh);
+				transformStrided(
+					a,
+					spectrum.index(0, y, 0),
+					2 * h * wh,
+					n,
+					wh,
+					buffer,
+					fftN,
+					forward);
+			});
+		}
+	}
+
+	/**
+	 * Get the single precision column buffer of the current thread
+	 * 
+	 * @param length
+	 *        The minimum length of the buffer
+	 * 
+	 * @return The buffer
+	 */
+	private static float[] floatColumnBuffer(final int length) {
+		float[] buffer = FLOAT_COLUMN_BUFFER.get();
+		if (buffer.length < length) {
+			buffer = new float[length];
+			FLOAT_COLUMN_BUFFER.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Apply single precision complex FFT to wh interleaved columns of
+	 * length len, whose elements are apart by stride in the array, like
+	 * the double precision version
+	 */
+	private static void transformStrided(
+			final float[] a,
+			final int offset,
+			final int stride,
+			final int len,
+			final int wh,
+			final float[] buffer,
+			final FloatFFT_1D fft,
+			final boolean forward) {
+		// gather the columns
+		for (int j = 0; j < len; j++) {
+			final int src = offset + j * stride;
+			for (int k = 0; k < wh; k++) {
+				buffer[2 * (k * len + j)] = a[src + 2 * k];
+				buffer[2 * (k * len + j) + 1] = a[src + 2 * k + 1];
+			}
+		}
+
+		for (int k = 0; k < wh; k++) {
+			if (forward)
+				fft.complexForward(buffer, 2 * k * len);
+			else
+				fft.complexInverse(buffer, 2 * k * len, true);
+		}
+
+		// scatter the columns back
+		for (int j = 0; j < len; j++) {
+			final int dst = offset + j * stride;
+			for (int k = 0; k < wh; k++) {
+				a[dst + 2 * k] = buffer[2 * (k * len + j)];
+				a[dst + 2 * k + 1] = buffer[2 * (k * len + j) + 1];
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package miatool.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A volume stored in a memory-mapped temporary file. Each plane is mapped on
+ * its own, so a volume can be larger than the heap and larger than the 2 GB
+ * limit of one mapping, and the operating system pages the planes in and out
+ * as they are read and written. The file is deleted when the store is closed.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class MappedVolumeStore implements VolumeStore, AutoCloseable {
+
+	/** The number of planes */
+	private final int n;
+
+	/** The number of rows in a plane */
+	private final int h;
+
+	/** The number of columns in a row */
+	private final int w;
+
+	/** The backing file */
+	private final File file;
+
+	/** The mapped planes */
+	private final DoubleBuffer[] planes;
+
+	/**
+	 * Constructor of a store filled with zeros
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @param directory
+	 *        The directory of the temporary file, the default temporary
+	 *        directory if null
+	 * 
+	 * @throws IOException
+	 *         If the file cannot be created or mapped
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the size is not positive or a plane is larger than 2 GB
+	 */
+	public MappedVolumeStore(
+			final int n,
+			final int h,
+			final int w,
+			final File directory)
+			throws IOException {
+		final long planeBytes = (long) h * w * Double.BYTES;
+		if (n < 1 || h < 1 || w < 1)
+			throw new IllegalArgumentException(
+				"The size of the volume should be positive");
+		if (planeBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+				"A plane of the volume is too large for one mapping");
+
+		this.n = n;
+		this.h = h;
+		this.w = w;
+
+		file = File.createTempFile("deconv", ".vol", directory);
+		file.deleteOnExit();
+
+		// the mappings stay valid after the channel is closed
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			// a new file is filled with zeros
+			raf.setLength(planeBytes * n);
+			final FileChannel channel = raf.getChannel();
+
+			planes = new DoubleBuffer[n];
+			for (int z = 0; z < n; z++)
+				planes[z] = channel
+					.map(
+						FileChannel.MapMode.READ_WRITE,
+						z * planeBytes,
+						planeBytes)
+					.order(ByteOrder.nativeOrder())
+					.asDoubleBuffer();
+		}
+		catch (final IOException e) {
+			file.delete();
+			throw e;
+		}
+	}
+
+	@Override
+	public int getN() {
+		return n;
+	}
+
+	@Override
+	public int getH() {
+		return h;
+	}
+
+	@Override
+	public int getW() {
+		return w;
+	}
+
+	@Override
+	public void readRow(
+			final int z,
+			final int y,
+			final int x,
+			final double[] dst,
+			final int offset,
+			final int length) {
+		final DoubleBuffer plane = planes[z].duplicate();
+		plane.position(y * w + x);
+		plane.get(dst, offset, length);
+	}
+
+	@Override
+	public void writeRow(
+			final int z,
+			final int y,
+			final int x,
+			final double[] src,
+			final int offset,
+			final int length) {
+		final DoubleBuffer plane = planes[z].duplicate();
+		plane.position(y * w + x);
+		plane.put(src, offset, length);
+	}
+
+	/**
+	 * Delete the backing file. The mappings stay valid until they are
+	 * collected, so the store should not be used afterwards. Where a mapped
+	 * file cannot be deleted, it is deleted when the virtual machine exits.
+	 */
+	@Override
+	public void close() {
+		file.delete();
+	}
+}
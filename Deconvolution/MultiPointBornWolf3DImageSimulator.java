@@ -8,7 +8,6 @@ import miatool.core.MIAConstants;
 import miatool.core.util.MIAProfiler;
 import miatool.core.util.MIAUtil;
 import miatool.core.util.OpenCLUtil;
-import miatool.core.util.Parallel;
 import miatool.core.util.PixelCoordinates;
 import miatool.core.util.miatiff.MIATIFFWriter;
 import miatool.core.util.numerics.MIAMatOps;
@@ -17,6 +16,7 @@ import miatool.modules.estimation.math.integration.TrapezoidalPixelIntegrator;
 import miatool.modules.estimation.math.integration.TrapezoidalPsf3DIntegrator;
 import miatool.modules.estimation.models.single.BornWolf3D;
 import miatool.modules.estimation.util.Detector;
+import miatool.modules.parallel.ComputeScheduler;
 
 // TODO: 2015-07-31, Anish V. Abraham: Documentation.
 public class MultiPointBornWolf3DImageSimulator {
@@ -142,9 +142,6 @@ public class MultiPointBornWolf3DImageSimulator {
 		// make sure that the OpenCL is up and running
 		OpenCLUtil.initializeOpenCL();
 
-		// start the parallel pool engine
-		Parallel.startPool();
-
 		// set up a timer for the execution
 		MIAProfiler.tic();
 
@@ -154,18 +151,18 @@ public class MultiPointBornWolf3DImageSimulator {
 
 		final double[][] xyLocations = getXYLocations(nSpotsPerImage);
 		final double[][] zLocations = getZLocations(nSpotsPerImage, stepSize, nImages);
-		// loop through and simulate all images
-		for (int i = 0; i < nImages; i++) {
+		// simulate all images in the shared scheduler, each image with a model
+		// of its own since the spot positions are set in the model
+		ComputeScheduler.getShared().forRange(0, nImages, i -> {
+			final BornWolf3D.Model model = new BornWolf3D.Model();
+			setupModel(model);
 			final double[] zLocation = MIAMatOps.getCol(zLocations, i);
-			simulateImage(i, xyLocations, zLocation);
-		}
+			simulateImage(model, i, xyLocations, zLocation);
+		});
 
 		// retrieve timing information
 		final double time = MIAProfiler.toc();
 		System.out.println("Elapsed time: " + time + "ms");
-
-		// shut down the parallel engine
-		Parallel.shutdownPool();
 	}
 
 	/**
@@ -225,6 +222,23 @@ public class MultiPointBornWolf3DImageSimulator {
 			final int i,
 			final double[][] xyLoci,
 			final double[] zLoci) {
+		simulateImage(modelObj, i, xyLoci, zLoci);
+	}
+
+	/**
+	 * The image simulation with a model, images of different models can be
+	 * simulated in parallel
+	 * 
+	 * @param model
+	 *        the model set up by {@link #setupModel(BornWolf3D.Model)}
+	 * @param i
+	 *        the index of the image to simulate
+	 */
+	private void simulateImage(
+			final BornWolf3D.Model model,
+			final int i,
+			final double[][] xyLoci,
+			final double[] zLoci) {
 		double x0, y0, z0;
 
 		final double[][] image = new double[height][width];
@@ -251,7 +265,7 @@ public class MultiPointBornWolf3DImageSimulator {
 			final int shiftedPixelY = (int) (y1 / pixelHeight) - simH / 2;
 
 			final double[][] modelImage = simulateSingleSpot(
-					modelObj,
+					model,
 					x0,
 					y0,
 					z0,
@@ -0,0 +1,347 @@
+package miatool.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A persistent cache of optical transfer functions in a directory. An entry
+ * is keyed by the content hash of the PSF planes as they are stored, the size
+ * of the padded volume, the precision, the background estimation of the PSF
+ * planes and the version of the format, and holds the half spectrum in a
+ * binary file of a header followed by the interleaved complex elements in
+ * little endian order.
+ * The planes of a file are memory-mapped and copied into the spectrum when it
+ * is loaded. The files that were used least recently are deleted when the
+ * cache is larger than its limit, the time of the last use of a file is its
+ * modification time.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class OTFCache {
+
+	/** The first int of a file, "OTF1" */
+	private static final int MAGIC = 0x4F544631;
+
+	/**
+	 * The version of the files, it is in the key and the header of a file.
+	 * Increment it whenever the transfer functions of a psf set change, the
+	 * background subtraction, the shift and the normalisation of the psf or
+	 * the layout of the spectrum, so the files of the former functions are
+	 * not loaded and are evicted in time.
+	 */
+	static final int VERSION = 2;
+
+	/** The bytes of the header, magic, precision, n, h, width and version */
+	private static final int HEADER_BYTES = 6 * Integer.BYTES;
+
+	/** The extension of the files of the cache */
+	private static final String EXTENSION = ".otf";
+
+	/** The directory of the files */
+	private final File directory;
+
+	/** The maximum number of bytes of the files */
+	private final long maxBytes;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param directory
+	 *        The directory of the files, it is created if it does not exist
+	 * 
+	 * @param maxBytes
+	 *        The maximum number of bytes of the files
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the maximum number of bytes is not positive
+	 */
+	OTFCache(final File directory, final long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException(
+				"The size of the cache should be positive");
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		directory.mkdirs();
+	}
+
+	/**
+	 * Hash the content of the PSF planes, the hash changes with any element
+	 * or the size of any plane
+	 * 
+	 * @param planes
+	 *        The jagged 3D matrix of the psf set
+	 * 
+	 * @return The SHA-256 hash
+	 */
+	static byte[] hash(final double[][][] planes) {
+		final MessageDigest digest = newDigest();
+		final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+
+		for (final double[][] plane : planes) {
+			digest.update(buffer.putInt(0, plane.length).array(), 0, 4);
+			for (final double[] row : plane) {
+				digest.update(buffer.putInt(0, row.length).array(), 0, 4);
+				for (final double value : row)
+					digest.update(buffer.putDouble(0, value).array());
+			}
+		}
+
+		return digest.digest();
+	}
+
+	/**
+	 * Load the optical transfer function of a psf
+	 * 
+	 * @param psfHash
+	 *        The content hash of the psf planes
+	 * 
+	 * @param n
+	 *        The number of planes of the padded volume
+	 * 
+	 * @param h
+	 *        The number of rows of the padded volume
+	 * 
+	 * @param w
+	 *        The number of columns of the padded volume
+	 * 
+	 * @param precision
+	 *        The precision of the spectrum
+	 * 
+	 * @return The optical transfer function, null if it is not in the cache
+	 *         or its file is not of the format
+	 * 
+	 * @throws IOException
+	 *         If the file of the function cannot be read
+	 */
+	OpticalTransfer load(
+			final byte[] psfHash,
+			final int n,
+			final int h,
+			final int w,
+			final Precision precision)
+			throws IOException {
+		final File file = getFile(psfHash, n, h, w, precision);
+		if (!file.isFile())
+			return null;
+
+		final int elements = n * h * Volume3D.fftRowStride(w);
+		final int planeElements = elements / n;
+		final int elementBytes
+			= precision == Precision.FLOAT ? Float.BYTES : Double.BYTES;
+		final long planeBytes = (long) planeElements * elementBytes;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(header, 0);
+			if (channel.size() != HEADER_BYTES + planeBytes * n
+				|| header.getInt(0) != MAGIC
+				|| header.getInt(4) != precision.ordinal()
+				|| header.getInt(8) != n
+				|| header.getInt(12) != h
+				|| header.getInt(16) != w
+				|| header.getInt(20) != VERSION)
+				return null;
+
+			final double[] data
+				= precision == Precision.FLOAT ? null : new double[elements];
+			final float[] floatData
+				= precision == Precision.FLOAT ? new float[elements] : null;
+
+			// map a plane at a time, so a mapping is never larger than 2 GB
+			for (int z = 0; z < n; z++) {
+				final MappedByteBuffer plane = channel.map(
+					FileChannel.MapMode.READ_ONLY,
+					HEADER_BYTES + z * planeBytes,
+					planeBytes);
+				plane.order(ByteOrder.LITTLE_ENDIAN);
+				if (data != null)
+					plane.asDoubleBuffer()
+						.get(data, z * planeElements, planeElements);
+				else
+					plane.asFloatBuffer()
+						.get(floatData, z * planeElements, planeElements);
+			}
+
+			file.setLastModified(System.currentTimeMillis());
+			return data != null
+				? new OpticalTransfer(new Spectrum3D(n, h, w, data))
+				: new OpticalTransfer(new FloatSpectrum3D(n, h, w, floatData));
+		}
+	}
+
+	/**
+	 * Store the optical transfer function of a psf, and delete the files
+	 * used least recently if the cache is larger than its limit. The file is
+	 * written under a temporary name and renamed, so a file of the cache is
+	 * always complete, and the temporary file is deleted if it cannot be
+	 * written.
+	 * 
+	 * @param psfHash
+	 *        The content hash of the psf planes
+	 * 
+	 * @param otf
+	 *        The optical transfer function
+	 * 
+	 * @throws IOException
+	 *         If the file of the function cannot be written
+	 */
+	void store(final byte[] psfHash, final OpticalTransfer otf)
+			throws IOException {
+		final int n = otf.n;
+		final int planeElements = otf.h * Volume3D.fftRowStride(otf.w);
+		final int elementBytes
+			= otf.precision == Precision.FLOAT ? Float.BYTES : Double.BYTES;
+		final ByteBuffer buffer = ByteBuffer
+			.allocate(Math.max(HEADER_BYTES, planeElements * elementBytes))
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+		File temp = null;
+		try {
+			temp = File.createTempFile("otf", ".tmp", directory);
+			try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+				final FileChannel channel = raf.getChannel();
+
+				buffer.putInt(MAGIC)
+					.putInt(otf.precision.ordinal())
+					.putInt(n)
+					.putInt(otf.h)
+					.putInt(otf.w)
+					.putInt(VERSION)
+					.flip();
+				writeFully(channel, buffer);
+
+				for (int z = 0; z < n; z++) {
+					buffer.clear();
+					if (otf.precision == Precision.FLOAT)
+						buffer.asFloatBuffer().put(
+							otf.getFloatSpectrum().data,
+							z * planeElements,
+							planeElements);
+					else
+						buffer.asDoubleBuffer().put(
+							otf.getSpectrum().data,
+							z * planeElements,
+							planeElements);
+					buffer.limit(planeElements * elementBytes);
+					writeFully(channel, buffer);
+				}
+			}
+
+			final File file = getFile(psfHash, n, otf.h, otf.w, otf.precision);
+			try {
+				Files.move(
+					temp.toPath(),
+					file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException e) {
+				Files.move(
+					temp.toPath(),
+					file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (final IOException e) {
+			if (temp != null)
+				temp.delete();
+			throw e;
+		}
+
+		evict();
+	}
+
+	/**
+	 * Delete the files used least recently until the cache is not larger
+	 * than its limit, the file used last is kept
+	 */
+	private synchronized void evict() {
+		final File[] files = directory.listFiles(
+			(dir, name) -> name.endsWith(EXTENSION));
+		if (files == null)
+			return;
+
+		long bytes = 0;
+		for (final File file : files)
+			bytes += file.length();
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < files.length - 1 && bytes > maxBytes; i++) {
+			final long length = files[i].length();
+			if (files[i].delete())
+				bytes -= length;
+		}
+	}
+
+	/**
+	 * @return The file of an entry, named after the hash of its key, the key
+	 *         holds the version and the background estimation of the psf
+	 */
+	private File getFile(
+			final byte[] psfHash,
+			final int n,
+			final int h,
+			final int w,
+			final Precision precision) {
+		final MessageDigest digest = newDigest();
+		digest.update(psfHash);
+		digest.update(
+			ByteBuffer.allocate(5 * Integer.BYTES)
+				.putInt(VERSION)
+				.putInt(n)
+				.putInt(h)
+				.putInt(w)
+				.putInt(precision.ordinal())
+				.array());
+		digest.update(
+			DeconvolutionEngine.BACKGROUND_METHOD
+				.getBytes(StandardCharsets.UTF_8));
+
+		final StringBuilder name = new StringBuilder();
+		for (final byte b : digest.digest())
+			name.append(String.format("%02x", b));
+
+		return new File(directory, name.append(EXTENSION).toString());
+	}
+
+	/**
+	 * Write all the remaining bytes of a buffer to a channel
+	 */
+	private static void writeFully(
+			final FileChannel channel,
+			final ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * @return A new SHA-256 digest
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
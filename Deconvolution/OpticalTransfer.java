@@ -0,0 +1,126 @@
+package miatool.plugins;
+
+
+/**
+ * The optical transfer function of a PSF, the FFT of the circshifted and
+ * normalized PSF, in the precision of the deconvolution. It is computed once
+ * and only read by the deconvolutions, so one instance can be shared by the
+ * deconvolutions of many volumes of the same size running in parallel.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class OpticalTransfer {
+
+	/** The precision of the spectrum */
+	final Precision precision;
+
+	/** The number of planes of the volume of the PSF */
+	final int n;
+
+	/** The number of rows of the volume of the PSF */
+	final int h;
+
+	/** The number of columns of the volume of the PSF */
+	final int w;
+
+	/** The spectrum in double precision, null in single precision */
+	private final Spectrum3D spectrum;
+
+	/** The spectrum in single precision, null in double precision */
+	private final FloatSpectrum3D floatSpectrum;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param psfShift
+	 *        The circshifted and normalized psf volume, its rows are padded
+	 *        for the in place FFT, it is transformed in place in double
+	 *        precision
+	 * 
+	 * @param precision
+	 *        The precision of the spectrum
+	 */
+	OpticalTransfer(final Volume3D psfShift, final Precision precision) {
+		this.precision = precision;
+		n = psfShift.n;
+		h = psfShift.h;
+		w = psfShift.w;
+
+		if (precision == Precision.FLOAT) {
+			spectrum = null;
+			floatSpectrum = JTransforms3DUtil.rfft3D(
+				FloatVolume3D.fromVolume(psfShift, Volume3D.fftRowStride(w)),
+				null);
+		}
+		else {
+			spectrum = JTransforms3DUtil.rfft3D(psfShift);
+			floatSpectrum = null;
+		}
+	}
+
+	/**
+	 * Constructor of the optical transfer function of a spectrum in double
+	 * precision
+	 * 
+	 * @param spectrum
+	 *        The spectrum of the circshifted and normalized psf volume
+	 */
+	OpticalTransfer(final Spectrum3D spectrum) {
+		precision = Precision.DOUBLE;
+		n = spectrum.n;
+		h = spectrum.h;
+		w = spectrum.width;
+		this.spectrum = spectrum;
+		floatSpectrum = null;
+	}
+
+	/**
+	 * Constructor of the optical transfer function of a spectrum in single
+	 * precision
+	 * 
+	 * @param floatSpectrum
+	 *        The spectrum of the circshifted and normalized psf volume
+	 */
+	OpticalTransfer(final FloatSpectrum3D floatSpectrum) {
+		precision = Precision.FLOAT;
+		n = floatSpectrum.n;
+		h = floatSpectrum.h;
+		w = floatSpectrum.width;
+		spectrum = null;
+		this.floatSpectrum = floatSpectrum;
+	}
+
+	/**
+	 * @return The spectrum in double precision, it should not be modified
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the spectrum is in single precision
+	 */
+	Spectrum3D getSpectrum() {
+		if (spectrum == null)
+			throw new IllegalArgumentException(
+				"The optical transfer function is in single precision");
+		return spectrum;
+	}
+
+	/**
+	 * @return The spectrum in single precision, it should not be modified
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the spectrum is in double precision
+	 */
+	FloatSpectrum3D getFloatSpectrum() {
+		if (floatSpectrum == null)
+			throw new IllegalArgumentException(
+				"The optical transfer function is in double precision");
+		return floatSpectrum;
+	}
+
+	/**
+	 * @return True if the volume is of the size of the PSF volume
+	 */
+	boolean isSameSize(final Volume3D volume) {
+		return volume.n == n && volume.h == h && volume.w == w;
+	}
+}
@@ -1,8 +1,6 @@
 package simulations;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import miatool.core.util.OpenCLUtil;
 import miatool.core.util.PixelCoordinates;
 import miatool.core.util.numerics.MIAMatOps;
@@ -11,6 +9,7 @@ import miatool.modules.estimation.math.integration.TrapezoidalPixelIntegrator;
 import miatool.modules.estimation.math.integration.TrapezoidalPsf3DIntegrator;
 import miatool.modules.estimation.models.single.BornWolf3D;
 import miatool.modules.estimation.util.Detector;
+import miatool.modules.parallel.ComputeScheduler;
 import miatool.tools.Preview;
 
 /**
@@ -106,21 +105,17 @@ public class PSFSimulation {
 		// simulate PSF on each plane
 		System.out.println("Start PSF simulation.");
 		
-		List<Integer> tuples = new ArrayList<>();
-		for (int i = 0; i < nImages; i++)
-			tuples.add(i);
-		
-		tuples.parallelStream().forEach(tuple -> {
+		ComputeScheduler.getShared().forRange(0, nImages, i -> {
 			modelObj.psf.x0 = MIAUnits.microns(x0);
 			modelObj.psf.y0 = MIAUnits.microns(y0);
-			final double zLoci = tuple * stepSize - nImages * stepSize / 2;
+			final double zLoci = i * stepSize - nImages * stepSize / 2;
 			modelObj.psf.z0 = MIAUnits.microns(zLoci);
 			
 			// Processing
 			modelObj.simulateProfile();
 			
 			// save image
-			psfData[tuple] = MIAMatOps.copy(modelObj.get2DImage());
+			psfData[i] = MIAMatOps.copy(modelObj.get2DImage());
 		});
 		
 		System.out.println("The simulation is finished.");
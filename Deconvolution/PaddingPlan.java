@@ -0,0 +1,297 @@
+package miatool.plugins;
+
+/**
+ * The padding of a volume before the FFT based deconvolution. Each dimension
+ * is enlarged by a guard band of at least half of the PSF on both sides, so
+ * the circular convolution of the FFT does not wrap one border of the volume
+ * into the other, and then rounded up to a size that the FFT handles fast.
+ * The volume is put in the middle of the padded volume, the guard band is
+ * filled with zeros or with the mirror image of the volume, and the result is
+ * cropped back to the size of the volume.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class PaddingPlan {
+
+	/**
+	 * JTransforms uses its mixed radix FFT when the length left after
+	 * removing the factors 2, 3 and 5 is smaller than 211, otherwise it falls
+	 * back to the slower Bluestein FFT
+	 */
+	private static final int MAX_REMAINDER = 211;
+
+	/** Define the fill of the guard band */
+	public static enum Fill {
+		/** No padding, the volume is transformed in its own size */
+		NONE,
+
+		/** The guard band is filled with zeros */
+		ZERO,
+
+		/** The guard band is filled with the mirror image of the volume */
+		MIRROR
+	}
+
+	/** The number of planes of the volume */
+	public final int n;
+
+	/** The number of rows of the volume */
+	public final int h;
+
+	/** The number of columns of the volume */
+	public final int w;
+
+	/** The number of planes of the padded volume */
+	public final int padN;
+
+	/** The number of rows of the padded volume */
+	public final int padH;
+
+	/** The number of columns of the padded volume */
+	public final int padW;
+
+	/** The fill of the guard band */
+	public final Fill fill;
+
+	/** The plane of the padded volume where the volume starts */
+	private final int offZ;
+
+	/** The row of the padded volume where the volume starts */
+	private final int offY;
+
+	/** The column of the padded volume where the volume starts */
+	private final int offX;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param n
+	 *        The number of planes of the volume
+	 * 
+	 * @param h
+	 *        The number of rows of the volume
+	 * 
+	 * @param w
+	 *        The number of columns of the volume
+	 * 
+	 * @param psfN
+	 *        The number of planes of the psf
+	 * 
+	 * @param psfH
+	 *        The number of rows of the psf
+	 * 
+	 * @param psfW
+	 *        The number of columns of the psf
+	 * 
+	 * @param fill
+	 *        The fill of the guard band
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If a size is not positive
+	 */
+	public PaddingPlan(
+			final int n,
+			final int h,
+			final int w,
+			final int psfN,
+			final int psfH,
+			final int psfW,
+			final Fill fill) {
+		if (n < 1 || h < 1 || w < 1 || psfN < 1 || psfH < 1 || psfW < 1)
+			throw new IllegalArgumentException(
+				"The size of the volume and the psf should be positive");
+
+		this.n = n;
+		this.h = h;
+		this.w = w;
+		this.fill = fill;
+
+		if (fill == Fill.NONE) {
+			padN = n;
+			padH = h;
+			padW = w;
+		}
+		else {
+			padN = nextFastSize(n + 2 * (psfN / 2));
+			padH = nextFastSize(h + 2 * (psfH / 2));
+			padW = nextFastSize(w + 2 * (psfW / 2));
+		}
+
+		offZ = (padN - n) / 2;
+		offY = (padH - h) / 2;
+		offX = (padW - w) / 2;
+	}
+
+	/**
+	 * Find the smallest length not smaller than the input that JTransforms
+	 * transforms with its mixed radix FFT, which is a length of the factors
+	 * 2, 3, 5 and 7 whose factors 7 multiply to less than 211
+	 * 
+	 * @param length
+	 *        The minimum length
+	 * 
+	 * @return The length of the FFT
+	 */
+	public static int nextFastSize(final int length) {
+		int result = Math.max(length, 1);
+		while (!isFastSize(result))
+			result++;
+		return result;
+	}
+
+	/**
+	 * @return True if the FFT of the length uses the mixed radix FFT
+	 */
+	public static boolean isFastSize(final int length) {
+		int remainder = removeSmallFactors(length);
+		if (remainder >= MAX_REMAINDER)
+			return false;
+
+		while (remainder % 7 == 0)
+			remainder /= 7;
+		return remainder == 1;
+	}
+
+	/**
+	 * Pad a volume of the size n x h x w
+	 * 
+	 * @param input
+	 *        The volume
+	 * 
+	 * @return The compact padded volume, or the input itself if no padding
+	 *         is needed
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volume is not of the size of the plan
+	 */
+	public Volume3D pad(final Volume3D input) {
+		if (input.n != n || input.h != h || input.w != w)
+			throw new IllegalArgumentException(
+				"The volume does not match the size of the padding plan");
+
+		if (padN == n && padH == h && padW == w)
+			return input;
+
+		final int[] mapZ = makeMap(padN, n, offZ);
+		final int[] mapY = makeMap(padH, h, offY);
+		final int[] mapX = makeMap(padW, w, offX);
+		final Volume3D result = new Volume3D(padN, padH, padW);
+
+		VolumeKernels.forRange(padN, padH * padW, z -> {
+			if (mapZ[z] < 0)
+				return;
+
+			for (int y = 0; y < padH; y++) {
+				if (mapY[y] < 0)
+					continue;
+
+				final int offset = input.index(mapZ[z], mapY[y], 0);
+				final int rOffset = result.index(z, y, 0);
+				for (int x = 0; x < padW; x++)
+					if (mapX[x] >= 0)
+						result.data[rOffset + x]
+							= input.data[offset + mapX[x]];
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Crop a padded volume back to the size n x h x w
+	 * 
+	 * @param input
+	 *        The padded volume
+	 * 
+	 * @return The compact cropped volume, or the input itself if there is no
+	 *         padding
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volume is not of the padded size of the plan
+	 */
+	public Volume3D crop(final Volume3D input) {
+		if (input.n != padN || input.h != padH || input.w != padW)
+			throw new IllegalArgumentException(
+				"The volume does not match the padded size of the plan");
+
+		if (padN == n && padH == h && padW == w)
+			return input;
+
+		final Volume3D result = new Volume3D(n, h, w);
+
+		VolumeKernels.forRange(n, h * w, z -> {
+			for (int y = 0; y < h; y++)
+				System.arraycopy(
+					input.data,
+					input.index(z + offZ, y + offY, offX),
+					result.data,
+					result.index(z, y, 0),
+					w);
+		});
+
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"PaddingPlan[%dx%dx%d -> %dx%dx%d, fill=%s]",
+			n,
+			h,
+			w,
+			padN,
+			padH,
+			padW,
+			fill);
+	}
+
+	/**
+	 * Map each index of a padded dimension to the index in the volume, -1
+	 * for the elements filled with zeros
+	 * 
+	 * @param padLength
+	 *        The length of the padded dimension
+	 * 
+	 * @param length
+	 *        The length of the dimension of the volume
+	 * 
+	 * @param offset
+	 *        The index where the volume starts
+	 * 
+	 * @return The map
+	 */
+	private int[] makeMap(
+			final int padLength,
+			final int length,
+			final int offset) {
+		final int[] result = new int[padLength];
+
+		for (int p = 0; p < padLength; p++) {
+			final int i = p - offset;
+			if (i >= 0 && i < length)
+				result[p] = i;
+			else if (fill == Fill.ZERO)
+				result[p] = -1;
+			else {
+				// reflect with the period of twice the length
+				final int period = 2 * length;
+				final int j = ((i % period) + period) % period;
+				result[p] = j < length ? j : period - 1 - j;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return The length left after removing the factors 2, 3 and 5
+	 */
+	private static int removeSmallFactors(final int length) {
+		int remainder = length;
+		for (final int factor : new int[] { 2, 3, 5 })
+			while (remainder % factor == 0)
+				remainder /= factor;
+		return remainder;
+	}
+}
@@ -0,0 +1,174 @@
+package miatool.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pipelined loader of the planes of an image series. The planes are read and
+ * prepared, such as having their background subtracted, by a pool of I/O
+ * threads that read ahead of the planes taken, while the calling thread
+ * takes the planes in their order and writes them to their destination. At
+ * most queueLength planes are read ahead, so the memory of the loader does
+ * not grow with the length of the series.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class PlaneLoader {
+
+	/** The number of I/O threads by default */
+	static final int DEFAULT_IO_THREADS = 4;
+
+	/** The number of planes read ahead by default */
+	static final int DEFAULT_QUEUE_LENGTH = 16;
+
+	/**
+	 * Reads and prepares a plane in an I/O thread
+	 * 
+	 * @param <T>
+	 *        The type of the planes
+	 */
+	@FunctionalInterface
+	interface PlaneReader<T> {
+
+		/**
+		 * @param index
+		 *        The index of the plane
+		 * 
+		 * @return The plane, null if it cannot be read
+		 * 
+		 * @throws IOException
+		 *         If the plane cannot be read
+		 */
+		T read(int index) throws IOException;
+	}
+
+	/**
+	 * Takes the planes in their order in the calling thread
+	 * 
+	 * @param <T>
+	 *        The type of the planes
+	 */
+	@FunctionalInterface
+	interface PlaneSink<T> {
+
+		/**
+		 * @param index
+		 *        The index of the plane
+		 * 
+		 * @param plane
+		 *        The plane, null if it cannot be read
+		 * 
+		 * @return False to stop the loading
+		 */
+		boolean accept(int index, T plane);
+	}
+
+	/** The number of I/O threads */
+	private final int ioThreads;
+
+	/** The maximum number of planes read ahead */
+	private final int queueLength;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param ioThreads
+	 *        The number of I/O threads
+	 * 
+	 * @param queueLength
+	 *        The maximum number of planes read ahead
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If a number is not positive
+	 */
+	PlaneLoader(final int ioThreads, final int queueLength) {
+		if (ioThreads < 1 || queueLength < 1)
+			throw new IllegalArgumentException(
+				"The numbers of threads and planes should be positive");
+
+		this.ioThreads = ioThreads;
+		this.queueLength = queueLength;
+	}
+
+	/**
+	 * Load the planes of a series
+	 * 
+	 * @param count
+	 *        The number of planes
+	 * 
+	 * @param reader
+	 *        Reads a plane, it is called from several threads at once
+	 * 
+	 * @param sink
+	 *        Takes the planes in their order
+	 * 
+	 * @return True if all the planes are taken, false if the sink stopped
+	 *         the loading
+	 * 
+	 * @throws IOException
+	 *         If a plane cannot be read or the loading is interrupted
+	 */
+	<T> boolean load(
+			final int count,
+			final PlaneReader<T> reader,
+			final PlaneSink<T> sink)
+			throws IOException {
+		final ExecutorService io
+			= Executors.newFixedThreadPool(ioThreads, runnable -> {
+				final Thread thread = new Thread(runnable, "PlaneLoader");
+				thread.setDaemon(true);
+				return thread;
+			});
+		final ArrayDeque<Future<T>> queue = new ArrayDeque<>();
+
+		try {
+			int next = 0;
+			for (int i = 0; i < count; i++) {
+				// keep the queue full with the planes after i
+				for (; next < count && next < i + queueLength; next++) {
+					final int index = next;
+					queue.add(io.submit(() -> reader.read(index)));
+				}
+
+				if (!sink.accept(i, take(queue.poll())))
+					return false;
+			}
+			return true;
+		}
+		finally {
+			io.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The plane read by a task of the I/O threads
+	 * 
+	 * @throws IOException
+	 *         If the plane cannot be read or the loading is interrupted
+	 */
+	private static <T> T take(final Future<T> task) throws IOException {
+		try {
+			return task.get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The loading is interrupted");
+		}
+		catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+}
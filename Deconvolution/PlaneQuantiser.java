@@ -0,0 +1,128 @@
+package miatool.plugins;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import miatool.core.util.miatiff.MIATIFFWriter;
+
+/**
+ * Quantiser of the planes of a series to unsigned 16 bit samples. The
+ * scaling is taken once from the maximum of the whole series, the series is
+ * scaled down to the full range 0 to 0xFFFF if its maximum is larger, and
+ * kept otherwise. The background of a plane is subtracted, the samples are
+ * clamped, scaled and rounded in one pass into a buffer kept by the calling
+ * thread, so no memory is allocated for a plane of the size of the previous
+ * plane. With dithering a uniform noise of one level is added before the
+ * rounding down, so the mean of a flat region keeps its fraction of a
+ * level.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class PlaneQuantiser {
+
+	/** The largest unsigned 16 bit sample */
+	static final int MAX_LEVEL = 0xFFFF;
+
+	/** The samples of the threads */
+	private static final ThreadLocal<short[]> SAMPLES
+		= ThreadLocal.withInitial(() -> new short[0]);
+
+	/** The maximum of the series */
+	private final double max;
+
+	/** The factor from the values to the levels */
+	private final double scale;
+
+	/** Adds noise before the rounding */
+	private final boolean dither;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param max
+	 *        The maximum of all the planes of the series
+	 * 
+	 * @param dither
+	 *        True to dither the samples, false to round them to the nearest
+	 *        level
+	 */
+	PlaneQuantiser(final double max, final boolean dither) {
+		this.max = max;
+		this.dither = dither;
+		scale = max > MAX_LEVEL ? MAX_LEVEL / max : 1;
+	}
+
+	/**
+	 * Quantise a plane with its background subtracted, a negative value is
+	 * set to 0. The samples are valid until the next plane is quantised in
+	 * the calling thread.
+	 * 
+	 * @param plane
+	 *        The image matrix, the rows are of the length of the first row
+	 * 
+	 * @param background
+	 *        The background of the plane
+	 * 
+	 * @return The unsigned 16 bit samples row by row
+	 */
+	short[] quantise(final double[][] plane, final double background) {
+		final int height = plane.length;
+		final int width = plane[0].length;
+
+		short[] result = SAMPLES.get();
+		if (result.length != width * height) {
+			result = new short[width * height];
+			SAMPLES.set(result);
+		}
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int y = 0; y < height; y++) {
+			final double[] row = plane[y];
+			final int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				double value = row[x] - background;
+				if (value > max)
+					value = max;
+				if (value < 0)
+					value = 0;
+
+				final double level = value * scale
+					+ (dither ? random.nextDouble() : 0.5);
+				result[offset + x] = (short) Math.min((int) level, MAX_LEVEL);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Quantise a plane with its edge median background subtracted, see
+	 * {@link #quantise(double[][], double)}
+	 * 
+	 * @param plane
+	 *        The image matrix, the rows are of the length of the first row
+	 * 
+	 * @return The unsigned 16 bit samples row by row
+	 */
+	short[] quantise(final double[][] plane) {
+		return quantise(plane, DeconvolutionEngine.getBackground(plane));
+	}
+
+	/**
+	 * Quantise a plane with its edge median background subtracted and write
+	 * it as a 16 bit TIFF file
+	 * 
+	 * @param plane
+	 *        The image matrix, the rows are of the length of the first row
+	 * 
+	 * @param path
+	 *        The path of the file
+	 * 
+	 * @throws IOException
+	 *         If the file cannot be written
+	 */
+	void write(final double[][] plane, final String path) throws IOException {
+		final MIATIFFWriter mtw
+			= new MIATIFFWriter(quantise(plane), plane[0].length, plane.length);
+		mtw.write(0, path);
+	}
+}
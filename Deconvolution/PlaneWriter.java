@@ -0,0 +1,151 @@
+package miatool.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Asynchronous writer of the planes of an image series. The tasks that
+ * quantise and write the planes run in a pool of writer threads, so the
+ * files are written while the submitting threads go on with their
+ * computations. At most queueLength tasks are pending, a submission waits
+ * while the queue is full, so the planes held by the writer do not grow
+ * with the length of the series. The first failure of a task is thrown by
+ * the next submission and by {@link #close()}.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class PlaneWriter implements Closeable {
+
+	/** The number of planes waiting to be written by default */
+	static final int DEFAULT_QUEUE_LENGTH = 16;
+
+	/** Quantises and writes a plane in a writer thread */
+	@FunctionalInterface
+	interface PlaneTask {
+
+		/**
+		 * @throws IOException
+		 *         If the plane cannot be written
+		 */
+		void write() throws IOException;
+	}
+
+	/** The pool of the writer threads */
+	private final ExecutorService pool;
+
+	/** The free places of the queue */
+	private final Semaphore queue;
+
+	/** The number of places of the queue */
+	private final int queueLength;
+
+	/** The first failure of a task, null if there is none */
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param threads
+	 *        The number of writer threads
+	 * 
+	 * @param queueLength
+	 *        The maximum number of planes waiting to be written
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If a number is not positive
+	 */
+	PlaneWriter(final int threads, final int queueLength) {
+		if (threads < 1 || queueLength < 1)
+			throw new IllegalArgumentException(
+				"The numbers of threads and planes should be positive");
+
+		this.queueLength = queueLength;
+		queue = new Semaphore(queueLength);
+		pool = Executors.newFixedThreadPool(threads, runnable -> {
+			final Thread thread = new Thread(runnable, "PlaneWriter");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Submit a plane to be written, wait while the queue is full. It can be
+	 * called from several threads at once.
+	 * 
+	 * @param task
+	 *        Quantises and writes the plane
+	 * 
+	 * @throws IOException
+	 *         If a task failed before or the waiting is interrupted
+	 */
+	void submit(final PlaneTask task) throws IOException {
+		checkFailure();
+		acquire(1);
+
+		pool.execute(() -> {
+			try {
+				if (failure.get() == null)
+					task.write();
+			}
+			catch (final IOException | RuntimeException | Error e) {
+				failure.compareAndSet(null, e);
+			}
+			finally {
+				queue.release();
+			}
+		});
+	}
+
+	/**
+	 * Wait for all the planes to be written and stop the writer threads
+	 * 
+	 * @throws IOException
+	 *         If a task failed or the waiting is interrupted
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			acquire(queueLength);
+			queue.release(queueLength);
+		}
+		finally {
+			pool.shutdown();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Take places of the queue, wait until they are free
+	 * 
+	 * @throws InterruptedIOException
+	 *         If the waiting is interrupted
+	 */
+	private void acquire(final int places) throws InterruptedIOException {
+		try {
+			queue.acquire(places);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The writing is interrupted");
+		}
+	}
+
+	/**
+	 * Throw the first failure of a task, wrapped in a new exception each
+	 * time, as it can be thrown by a submission and by the closing
+	 * 
+	 * @throws IOException
+	 *         If a task failed
+	 */
+	private void checkFailure() throws IOException {
+		final Throwable cause = failure.get();
+		if (cause != null)
+			throw new IOException("A plane could not be written", cause);
+	}
+}
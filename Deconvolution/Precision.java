@@ -0,0 +1,18 @@
+package miatool.plugins;
+
+/**
+ * Define the floating point precision of the deconvolution
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public enum Precision {
+	/** Double precision volumes, spectra and FFTs */
+	DOUBLE,
+
+	/**
+	 * Single precision volumes, spectra and FFTs, with reductions
+	 * accumulated in double
+	 */
+	FLOAT
+}
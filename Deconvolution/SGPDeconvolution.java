@@ -0,0 +1,407 @@
+package miatool.plugins;
+
+
+/**
+ * Scaled gradient projection (SGP) engine of the Poisson deconvolution. It
+ * minimizes the I-divergence of the image from the reblurred estimate over
+ * the non-negative volumes. Each iteration projects a scaled gradient step
+ * onto the non-negative volumes, where the scaling is the estimate itself as
+ * in Richardson-Lucy, and searches along the direction to the projection
+ * with an Armijo backtracking. The step lengths alternate between the two
+ * scaled Barzilai-Borwein rules. The reblurred direction is computed once
+ * per iteration, so the line search takes no FFT and an iteration costs two
+ * FFT pairs like an RL iteration. The buffers are allocated once in the
+ * constructor and the spectrum of the PSF is shared and only read.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class SGPDeconvolution {
+
+	/** The bound of the scaling, it is kept within [1 / L, L] */
+	private static final double SCALING_BOUND = 1e10;
+
+	/** The lower bound of the step length */
+	private static final double ALPHA_MIN = 1e-5;
+
+	/** The upper bound of the step length */
+	private static final double ALPHA_MAX = 1e5;
+
+	/** The step length of the first iteration */
+	private static final double ALPHA_START = 1.3;
+
+	/** The number of the second BB step lengths the minimum is taken over */
+	private static final int ALPHA_MEMORY = 3;
+
+	/** The sufficient decrease parameter of the line search */
+	private static final double BETA = 1e-4;
+
+	/** The reduction of the line search step */
+	private static final double THETA = 0.4;
+
+	/** The maximum number of reductions of the line search step */
+	private static final int MAX_REDUCTIONS = 20;
+
+	/** The background */
+	private final double bg;
+
+	/** The substitute of zeros in the denominators */
+	private final double eps;
+
+	/** The Fourier transformed PSF */
+	private final Spectrum3D psfTrans;
+
+	/** The original value of the image matrix */
+	private final Volume3D rawImg;
+
+	/** The current estimate */
+	private final Volume3D imgIter;
+
+	/** The reblurred estimate without the background */
+	private final Volume3D reblurred;
+
+	/** The gradient of the I-divergence at the current estimate */
+	private final Volume3D gradient;
+
+	/** The direction from the estimate to the projected gradient step */
+	private final Volume3D direction;
+
+	/** The reblurred direction */
+	private final Volume3D reblurredDirection;
+
+	/** The buffer of the FFTs, its rows are padded for the in place FFT */
+	private final Volume3D fft;
+
+	/** The partial sums of each row, four per row */
+	private final double[] rowSums;
+
+	/** The last second BB step lengths */
+	private final double[] alphaHistory = new double[ALPHA_MEMORY];
+
+	/**
+	 * Constructor
+	 * 
+	 * @param img
+	 *        The image volume, it is not modified
+	 * 
+	 * @param otf
+	 *        The double precision optical transfer function of the
+	 *        normalized psf volume of the same size
+	 * 
+	 * @param bg
+	 *        The background
+	 * 
+	 * @param eps
+	 *        The substitute of zeros in the denominators
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volumes are of different sizes or the optical transfer
+	 *         function is in single precision
+	 */
+	SGPDeconvolution(
+			final Volume3D img,
+			final OpticalTransfer otf,
+			final double bg,
+			final double eps) {
+		if (!otf.isSameSize(img))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+
+		final int n = img.n;
+		final int h = img.h;
+		final int w = img.w;
+
+		this.bg = bg;
+		this.eps = eps;
+
+		psfTrans = otf.getSpectrum();
+
+		// the initial estimate is the image without the background
+		rawImg = new Volume3D(n, h, w);
+		imgIter = new Volume3D(n, h, w);
+		VolumeKernels.forRange(img.rows(), img.w, row -> {
+			final int offset = row * img.rowStride;
+			final int rOffset = row * rawImg.rowStride;
+
+			for (int x = 0; x < w; x++) {
+				final double value = img.data[offset + x];
+				rawImg.data[rOffset + x] = value >= 0 ? value : 0;
+				imgIter.data[rOffset + x] = value - bg >= 0 ? value - bg : 0;
+			}
+		});
+
+		reblurred = new Volume3D(n, h, w);
+		gradient = new Volume3D(n, h, w);
+		direction = new Volume3D(n, h, w);
+		reblurredDirection = new Volume3D(n, h, w);
+		fft = Volume3D.forFFT(n, h, w);
+		rowSums = new double[4 * img.rows()];
+	}
+
+	/**
+	 * Apply the iterations until a stopping rule is met, or until the
+	 * estimate is stationary
+	 * 
+	 * @param monitor
+	 *        The monitor of the stopping rules of the iterations
+	 * 
+	 * @return The deconvolved image volume
+	 */
+	Volume3D deconvolve(final StoppingRule.Monitor monitor) {
+		convolve(imgIter, reblurred);
+		double divergence = divergence(0);
+		updateGradient(0);
+
+		double alpha = ALPHA_START;
+		double tau = 0.5;
+		int alphaCount = 0;
+
+		boolean isDone = false;
+		while (!isDone) {
+			// the direction to the projected scaled gradient step
+			final double slope = makeDirection(alpha);
+			if (!(slope < 0)) {
+				// no descent is left, the estimate is stationary
+				monitor.next(0, divergence);
+				break;
+			}
+
+			// search along the direction with the reblurred direction
+			convolve(direction, reblurredDirection);
+			double lambda = 1;
+			double next = divergence(lambda);
+			for (int i = 0; i < MAX_REDUCTIONS
+				&& next > divergence + BETA * lambda * slope; i++) {
+				lambda *= THETA;
+				next = divergence(lambda);
+			}
+
+			// move the estimate, then take the gradient and the BB sums
+			final double change = move(lambda);
+			updateGradient(lambda);
+			isDone = monitor.next(change, divergence);
+			divergence = next;
+
+			// choose the next step length from the two BB rules
+			double sDinvDinvS = 0;
+			double sDinvZ = 0;
+			double sDZ = 0;
+			double zDDZ = 0;
+			for (int row = 0; row < rowSums.length; row += 4) {
+				sDinvDinvS += rowSums[row];
+				sDinvZ += rowSums[row + 1];
+				sDZ += rowSums[row + 2];
+				zDDZ += rowSums[row + 3];
+			}
+			final double alpha1 = sDinvZ > 0
+				? clamp(sDinvDinvS / sDinvZ)
+				: ALPHA_MAX;
+			final double alpha2 = sDZ > 0 && zDDZ > 0
+				? clamp(sDZ / zDDZ)
+				: ALPHA_MAX;
+
+			alphaHistory[alphaCount % ALPHA_MEMORY] = alpha2;
+			alphaCount++;
+			if (alpha2 / alpha1 <= tau) {
+				alpha = alpha2;
+				for (int i = 0; i < Math.min(alphaCount, ALPHA_MEMORY); i++)
+					alpha = Math.min(alpha, alphaHistory[i]);
+				tau *= 0.9;
+			}
+			else {
+				alpha = alpha1;
+				tau *= 1.1;
+			}
+		}
+
+		return imgIter;
+	}
+
+	/**
+	 * @return The step length within its bounds
+	 */
+	private static double clamp(final double alpha) {
+		return Math.min(Math.max(alpha, ALPHA_MIN), ALPHA_MAX);
+	}
+
+	/**
+	 * @return The scaling of an element of the estimate
+	 */
+	private static double scaling(final double value) {
+		return Math.min(Math.max(value, 1 / SCALING_BOUND), SCALING_BOUND);
+	}
+
+	/**
+	 * Reblur a volume with the PSF
+	 * 
+	 * @param input
+	 *        The volume, it is not modified
+	 * 
+	 * @param result
+	 *        The volume to store the reblurred volume
+	 */
+	private void convolve(final Volume3D input, final Volume3D result) {
+		final Spectrum3D trans = JTransforms3DUtil.rfft3D(
+			fft,
+			row -> System.arraycopy(
+				input.data,
+				row * input.rowStride,
+				fft.data,
+				row * fft.rowStride,
+				input.w));
+		Spectrum3D.multiplyI(trans, psfTrans);
+		JTransforms3DUtil.irfft3D(
+			trans,
+			row -> System.arraycopy(
+				fft.data,
+				row * fft.rowStride,
+				result.data,
+				row * result.rowStride,
+				result.w));
+	}
+
+	/**
+	 * Calculate the I-divergence of the image from the estimate moved along
+	 * the direction, as in the Richardson-Lucy iterations
+	 * 
+	 * @param lambda
+	 *        The step along the direction, 0 for the current estimate
+	 * 
+	 * @return The I-divergence
+	 */
+	private double divergence(final double lambda) {
+		VolumeKernels.forRange(rawImg.rows(), rawImg.w, row -> {
+			final int offset = row * rawImg.rowStride;
+
+			double sum = 0;
+			for (int x = offset; x < offset + rawImg.w; x++) {
+				final double raw = rawImg.data[x];
+				final double denor = reblurred.data[x]
+					+ lambda * reblurredDirection.data[x] + bg;
+				sum += denor;
+				if (raw > 0)
+					sum += raw * Math.log(raw / Math.max(denor, eps)) - raw;
+			}
+			rowSums[4 * row] = sum;
+		});
+
+		double result = 0;
+		for (int row = 0; row < rowSums.length; row += 4)
+			result += rowSums[row];
+		return result;
+	}
+
+	/**
+	 * Make the direction from the estimate to its projected scaled gradient
+	 * step
+	 * 
+	 * @param alpha
+	 *        The step length
+	 * 
+	 * @return The slope of the I-divergence along the direction
+	 */
+	private double makeDirection(final double alpha) {
+		VolumeKernels.forRange(imgIter.rows(), imgIter.w, row -> {
+			final int offset = row * imgIter.rowStride;
+
+			double slope = 0;
+			for (int x = offset; x < offset + imgIter.w; x++) {
+				final double value = imgIter.data[x];
+				final double step
+					= value - alpha * scaling(value) * gradient.data[x];
+				final double d = (step >= 0 ? step : 0) - value;
+				direction.data[x] = d;
+				slope += gradient.data[x] * d;
+			}
+			rowSums[4 * row] = slope;
+		});
+
+		double result = 0;
+		for (int row = 0; row < rowSums.length; row += 4)
+			result += rowSums[row];
+		return result;
+	}
+
+	/**
+	 * Move the estimate and the reblurred estimate along the direction
+	 * 
+	 * @param lambda
+	 *        The step along the direction
+	 * 
+	 * @return The relative change of the estimate
+	 */
+	private double move(final double lambda) {
+		VolumeKernels.forRange(imgIter.rows(), imgIter.w, row -> {
+			final int offset = row * imgIter.rowStride;
+
+			double change = 0;
+			double norm = 0;
+			for (int x = offset; x < offset + imgIter.w; x++) {
+				final double current = imgIter.data[x];
+				final double next = current + lambda * direction.data[x];
+				imgIter.data[x] = next >= 0 ? next : 0;
+				reblurred.data[x] += lambda * reblurredDirection.data[x];
+				change += (next - current) * (next - current);
+				norm += current * current;
+			}
+			rowSums[4 * row] = change;
+			rowSums[4 * row + 1] = norm;
+		});
+
+		double change = 0;
+		double norm = 0;
+		for (int row = 0; row < rowSums.length; row += 4) {
+			change += rowSums[row];
+			norm += rowSums[row + 1];
+		}
+		return norm > 0 ? Math.sqrt(change / norm) : 0;
+	}
+
+	/**
+	 * Update the gradient 1 - H^T (raw / (H x + bg)) of the I-divergence at
+	 * the current estimate, the reblurred rows are divided just before they
+	 * are transformed. With a positive step the sums of the two BB rules
+	 * between the last and the current estimates are stored in rowSums.
+	 * 
+	 * @param lambda
+	 *        The step along the direction of the last move, 0 if none
+	 */
+	private void updateGradient(final double lambda) {
+		final Spectrum3D trans = JTransforms3DUtil.rfft3D(fft, row -> {
+			final int offset = row * rawImg.rowStride;
+			final int fOffset = row * fft.rowStride;
+
+			for (int x = 0; x < rawImg.w; x++) {
+				final double denor = reblurred.data[offset + x] + bg;
+				fft.data[fOffset + x] = rawImg.data[offset + x]
+					/ (denor == 0 ? eps : denor);
+			}
+		});
+		Spectrum3D.multiplyConjI(trans, psfTrans);
+		JTransforms3DUtil.irfft3D(trans, row -> {
+			final int offset = row * gradient.rowStride;
+			final int fOffset = row * fft.rowStride;
+
+			double sDinvDinvS = 0;
+			double sDinvZ = 0;
+			double sDZ = 0;
+			double zDDZ = 0;
+			for (int x = 0; x < gradient.w; x++) {
+				final double next = 1 - fft.data[fOffset + x];
+				final double z = next - gradient.data[offset + x];
+				final double s = lambda * direction.data[offset + x];
+				final double d = scaling(imgIter.data[offset + x]);
+				gradient.data[offset + x] = next;
+
+				sDinvDinvS += s / d * s / d;
+				sDinvZ += s / d * z;
+				sDZ += s * d * z;
+				zDDZ += z * d * z * d;
+			}
+			rowSums[4 * row] = sDinvDinvS;
+			rowSums[4 * row + 1] = sDinvZ;
+			rowSums[4 * row + 2] = sDZ;
+			rowSums[4 * row + 3] = zDDZ;
+		});
+	}
+}
@@ -0,0 +1,299 @@
+package miatool.plugins;
+
+/**
+ * The half spectrum of a real 3D matrix of n x h x width. Only the columns 0
+ * to width / 2 of the last dimension are kept, the rest follows from the
+ * Hermitian symmetry. The complex numbers are stored interleaved, the real part
+ * of the element (z, y, k) is at 2 * ((z * h + y) * w + k) and the imaginary
+ * part follows it. The layout is the same as the padded rows of
+ * {@link Volume3D#forFFT(int, int, int)}, so a volume and its spectrum can
+ * share one array.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class Spectrum3D {
+
+	/** The number of planes */
+	public final int n;
+
+	/** The number of rows in a plane */
+	public final int h;
+
+	/** The number of complex columns in a row, width / 2 + 1 */
+	public final int w;
+
+	/** The number of columns of the real matrix */
+	public final int width;
+
+	/** The interleaved complex elements */
+	public final double[] data;
+
+	/**
+	 * Constructor of a spectrum filled with zeros
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param width
+	 *        The number of columns of the real matrix
+	 */
+	public Spectrum3D(final int n, final int h, final int width) {
+		this(
+			n,
+			h,
+			width,
+			new double[n * h * Volume3D.fftRowStride(width)]);
+	}
+
+	/**
+	 * Constructor of a spectrum on an existing array, the array is not copied
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param width
+	 *        The number of columns of the real matrix
+	 * 
+	 * @param data
+	 *        The array of the interleaved complex elements
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the array is too short for the spectrum
+	 */
+	public Spectrum3D(
+			final int n,
+			final int h,
+			final int width,
+			final double[] data) {
+		if (data.length < n * h * Volume3D.fftRowStride(width))
+			throw new IllegalArgumentException(
+				"The array is too short for the size of the spectrum");
+
+		this.n = n;
+		this.h = h;
+		this.w = width / 2 + 1;
+		this.width = width;
+		this.data = data;
+	}
+
+	/**
+	 * Make a spectrum whose real parts are the elements of a volume of the
+	 * size n x h x (width / 2 + 1) and imaginary parts are zero
+	 * 
+	 * @param real
+	 *        The real parts
+	 * 
+	 * @param width
+	 *        The number of columns of the real matrix
+	 * 
+	 * @return The spectrum
+	 */
+	public static Spectrum3D fromReal(final Volume3D real, final int width) {
+		final Spectrum3D result = new Spectrum3D(real.n, real.h, width);
+		if (real.w != result.w)
+			throw new IllegalArgumentException(
+				"The volume does not match the size of the spectrum");
+
+		VolumeKernels.forRange(result.rows(), result.w, row -> {
+			final int offset = row * real.rowStride;
+			final int cOffset = row * 2 * result.w;
+			for (int k = 0; k < result.w; k++)
+				result.data[cOffset + 2 * k] = real.data[offset + k];
+		});
+
+		return result;
+	}
+
+	/**
+	 * @return The index of the real part of the element (z, y, k)
+	 */
+	public int index(final int z, final int y, final int k) {
+		return 2 * ((z * h + y) * w + k);
+	}
+
+	/**
+	 * @return The number of rows in the spectrum
+	 */
+	public int rows() {
+		return n * h;
+	}
+
+	/**
+	 * @return The number of complex elements in the spectrum
+	 */
+	public int length() {
+		return n * h * w;
+	}
+
+	/**
+	 * @return True if the other spectrum has the same size
+	 */
+	public boolean isSameSize(final Spectrum3D other) {
+		return n == other.n && h == other.h && width == other.width;
+	}
+
+	/**
+	 * @return A copy of the spectrum
+	 */
+	public Spectrum3D copy() {
+		return new Spectrum3D(n, h, width, data.clone());
+	}
+
+	/**
+	 * @return The absolute values in a compact volume of the size n x h x w
+	 */
+	public Volume3D getAbs() {
+		final Volume3D result = new Volume3D(n, h, w);
+		final ElementKernels kernels = ElementKernels.get();
+
+		VolumeKernels.forChunks(length(), 1, (from, to) -> {
+			kernels.abs(data, result.data, from, to);
+		});
+
+		return result;
+	}
+
+	/**
+	 * @return The complex conjugate of the spectrum
+	 */
+	public Spectrum3D getConjugate() {
+		final Spectrum3D result = copy();
+		result.getConjugateI();
+		return result;
+	}
+
+	/**
+	 * Conjugate the spectrum in place
+	 */
+	public void getConjugateI() {
+		VolumeKernels.forChunks(length(), 1, (from, to) -> {
+			for (int i = from; i < to; i++)
+				data[2 * i + 1] = -data[2 * i + 1];
+		});
+	}
+
+	/**
+	 * @return The product of a and b
+	 */
+	public static Spectrum3D multiply(final Spectrum3D a, final Spectrum3D b) {
+		final Spectrum3D result = a.copy();
+		multiplyI(result, b);
+		return result;
+	}
+
+	/**
+	 * Multiply a with b in place
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the spectra are of different sizes
+	 */
+	public static void multiplyI(final Spectrum3D a, final Spectrum3D b) {
+		checkSameSize(a, b);
+		final ElementKernels kernels = ElementKernels.get();
+
+		VolumeKernels.forChunks(a.length(), 1, (from, to) -> {
+			kernels.multiply(a.data, b.data, from, to);
+		});
+	}
+
+	/**
+	 * Multiply a with the complex conjugate of b in place, the conjugate is
+	 * not stored
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the spectra are of different sizes
+	 */
+	public static void multiplyConjI(final Spectrum3D a, final Spectrum3D b) {
+		checkSameSize(a, b);
+		final ElementKernels kernels = ElementKernels.get();
+
+		VolumeKernels.forChunks(a.length(), 1, (from, to) -> {
+			kernels.multiplyConj(a.data, b.data, from, to);
+		});
+	}
+
+	/**
+	 * @return The sum of a and b
+	 */
+	public static Spectrum3D add(final Spectrum3D a, final Spectrum3D b) {
+		checkSameSize(a, b);
+		final Spectrum3D result = a.copy();
+
+		VolumeKernels.forChunks(2 * a.length(), 1, (from, to) -> {
+			for (int i = from; i < to; i++)
+				result.data[i] += b.data[i];
+		});
+
+		return result;
+	}
+
+	/**
+	 * @return The sum of a and a real value
+	 */
+	public static Spectrum3D add(final Spectrum3D a, final double b) {
+		final Spectrum3D result = a.copy();
+
+		VolumeKernels.forChunks(a.length(), 1, (from, to) -> {
+			for (int i = from; i < to; i++)
+				result.data[2 * i] += b;
+		});
+
+		return result;
+	}
+
+	/**
+	 * Divide a by a real value in place
+	 */
+	public static void divideI(final Spectrum3D a, final double b) {
+		VolumeKernels.forChunks(2 * a.length(), 1, (from, to) -> {
+			for (int i = from; i < to; i++)
+				a.data[i] /= b;
+		});
+	}
+
+	/**
+	 * Divide a by b in place
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the spectra are of different sizes
+	 */
+	public static void divideI(final Spectrum3D a, final Spectrum3D b) {
+		checkSameSize(a, b);
+		final ElementKernels kernels = ElementKernels.get();
+
+		VolumeKernels.forChunks(a.length(), 1, (from, to) -> {
+			kernels.divide(a.data, b.data, from, to);
+		});
+	}
+
+	/**
+	 * @return The element-wise power of a
+	 */
+	public static Spectrum3D power(final Spectrum3D a, final int p) {
+		final Spectrum3D result = new Spectrum3D(a.n, a.h, a.width);
+		final ElementKernels kernels = ElementKernels.get();
+
+		VolumeKernels.forChunks(a.length(), 1, (from, to) -> {
+			kernels.power(a.data, p, result.data, from, to);
+		});
+
+		return result;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *         If the spectra are of different sizes
+	 */
+	private static void checkSameSize(final Spectrum3D a, final Spectrum3D b) {
+		if (!a.isSameSize(b))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+	}
+}
@@ -0,0 +1,161 @@
+package miatool.plugins;
+
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * The stopping rules of the iterative deconvolution methods. The iterations
+ * stop at the maximum number of iterations, or earlier when the relative
+ * change of the estimate or the relative change of the I-divergence falls
+ * below its tolerance, or when the time budget is spent. A tolerance or a
+ * budget that is not positive is not used.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class StoppingRule {
+
+	/** The maximum number of iterations */
+	final int maxIterations;
+
+	/** The tolerance of the relative change of the estimate */
+	final double relativeChange;
+
+	/** The tolerance of the relative change of the I-divergence */
+	final double divergenceChange;
+
+	/** The time budget of the iterations of a volume in milliseconds */
+	final long maxMillis;
+
+	/**
+	 * Constructor of a fixed number of iterations
+	 * 
+	 * @param maxIterations
+	 *        The number of iterations
+	 */
+	StoppingRule(final int maxIterations) {
+		this(maxIterations, 0, 0, 0);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maxIterations
+	 *        The maximum number of iterations
+	 * 
+	 * @param relativeChange
+	 *        The tolerance of the relative change of the estimate
+	 * 
+	 * @param divergenceChange
+	 *        The tolerance of the relative change of the I-divergence
+	 * 
+	 * @param maxMillis
+	 *        The time budget of the iterations of a volume in milliseconds
+	 */
+	StoppingRule(
+			final int maxIterations,
+			final double relativeChange,
+			final double divergenceChange,
+			final long maxMillis) {
+		this.maxIterations = maxIterations;
+		this.relativeChange = relativeChange;
+		this.divergenceChange = divergenceChange;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * Start to monitor the iterations of a volume
+	 * 
+	 * @param listener
+	 *        Receives the metrics of each iteration, null if not used
+	 * 
+	 * @param progress
+	 *        Receives the fraction of the maximum number of iterations done
+	 * 
+	 * @return The monitor of the iterations
+	 */
+	Monitor start(
+			final Consumer<IterationMetrics> listener,
+			final DoubleConsumer progress) {
+		return new Monitor(listener, progress);
+	}
+
+	/** Applies the stopping rules to the iterations of one volume */
+	final class Monitor {
+
+		/** Receives the metrics of each iteration, null if not used */
+		private final Consumer<IterationMetrics> listener;
+
+		/** Receives the fraction of the maximum number of iterations done */
+		private final DoubleConsumer progress;
+
+		/** The time of the start of the iterations in nanoseconds */
+		private final long start = System.nanoTime();
+
+		/** The metrics of the last iteration, null before the first */
+		private IterationMetrics previous = null;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param listener
+		 *        Receives the metrics of each iteration, null if not used
+		 * 
+		 * @param progress
+		 *        Receives the fraction of the maximum number of iterations
+		 */
+		private Monitor(
+				final Consumer<IterationMetrics> listener,
+				final DoubleConsumer progress) {
+			this.listener = listener;
+			this.progress = progress;
+		}
+
+		/**
+		 * @return The maximum number of iterations
+		 */
+		int getMaxIterations() {
+			return maxIterations;
+		}
+
+		/**
+		 * @return True if the iterations should compute the metrics
+		 */
+		boolean isMetricsNeeded() {
+			return listener != null || relativeChange > 0
+				|| divergenceChange > 0;
+		}
+
+		/**
+		 * Record an iteration and apply the stopping rules
+		 * 
+		 * @param change
+		 *        The relative change of the estimate, NaN if not computed
+		 * 
+		 * @param divergence
+		 *        The I-divergence before the iteration, NaN if not computed
+		 * 
+		 * @return True if the iterations should stop
+		 */
+		boolean next(final double change, final double divergence) {
+			final int iteration = previous == null ? 1 : previous.iteration + 1;
+			final long elapsed = (System.nanoTime() - start) / 1000000;
+			final IterationMetrics metrics
+				= new IterationMetrics(iteration, change, divergence, elapsed);
+
+			if (listener != null)
+				listener.accept(metrics);
+			progress.accept((double) iteration / maxIterations);
+
+			final boolean isDone = iteration >= maxIterations
+				|| relativeChange > 0 && change < relativeChange
+				|| divergenceChange > 0 && previous != null
+					&& Math.abs(previous.divergence - divergence)
+						< divergenceChange * Math.abs(previous.divergence)
+				|| maxMillis > 0 && elapsed >= maxMillis;
+
+			previous = metrics;
+			return isDone;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package miatool.plugins;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writer of a multi-page 16 bit grey TIFF file, one plane per page. The
+ * planes can be added in any order from several threads, a plane is copied
+ * and kept until the planes before it are written, so the pages are in the
+ * order of the planes and the samples of a plane can be reused once it is
+ * added. The pages are uncompressed and the file is a classic TIFF,
+ * so it is limited to 4 GB.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class TiffStackWriter implements Closeable {
+
+	/** The number of entries of an image file directory */
+	private static final int ENTRIES = 10;
+
+	/** The number of bytes of an image file directory */
+	private static final int IFD_BYTES = 2 + ENTRIES * 12 + 4;
+
+	/** The largest offset of a classic TIFF file */
+	private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+	/** The file */
+	private final FileChannel channel;
+
+	/** The planes waiting for the planes before them, by their indices */
+	private final Map<Integer, Page> waiting = new HashMap<>();
+
+	/** The index of the next page to write */
+	private int next = 0;
+
+	/** The position of the offset of the next image file directory */
+	private long nextIFDOffset = 4;
+
+	/** A quantised plane */
+	private static final class Page {
+
+		final short[] data;
+
+		final int width;
+
+		final int height;
+
+		Page(final short[] data, final int width, final int height) {
+			this.data = data;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * Constructor, the file is replaced if it exists
+	 * 
+	 * @param file
+	 * 
+	 * @throws IOException
+	 *         If the file cannot be created
+	 */
+	TiffStackWriter(final File file) throws IOException {
+		channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.WRITE);
+
+		// the little-endian header, the first offset is set with the page
+		final ByteBuffer header = buffer(8);
+		header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(0);
+		write(header, 0);
+	}
+
+	/**
+	 * Add a plane, it is written when the planes before it are written
+	 * 
+	 * @param index
+	 *        The index of the plane, from 0
+	 * 
+	 * @param data
+	 *        The samples of the plane row by row
+	 * 
+	 * @param width
+	 * 
+	 * @param height
+	 * 
+	 * @throws IOException
+	 *         If a page cannot be written
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the plane is added already or the size is wrong
+	 */
+	synchronized void writePlane(
+			final int index,
+			final short[] data,
+			final int width,
+			final int height)
+			throws IOException {
+		if (index < next || waiting.containsKey(index))
+			throw new IllegalArgumentException(
+				"The plane " + index + " is added already");
+		if (data.length != width * height)
+			throw new IllegalArgumentException(
+				"The samples do not match the size of the plane");
+
+		// the next plane is written at once, a later plane waits for it
+		waiting.put(
+			index,
+			new Page(index == next ? data : data.clone(), width, height));
+		for (Page page = waiting.remove(next); page != null;
+			page = waiting.remove(next)) {
+			writePage(page);
+			next++;
+		}
+	}
+
+	/**
+	 * Close the file
+	 * 
+	 * @throws IOException
+	 *         If a plane before an added plane is missing
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+		if (!waiting.isEmpty())
+			throw new IOException("The plane " + next + " is missing");
+	}
+
+	/**
+	 * Write the samples of a page and its image file directory at the end of
+	 * the file, and link the directory from the previous one
+	 */
+	private void writePage(final Page page) throws IOException {
+		final long dataOffset = channel.size();
+		final long dataBytes = 2L * page.data.length;
+		final long ifdOffset = dataOffset + dataBytes;
+		if (ifdOffset + IFD_BYTES > MAX_OFFSET)
+			throw new IOException("The TIFF file would be larger than 4 GB");
+
+		final ByteBuffer samples = buffer((int) dataBytes);
+		samples.asShortBuffer().put(page.data);
+		samples.position(samples.capacity());
+		write(samples, dataOffset);
+
+		final ByteBuffer ifd = buffer(IFD_BYTES);
+		ifd.putShort((short) ENTRIES);
+		entry(ifd, 256, 4, page.width);
+		entry(ifd, 257, 4, page.height);
+		entry(ifd, 258, 3, 16);
+		entry(ifd, 259, 3, 1);
+		entry(ifd, 262, 3, 1);
+		entry(ifd, 273, 4, dataOffset);
+		entry(ifd, 277, 3, 1);
+		entry(ifd, 278, 4, page.height);
+		entry(ifd, 279, 4, dataBytes);
+		entry(ifd, 284, 3, 1);
+		ifd.putInt(0);
+		write(ifd, ifdOffset);
+
+		final ByteBuffer link = buffer(4);
+		link.putInt((int) ifdOffset);
+		write(link, nextIFDOffset);
+		nextIFDOffset = ifdOffset + IFD_BYTES - 4;
+	}
+
+	/**
+	 * Put an entry of one value into an image file directory
+	 * 
+	 * @param type
+	 *        3 for a SHORT value, 4 for a LONG value
+	 */
+	private static void entry(
+			final ByteBuffer ifd,
+			final int tag,
+			final int type,
+			final long value) {
+		ifd.putShort((short) tag).putShort((short) type).putInt(1);
+		if (type == 3)
+			ifd.putShort((short) value).putShort((short) 0);
+		else
+			ifd.putInt((int) value);
+	}
+
+	/**
+	 * @return A little-endian buffer of a size
+	 */
+	private static ByteBuffer buffer(final int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Write a whole buffer at a position of the file
+	 */
+	private void write(final ByteBuffer buffer, final long position)
+			throws IOException {
+		buffer.flip();
+		long at = position;
+		while (buffer.hasRemaining())
+			at += channel.write(buffer, at);
+	}
+}
@@ -0,0 +1,297 @@
+package miatool.plugins;
+
+import java.util.function.UnaryOperator;
+import miatool.modules.parallel.ComputeScheduler;
+
+/**
+ * Overlap-save tiling of a deconvolution. The volume is split into a grid of
+ * tiles, each tile is extended by a margin of the size of the PSF on every
+ * side where it has a neighbour, and the extended blocks are deconvolved
+ * independently and in parallel. The results are stitched with linear
+ * feathering across the seams. The feathering weights of the tiles sum to one
+ * everywhere, so the blocks are added directly into the result and the peak
+ * memory is bounded by the size of the blocks in flight instead of the size of
+ * the volume.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class TiledDeconvolution {
+
+	/** The number of planes of a tile, not split along z if not positive */
+	public final int tileN;
+
+	/** The number of rows of a tile, not split along y if not positive */
+	public final int tileH;
+
+	/** The number of columns of a tile, not split along x if not positive */
+	public final int tileW;
+
+	/** The margin along z */
+	public final int marginN;
+
+	/** The margin along y */
+	public final int marginH;
+
+	/** The margin along x */
+	public final int marginW;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param tileN
+	 *        The number of planes of a tile, the volume is not split along z
+	 *        if it is not positive
+	 * 
+	 * @param tileH
+	 *        The number of rows of a tile, the volume is not split along y if
+	 *        it is not positive
+	 * 
+	 * @param tileW
+	 *        The number of columns of a tile, the volume is not split along x
+	 *        if it is not positive
+	 * 
+	 * @param psfN
+	 *        The number of planes of the psf
+	 * 
+	 * @param psfH
+	 *        The number of rows of the psf
+	 * 
+	 * @param psfW
+	 *        The number of columns of the psf
+	 */
+	public TiledDeconvolution(
+			final int tileN,
+			final int tileH,
+			final int tileW,
+			final int psfN,
+			final int psfH,
+			final int psfW) {
+		this.tileN = tileN;
+		this.tileH = tileH;
+		this.tileW = tileW;
+		marginN = psfN;
+		marginH = psfH;
+		marginW = psfW;
+	}
+
+	/**
+	 * Deconvolve a volume tile by tile
+	 * 
+	 * @param img
+	 *        The image volume
+	 * 
+	 * @param blockDeconvolution
+	 *        Deconvolves an extended block and returns a volume of the same
+	 *        size, it is called from several threads at once
+	 * 
+	 * @return The stitched deconvolved volume
+	 */
+	public Volume3D deconvolve(
+			final Volume3D img,
+			final UnaryOperator<Volume3D> blockDeconvolution) {
+		final Volume3D result = new Volume3D(img.n, img.h, img.w);
+		deconvolve(img, result, blockDeconvolution);
+		return result;
+	}
+
+	/**
+	 * Deconvolve a volume tile by tile, the blocks are read from and the
+	 * results are added to stores, which can be mapped files, so only the
+	 * blocks in flight are kept in memory
+	 * 
+	 * @param img
+	 *        The image volume
+	 * 
+	 * @param result
+	 *        The volume of the same size filled with zeros, to store the
+	 *        stitched deconvolved volume
+	 * 
+	 * @param blockDeconvolution
+	 *        Deconvolves an extended block and returns a volume of the same
+	 *        size, it is called from several threads at once
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volumes are of different sizes
+	 */
+	public void deconvolve(
+			final VolumeStore img,
+			final VolumeStore result,
+			final UnaryOperator<Volume3D> blockDeconvolution) {
+		if (img.getN() != result.getN()
+			|| img.getH() != result.getH()
+			|| img.getW() != result.getW())
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+
+		final Axis axisZ = new Axis(img.getN(), tileN, marginN);
+		final Axis axisY = new Axis(img.getH(), tileH, marginH);
+		final Axis axisX = new Axis(img.getW(), tileW, marginW);
+		final int tiles = axisZ.count * axisY.count * axisX.count;
+
+		// the blocks of neighbouring tiles overlap, lock a plane at a time
+		final Object[] planeLocks = new Object[img.getN()];
+		for (int z = 0; z < planeLocks.length; z++)
+			planeLocks[z] = new Object();
+
+		ComputeScheduler.getShared().forRange(0, tiles, tile -> {
+			final int tz = tile / (axisY.count * axisX.count);
+			final int ty = tile / axisX.count % axisY.count;
+			final int tx = tile % axisX.count;
+
+			final int z0 = axisZ.blockStart(tz);
+			final int y0 = axisY.blockStart(ty);
+			final int x0 = axisX.blockStart(tx);
+			final Volume3D block = new Volume3D(
+				axisZ.blockEnd(tz) - z0,
+				axisY.blockEnd(ty) - y0,
+				axisX.blockEnd(tx) - x0);
+
+			for (int z = 0; z < block.n; z++)
+				for (int y = 0; y < block.h; y++)
+					img.readRow(
+						z + z0,
+						y + y0,
+						x0,
+						block.data,
+						block.index(z, y, 0),
+						block.w);
+
+			final Volume3D deconv = blockDeconvolution.apply(block);
+
+			// add the feathered block to the result
+			final double[] weightX = axisX.weights(tx);
+			final double[] weightY = axisY.weights(ty);
+			final double[] weightZ = axisZ.weights(tz);
+			final double[] row = new double[block.w];
+
+			for (int z = 0; z < block.n; z++) {
+				if (weightZ[z] == 0)
+					continue;
+
+				synchronized (planeLocks[z + z0]) {
+					for (int y = 0; y < block.h; y++) {
+						final double wzy = weightZ[z] * weightY[y];
+						if (wzy == 0)
+							continue;
+
+						final int offset = deconv.index(z, y, 0);
+						result.readRow(z + z0, y + y0, x0, row, 0, row.length);
+						for (int x = 0; x < block.w; x++)
+							row[x]
+								+= wzy * weightX[x] * deconv.data[offset + x];
+						result.writeRow(z + z0, y + y0, x0, row, 0, row.length);
+					}
+				}
+			}
+		});
+	}
+
+	/** The tiles along one dimension of the volume */
+	private static final class Axis {
+
+		/** The length of the dimension */
+		final int length;
+
+		/** The length of a tile */
+		final int tile;
+
+		/** The margin of a block on each side of its tile */
+		final int margin;
+
+		/** The number of tiles */
+		final int count;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param length
+		 *        The length of the dimension
+		 * 
+		 * @param tile
+		 *        The length of a tile, the dimension is not split if it is
+		 *        not positive, a tile is at least as long as the margin so the
+		 *        feathering bands of its two seams do not overlap
+		 * 
+		 * @param margin
+		 *        The margin of a block on each side of its tile
+		 */
+		Axis(final int length, final int tile, final int margin) {
+			this.length = length;
+			this.tile = tile > 0 && tile < length
+				? Math.min(Math.max(tile, margin), length)
+				: length;
+			this.margin = margin;
+			count = (length + this.tile - 1) / this.tile;
+		}
+
+		/**
+		 * @return The first index of the tile t
+		 */
+		int tileStart(final int t) {
+			return t * tile;
+		}
+
+		/**
+		 * @return The index after the last index of the tile t
+		 */
+		int tileEnd(final int t) {
+			return Math.min((t + 1) * tile, length);
+		}
+
+		/**
+		 * @return The first index of the block of the tile t
+		 */
+		int blockStart(final int t) {
+			return Math.max(tileStart(t) - margin, 0);
+		}
+
+		/**
+		 * @return The index after the last index of the block of the tile t
+		 */
+		int blockEnd(final int t) {
+			return Math.min(tileEnd(t) + margin, length);
+		}
+
+		/**
+		 * The feathering weights along the block of the tile t. The weight is
+		 * one inside the tile away from the seams, and falls linearly to zero
+		 * across a band of the width of the margin centred on each seam with
+		 * a neighbouring tile, where the weight of the neighbour rises. The
+		 * outer half of the margin is not used, since it is the part of the
+		 * block most affected by the borders of the block.
+		 * 
+		 * @param t
+		 *        The index of the tile
+		 * 
+		 * @return The weights of the elements of the block
+		 */
+		double[] weights(final int t) {
+			final int start = blockStart(t);
+			final double[] result = new double[blockEnd(t) - start];
+			final double band = Math.max(margin, 1);
+
+			for (int i = 0; i < result.length; i++) {
+				final double p = start + i + 0.5;
+				double weight = 1;
+
+				if (t > 0)
+					weight = Math.min(weight, ramp(p - tileStart(t), band));
+				if (t < count - 1)
+					weight = Math.min(weight, ramp(tileEnd(t) - p, band));
+
+				result[i] = weight;
+			}
+
+			return result;
+		}
+
+		/**
+		 * @return The weight at the distance d inside a seam, rising from 0 at
+		 *         -band / 2 to 1 at band / 2
+		 */
+		private static double ramp(final double d, final double band) {
+			return Math.max(0, Math.min(1, d / band + 0.5));
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package miatool.plugins;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The element-wise kernels in the SIMD vectors of the processor. The complex
+ * products and quotients work on the interleaved elements as they are, the
+ * real and imaginary parts of b are broadcast in their pairs of lanes and
+ * the pairs of a are swapped, so the results are the same as the results of
+ * the scalar kernels. The absolute values and the powers gather the real and
+ * imaginary parts into separate vectors. The elements after the last whole
+ * vector are left to the scalar kernels. It needs the module
+ * jdk.incubator.vector, --add-modules jdk.incubator.vector when it is
+ * compiled and run, and it is only loaded by its name through
+ * {@link ElementKernels}.
+ *
+ * @version 0.1
+ * @since 0.5
+ */
+final class VectorElementKernels implements ElementKernels {
+
+	/** The vectors of the processor */
+	private static final VectorSpecies<Double> SPECIES
+		= DoubleVector.SPECIES_PREFERRED;
+
+	/** The number of lanes of a vector */
+	private static final int LANES = SPECIES.length();
+
+	/** The number of complex elements of a vector */
+	private static final int PAIRS = LANES / 2;
+
+	/** Swaps the real and imaginary parts of the pairs */
+	private static final VectorShuffle<Double> SWAP
+		= VectorShuffle.fromOp(SPECIES, i -> i ^ 1);
+
+	/** Broadcasts the real parts in their pairs */
+	private static final VectorShuffle<Double> REAL
+		= VectorShuffle.fromOp(SPECIES, i -> i & ~1);
+
+	/** Broadcasts the imaginary parts in their pairs */
+	private static final VectorShuffle<Double> IMAG
+		= VectorShuffle.fromOp(SPECIES, i -> i | 1);
+
+	/** -1 for the real parts and 1 for the imaginary parts */
+	private static final DoubleVector SIGN = DoubleVector.fromArray(
+		SPECIES,
+		signs(-1),
+		0);
+
+	/** 1 for the real parts and -1 for the imaginary parts */
+	private static final DoubleVector CONJ_SIGN = DoubleVector.fromArray(
+		SPECIES,
+		signs(1),
+		0);
+
+	/** The offsets of the real parts of LANES complex elements */
+	private static final int[] REAL_INDEX = parts(0);
+
+	/** The offsets of the imaginary parts of LANES complex elements */
+	private static final int[] IMAG_INDEX = parts(1);
+
+	/**
+	 * Constructor
+	 *
+	 * @throws UnsupportedOperationException
+	 *         If the vectors of the processor are shorter than 256 bits,
+	 *         the scalar kernels are as fast then
+	 */
+	VectorElementKernels() {
+		if (LANES < 4)
+			throw new UnsupportedOperationException(
+				"The vectors of the processor are too short");
+	}
+
+	@Override
+	public void multiply(
+			final double[] a,
+			final double[] b,
+			final int from,
+			final int to) {
+		final int bound = from + (to - from) / PAIRS * PAIRS;
+		for (int i = 2 * from; i < 2 * bound; i += LANES) {
+			final DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+			final DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+			va.mul(vb.rearrange(REAL))
+				.add(va.rearrange(SWAP).mul(vb.rearrange(IMAG)).mul(SIGN))
+				.intoArray(a, i);
+		}
+		SCALAR.multiply(a, b, bound, to);
+	}
+
+	@Override
+	public void multiplyConj(
+			final double[] a,
+			final double[] b,
+			final int from,
+			final int to) {
+		final int bound = from + (to - from) / PAIRS * PAIRS;
+		for (int i = 2 * from; i < 2 * bound; i += LANES) {
+			final DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+			final DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+			va.mul(vb.rearrange(REAL))
+				.add(va.rearrange(SWAP).mul(vb.rearrange(IMAG)).mul(CONJ_SIGN))
+				.intoArray(a, i);
+		}
+		SCALAR.multiplyConj(a, b, bound, to);
+	}
+
+	@Override
+	public void divide(
+			final double[] a,
+			final double[] b,
+			final int from,
+			final int to) {
+		final int bound = from + (to - from) / PAIRS * PAIRS;
+		for (int i = 2 * from; i < 2 * bound; i += LANES) {
+			final DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+			final DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+			final DoubleVector squares = vb.mul(vb);
+			final DoubleVector denor = squares.add(squares.rearrange(SWAP));
+			va.mul(vb.rearrange(REAL))
+				.add(va.rearrange(SWAP).mul(vb.rearrange(IMAG)).mul(CONJ_SIGN))
+				.div(denor)
+				.intoArray(a, i);
+		}
+		SCALAR.divide(a, b, bound, to);
+	}
+
+	@Override
+	public void abs(
+			final double[] a,
+			final double[] result,
+			final int from,
+			final int to) {
+		final int bound = from + (to - from) / LANES * LANES;
+		for (int i = from; i < bound; i += LANES) {
+			final DoubleVector re
+				= DoubleVector.fromArray(SPECIES, a, 2 * i, REAL_INDEX, 0);
+			final DoubleVector im
+				= DoubleVector.fromArray(SPECIES, a, 2 * i, IMAG_INDEX, 0);
+			re.mul(re).add(im.mul(im)).sqrt().intoArray(result, i);
+		}
+		SCALAR.abs(a, result, bound, to);
+	}
+
+	@Override
+	public void power(
+			final double[] a,
+			final int p,
+			final double[] result,
+			final int from,
+			final int to) {
+		final int bound = from + (to - from) / LANES * LANES;
+		for (int i = from; i < bound; i += LANES) {
+			final DoubleVector re
+				= DoubleVector.fromArray(SPECIES, a, 2 * i, REAL_INDEX, 0);
+			final DoubleVector im
+				= DoubleVector.fromArray(SPECIES, a, 2 * i, IMAG_INDEX, 0);
+			final DoubleVector abs = re.mul(re)
+				.add(im.mul(im))
+				.sqrt()
+				.lanewise(VectorOperators.POW, p);
+			final DoubleVector arg
+				= im.lanewise(VectorOperators.ATAN2, re).mul(p);
+			abs.mul(arg.lanewise(VectorOperators.COS))
+				.intoArray(result, 2 * i, REAL_INDEX, 0);
+			abs.mul(arg.lanewise(VectorOperators.SIN))
+				.intoArray(result, 2 * i, IMAG_INDEX, 0);
+		}
+		SCALAR.power(a, p, result, bound, to);
+	}
+
+	@Override
+	public void ratio(
+			final double[] num,
+			final int numOffset,
+			final double[] den,
+			final int denOffset,
+			final int length,
+			final double shift,
+			final double eps) {
+		final int bound = SPECIES.loopBound(length);
+		for (int x = 0; x < bound; x += LANES) {
+			final DoubleVector denor = DoubleVector
+				.fromArray(SPECIES, den, denOffset + x)
+				.add(shift);
+			final VectorMask<Double> zero = denor.eq(0);
+			DoubleVector.fromArray(SPECIES, num, numOffset + x)
+				.div(denor.blend(eps, zero))
+				.intoArray(den, denOffset + x);
+		}
+		SCALAR.ratio(
+			num,
+			numOffset + bound,
+			den,
+			denOffset + bound,
+			length - bound,
+			shift,
+			eps);
+	}
+
+	@Override
+	public void multiplyPositive(
+			final double[] x,
+			final int offset,
+			final double[] factor,
+			final int fOffset,
+			final int length) {
+		final int bound = SPECIES.loopBound(length);
+		for (int i = 0; i < bound; i += LANES) {
+			final DoubleVector value = DoubleVector
+				.fromArray(SPECIES, x, offset + i)
+				.mul(DoubleVector.fromArray(SPECIES, factor, fOffset + i));
+			value.blend(0, value.lt(0)).intoArray(x, offset + i);
+		}
+		SCALAR.multiplyPositive(
+			x,
+			offset + bound,
+			factor,
+			fOffset + bound,
+			length - bound);
+	}
+
+	/**
+	 * @return The signs of the lanes, the real parts have the sign of re
+	 */
+	private static double[] signs(final double re) {
+		final double[] result = new double[LANES];
+		for (int i = 0; i < LANES; i++)
+			result[i] = i % 2 == 0 ? re : -re;
+		return result;
+	}
+
+	/**
+	 * @return The offsets of a part of LANES interleaved complex elements
+	 */
+	private static int[] parts(final int part) {
+		final int[] result = new int[LANES];
+		for (int i = 0; i < LANES; i++)
+			result[i] = 2 * i + part;
+		return result;
+	}
+}
@@ -0,0 +1,401 @@
+package miatool.plugins;
+
+/**
+ * A real 3D matrix of n planes of h rows and w columns stored in one
+ * contiguous array. The element (z, y, x) is at (z * h + y) * rowStride + x.
+ * The row stride is w for a compact volume. A volume made by
+ * {@link #forFFT(int, int, int)} has rows padded to 2 * (w / 2 + 1) elements,
+ * so the half spectrum of the volume fits in the same array and the FFT can be
+ * applied in place. The padding elements are not part of the volume and their
+ * values are unspecified.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class Volume3D implements VolumeStore {
+
+	/** The number of planes */
+	public final int n;
+
+	/** The number of rows in a plane */
+	public final int h;
+
+	/** The number of columns in a row */
+	public final int w;
+
+	/** The distance between the starts of two neighbouring rows */
+	public final int rowStride;
+
+	/** The elements of the volume */
+	public final double[] data;
+
+	/**
+	 * Constructor of a compact volume filled with zeros
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 */
+	public Volume3D(final int n, final int h, final int w) {
+		this(n, h, w, w);
+	}
+
+	/**
+	 * Constructor of a volume filled with zeros
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @param rowStride
+	 *        The distance between the starts of two neighbouring rows
+	 */
+	public Volume3D(
+			final int n,
+			final int h,
+			final int w,
+			final int rowStride) {
+		this(n, h, w, rowStride, new double[checkSize(n, h, w, rowStride)]);
+	}
+
+	/**
+	 * Constructor of a volume on an existing array, the array is not copied
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @param rowStride
+	 *        The distance between the starts of two neighbouring rows
+	 * 
+	 * @param data
+	 *        The array of the elements
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the array is too short for the volume
+	 */
+	public Volume3D(
+			final int n,
+			final int h,
+			final int w,
+			final int rowStride,
+			final double[] data) {
+		if (data.length < checkSize(n, h, w, rowStride))
+			throw new IllegalArgumentException(
+				"The array is too short for the size of the volume");
+
+		this.n = n;
+		this.h = h;
+		this.w = w;
+		this.rowStride = rowStride;
+		this.data = data;
+	}
+
+	/**
+	 * Make a volume whose rows are padded for the in place real FFT
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @return A volume filled with zeros
+	 */
+	public static Volume3D forFFT(final int n, final int h, final int w) {
+		return new Volume3D(n, h, w, fftRowStride(w));
+	}
+
+	/**
+	 * The row stride of a volume for the in place real FFT
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @return The number of elements of a padded row
+	 */
+	public static int fftRowStride(final int w) {
+		return 2 * (w / 2 + 1);
+	}
+
+	/**
+	 * Copy a jagged 3D matrix into a compact volume of the size n x h x w. The
+	 * planes and rows of the matrix are put to the start of the volume and the
+	 * rest of the volume is filled with zeros.
+	 * 
+	 * @param input
+	 *        The jagged 3D matrix, not larger than the volume
+	 * 
+	 * @param n
+	 *        The number of planes
+	 * 
+	 * @param h
+	 *        The number of rows in a plane
+	 * 
+	 * @param w
+	 *        The number of columns in a row
+	 * 
+	 * @return The volume
+	 */
+	public static Volume3D fromMatrix(
+			final double[][][] input,
+			final int n,
+			final int h,
+			final int w) {
+		final Volume3D result = new Volume3D(n, h, w);
+
+		VolumeKernels.forRange(input.length, h * w, z -> {
+			for (int y = 0; y < input[z].length; y++)
+				System.arraycopy(
+					input[z][y],
+					0,
+					result.data,
+					result.index(z, y, 0),
+					input[z][y].length);
+		});
+
+		return result;
+	}
+
+	/**
+	 * Copy a rectangular 3D matrix into a compact volume of the same size
+	 * 
+	 * @param input
+	 *        The 3D matrix
+	 * 
+	 * @return The volume
+	 */
+	public static Volume3D fromMatrix(final double[][][] input) {
+		return fromMatrix(
+			input,
+			input.length,
+			input[0].length,
+			input[0][0].length);
+	}
+
+	/**
+	 * @return A 3D matrix of the size n x h x w with a copy of the elements
+	 */
+	public double[][][] toMatrix() {
+		final double[][][] result = new double[n][h][w];
+
+		VolumeKernels.forRange(n, h * w, z -> {
+			for (int y = 0; y < h; y++)
+				System.arraycopy(data, index(z, y, 0), result[z][y], 0, w);
+		});
+
+		return result;
+	}
+
+	@Override
+	public int getN() {
+		return n;
+	}
+
+	@Override
+	public int getH() {
+		return h;
+	}
+
+	@Override
+	public int getW() {
+		return w;
+	}
+
+	@Override
+	public void readRow(
+			final int z,
+			final int y,
+			final int x,
+			final double[] dst,
+			final int offset,
+			final int length) {
+		System.arraycopy(data, index(z, y, x), dst, offset, length);
+	}
+
+	@Override
+	public void writeRow(
+			final int z,
+			final int y,
+			final int x,
+			final double[] src,
+			final int offset,
+			final int length) {
+		System.arraycopy(src, offset, data, index(z, y, x), length);
+	}
+
+	/**
+	 * @return The index of the element (z, y, x) in the array
+	 */
+	public int index(final int z, final int y, final int x) {
+		return (z * h + y) * rowStride + x;
+	}
+
+	/**
+	 * @return The element (z, y, x)
+	 */
+	public double get(final int z, final int y, final int x) {
+		return data[index(z, y, x)];
+	}
+
+	/**
+	 * Set the element (z, y, x)
+	 */
+	public void set(final int z, final int y, final int x, final double v) {
+		data[index(z, y, x)] = v;
+	}
+
+	/**
+	 * @return The number of rows in the volume
+	 */
+	public int rows() {
+		return n * h;
+	}
+
+	/**
+	 * @return The number of elements in the volume, not counting padding
+	 */
+	public long size() {
+		return (long) n * h * w;
+	}
+
+	/**
+	 * @return True if the rows are padded for the in place real FFT
+	 */
+	public boolean isFFTLayout() {
+		return rowStride == fftRowStride(w);
+	}
+
+	/**
+	 * @return True if the other volume has the same n, h and w
+	 */
+	public boolean isSameSize(final Volume3D other) {
+		return n == other.n && h == other.h && w == other.w;
+	}
+
+	/**
+	 * @return A copy of the volume with the same row stride
+	 */
+	public Volume3D copy() {
+		return new Volume3D(n, h, w, rowStride, data.clone());
+	}
+
+	/**
+	 * Copy the elements of another volume of the same size, the row strides
+	 * can be different
+	 * 
+	 * @param src
+	 *        The source volume
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volumes are of different sizes
+	 */
+	public void copyFrom(final Volume3D src) {
+		if (!isSameSize(src))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+
+		if (rowStride == src.rowStride) {
+			System.arraycopy(src.data, 0, data, 0, rows() * rowStride);
+			return;
+		}
+
+		VolumeKernels.forRange(rows(), w, row -> {
+			System.arraycopy(
+				src.data,
+				row * src.rowStride,
+				data,
+				row * rowStride,
+				w);
+		});
+	}
+
+	/**
+	 * Set all the elements of the volume to a value
+	 */
+	public void fill(final double v) {
+		VolumeKernels.forRange(rows(), w, row -> {
+			final int offset = row * rowStride;
+			for (int x = 0; x < w; x++)
+				data[offset + x] = v;
+		});
+	}
+
+	/**
+	 * Add a value to all the elements of the volume
+	 */
+	public void addI(final double v) {
+		VolumeKernels.forRange(rows(), w, row -> {
+			final int offset = row * rowStride;
+			for (int x = 0; x < w; x++)
+				data[offset + x] += v;
+		});
+	}
+
+	/**
+	 * Multiply all the elements of the volume with a value
+	 */
+	public void multiplyI(final double v) {
+		VolumeKernels.forRange(rows(), w, row -> {
+			final int offset = row * rowStride;
+			for (int x = 0; x < w; x++)
+				data[offset + x] *= v;
+		});
+	}
+
+	/**
+	 * @return The sum of all the elements
+	 */
+	public double sum() {
+		return VolumeKernels.sum(this);
+	}
+
+	/**
+	 * @return The maximum element
+	 */
+	public double max() {
+		return VolumeKernels.max(this);
+	}
+
+	/**
+	 * Check the size of a volume and calculate the length of its array
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the size is not positive, the rows overlap, or the array
+	 *         would be too long
+	 */
+	static int checkSize(
+			final int n,
+			final int h,
+			final int w,
+			final int rowStride) {
+		if (n < 1 || h < 1 || w < 1 || rowStride < w)
+			throw new IllegalArgumentException(
+				"The size of the volume should be positive");
+
+		final long length = (long) n * h * rowStride;
+		if (length > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+				"The volume is too large for one array");
+
+		return (int) length;
+	}
+}
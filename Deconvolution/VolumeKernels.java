@@ -0,0 +1,266 @@
+package miatool.plugins;
+
+import java.util.function.IntConsumer;
+import miatool.modules.parallel.ComputeScheduler;
+
+/**
+ * Parallel loops and reductions of the volumes and the spectra. A loop is cut
+ * into chunks of about GRAIN elements, so a chunk is large enough to hide
+ * the cost of scheduling it and a small volume is not split at all. The
+ * chunks run in the scheduler of the calling thread, or in the shared
+ * scheduler. A reduction adds the partial results of the chunks pairwise in
+ * the order of the chunks, so the result does not depend on the number of
+ * threads.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+final class VolumeKernels {
+
+	/** The number of elements of a chunk */
+	static final int GRAIN = 1 << 15;
+
+	/** An operation on a range of indices */
+	@FunctionalInterface
+	interface RangeOp {
+
+		/**
+		 * @param from
+		 *        The first index
+		 * 
+		 * @param to
+		 *        The index after the last
+		 */
+		void apply(int from, int to);
+	}
+
+	/** A reduction of a range of indices to a value */
+	@FunctionalInterface
+	interface RangeSum {
+
+		/**
+		 * @param from
+		 *        The first index
+		 * 
+		 * @param to
+		 *        The index after the last
+		 * 
+		 * @return The partial result of the range
+		 */
+		double apply(int from, int to);
+	}
+
+	private VolumeKernels() {
+	}
+
+	/**
+	 * Apply an operation to each index of a range in parallel
+	 * 
+	 * @param count
+	 *        The number of indices, from 0
+	 * 
+	 * @param cost
+	 *        The number of elements an index touches, such as the width of a
+	 *        row or the size of a plane
+	 * 
+	 * @param body
+	 *        Takes an index, it is called from several threads at once
+	 */
+	static void forRange(
+			final int count,
+			final int cost,
+			final IntConsumer body) {
+		forChunks(count, cost, (from, to) -> {
+			for (int i = from; i < to; i++)
+				body.accept(i);
+		});
+	}
+
+	/**
+	 * Apply an operation to the chunks of a range in parallel, the body loops
+	 * over the indices of a chunk itself
+	 * 
+	 * @param count
+	 *        The number of indices, from 0
+	 * 
+	 * @param cost
+	 *        The number of elements an index touches
+	 * 
+	 * @param body
+	 *        Takes a chunk, it is called from several threads at once
+	 */
+	static void forChunks(final int count, final int cost, final RangeOp body) {
+		final int size = chunkSize(cost);
+		final int chunks = (count + size - 1) / size;
+		if (chunks <= 1) {
+			if (count > 0)
+				body.apply(0, count);
+			return;
+		}
+
+		ComputeScheduler.getShared().forRange(0, chunks, chunk -> body.apply(
+			chunk * size,
+			Math.min(count, (chunk + 1) * size)));
+	}
+
+	/**
+	 * Sum the partial results of the chunks of a range
+	 * 
+	 * @param count
+	 *        The number of indices, from 0
+	 * 
+	 * @param cost
+	 *        The number of elements an index touches
+	 * 
+	 * @param body
+	 *        Reduces a chunk, it is called from several threads at once
+	 * 
+	 * @return The sum of the partial results
+	 */
+	static double sum(final int count, final int cost, final RangeSum body) {
+		return ComputeScheduler.pairwiseSum(partials(count, cost, body));
+	}
+
+	/**
+	 * @return The sum of all the elements of a volume
+	 */
+	static double sum(final Volume3D x) {
+		return sum(x.rows(), x.w, (from, to) -> {
+			double result = 0;
+			for (int row = from; row < to; row++) {
+				final int offset = row * x.rowStride;
+				for (int i = 0; i < x.w; i++)
+					result += x.data[offset + i];
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * Take the largest of the partial results of the chunks of a range
+	 * 
+	 * @param count
+	 *        The number of indices, from 0
+	 * 
+	 * @param cost
+	 *        The number of elements an index touches
+	 * 
+	 * @param body
+	 *        Reduces a chunk, it is called from several threads at once
+	 * 
+	 * @return The largest partial result, negative infinity for no index
+	 */
+	static double max(final int count, final int cost, final RangeSum body) {
+		double result = Double.NEGATIVE_INFINITY;
+		for (final double p : partials(count, cost, body))
+			if (p > result)
+				result = p;
+		return result;
+	}
+
+	/**
+	 * @return The maximum element of a volume
+	 */
+	static double max(final Volume3D x) {
+		return max(x.rows(), x.w, (from, to) -> {
+			double result = Double.NEGATIVE_INFINITY;
+			for (int row = from; row < to; row++) {
+				final int offset = row * x.rowStride;
+				for (int i = 0; i < x.w; i++)
+					if (x.data[offset + i] > result)
+						result = x.data[offset + i];
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * @return The maximum element of a jagged 3D matrix, a plane at a time
+	 */
+	static double max(final double[][][] x) {
+		final int cost = x.length > 0 ? x[0].length * x[0][0].length : 0;
+		return max(x.length, cost, (from, to) -> {
+			double result = Double.NEGATIVE_INFINITY;
+			for (int z = from; z < to; z++)
+				for (final double[] row : x[z])
+					for (final double value : row)
+						if (value > result)
+							result = value;
+			return result;
+		});
+	}
+
+	/**
+	 * @return The dot product of two volumes of the same size
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volumes are of different sizes
+	 */
+	static double dot(final Volume3D a, final Volume3D b) {
+		if (!a.isSameSize(b))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+
+		return sum(a.rows(), a.w, (from, to) -> {
+			double result = 0;
+			for (int row = from; row < to; row++) {
+				final int aOffset = row * a.rowStride;
+				final int bOffset = row * b.rowStride;
+				for (int i = 0; i < a.w; i++)
+					result += a.data[aOffset + i] * b.data[bOffset + i];
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * @return The dot product of two single precision volumes of the same
+	 *         size, accumulated in double precision
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the volumes are of different sizes
+	 */
+	static double dot(final FloatVolume3D a, final FloatVolume3D b) {
+		if (!a.isSameSize(b))
+			throw new IllegalArgumentException(
+				"Input arguments should be of the same size");
+
+		return sum(a.rows(), a.w, (from, to) -> {
+			double result = 0;
+			for (int row = from; row < to; row++) {
+				final int aOffset = row * a.rowStride;
+				final int bOffset = row * b.rowStride;
+				for (int i = 0; i < a.w; i++)
+					result
+						+= (double) a.data[aOffset + i] * b.data[bOffset + i];
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * @return The number of indices of a chunk
+	 */
+	private static int chunkSize(final int cost) {
+		return Math.max(1, GRAIN / Math.max(cost, 1));
+	}
+
+	/**
+	 * @return The partial results of the chunks of a range in their order
+	 */
+	private static double[] partials(
+			final int count,
+			final int cost,
+			final RangeSum body) {
+		final int size = chunkSize(cost);
+		final int chunks = (count + size - 1) / size;
+		if (chunks <= 1)
+			return count > 0 ? new double[] { body.apply(0, count) }
+				: new double[0];
+
+		return ComputeScheduler.getShared().map(0, chunks, chunk -> body.apply(
+			chunk * size,
+			Math.min(count, (chunk + 1) * size)));
+	}
+
+}
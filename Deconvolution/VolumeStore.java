@@ -0,0 +1,119 @@
+package miatool.plugins;
+
+/**
+ * A real 3D matrix of n planes of h rows and w columns that is read and
+ * written a row at a time, so it can be kept in memory or in a file.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public interface VolumeStore {
+
+	/**
+	 * @return The number of planes
+	 */
+	int getN();
+
+	/**
+	 * @return The number of rows in a plane
+	 */
+	int getH();
+
+	/**
+	 * @return The number of columns in a row
+	 */
+	int getW();
+
+	/**
+	 * Read a part of the row (z, y) starting at the column x
+	 * 
+	 * @param z
+	 * 
+	 * @param y
+	 * 
+	 * @param x
+	 * 
+	 * @param dst
+	 *        The array to store the elements
+	 * 
+	 * @param offset
+	 *        The index of dst where the first element is stored
+	 * 
+	 * @param length
+	 *        The number of elements
+	 */
+	void readRow(
+			int z,
+			int y,
+			int x,
+			double[] dst,
+			int offset,
+			int length);
+
+	/**
+	 * Write a part of the row (z, y) starting at the column x
+	 * 
+	 * @param z
+	 * 
+	 * @param y
+	 * 
+	 * @param x
+	 * 
+	 * @param src
+	 *        The array of the elements
+	 * 
+	 * @param offset
+	 *        The index of src where the first element is taken
+	 * 
+	 * @param length
+	 *        The number of elements
+	 */
+	void writeRow(
+			int z,
+			int y,
+			int x,
+			double[] src,
+			int offset,
+			int length);
+
+	/**
+	 * @return A copy of the plane z as a matrix of h x w
+	 */
+	default double[][] readPlane(final int z) {
+		final double[][] result = new double[getH()][getW()];
+		for (int y = 0; y < getH(); y++)
+			readRow(z, y, 0, result[y], 0, getW());
+		return result;
+	}
+
+	/**
+	 * Write a plane, the rows and columns out of the plane of the matrix are
+	 * left unchanged
+	 * 
+	 * @param z
+	 *        The index of the plane
+	 * 
+	 * @param plane
+	 *        The jagged matrix, not larger than h x w
+	 */
+	default void writePlane(final int z, final double[][] plane) {
+		for (int y = 0; y < plane.length; y++)
+			writeRow(z, y, 0, plane[y], 0, plane[y].length);
+	}
+
+	/**
+	 * @return The maximum element
+	 */
+	default double max() {
+		final double[] row = new double[getW()];
+		double result = Double.NEGATIVE_INFINITY;
+		for (int z = 0; z < getN(); z++)
+			for (int y = 0; y < getH(); y++) {
+				readRow(z, y, 0, row, 0, row.length);
+				for (final double v : row)
+					if (v > result)
+						result = v;
+			}
+		return result;
+	}
+}
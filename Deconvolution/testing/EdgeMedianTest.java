@@ -0,0 +1,136 @@
+package miatool.plugins;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Random;
+import miatool.core.setssingles.image.GreyD64RAMSingle;
+import org.junit.Test;
+
+/**
+ * Test class of EdgeMedian, the edge pixels, the median of an even number of
+ * pixels and the 16 bit histogram against the NonParametricBackgroundMethod
+ * of DeconvolutionEngine.getBackground(ImageSingle)
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class EdgeMedianTest {
+
+	/** Tolerance of difference between the actual and expected results */
+	private static final double TOL = 1e-9;
+
+	/** The number of random planes of a size */
+	private static final int RUNS = 20;
+
+	/** The sizes height, width of the planes, odd and even, 1xN and Nx1 */
+	private static final int[][] SIZES = {
+		{ 1, 1 },
+		{ 1, 2 },
+		{ 1, 7 },
+		{ 1, 8 },
+		{ 2, 1 },
+		{ 7, 1 },
+		{ 8, 1 },
+		{ 2, 2 },
+		{ 2, 3 },
+		{ 3, 2 },
+		{ 3, 3 },
+		{ 4, 5 },
+		{ 5, 5 },
+		{ 6, 6 },
+		{ 17, 16 },
+		{ 63, 64 } };
+
+	private final Random random = new Random(22);
+
+	@Test
+	/**
+	 * Test both estimates against the library on random 16 bit planes, with
+	 * the full range of levels above 32767 and with few levels, so many edge
+	 * pixels are equal
+	 */
+	public void testLibrary() {
+		for (final int levels : new int[] { 1 << 16, 4 }) {
+			for (final int[] size : SIZES) {
+				for (int run = 0; run < RUNS; run++) {
+					final int height = size[0];
+					final int width = size[1];
+					final short[] data = new short[width * height];
+					final double[][] plane = new double[height][width];
+					for (int y = 0; y < height; y++)
+						for (int x = 0; x < width; x++) {
+							final int level = random.nextInt(levels);
+							data[y * width + x] = (short) level;
+							plane[y][x] = level;
+						}
+
+					final double expected = DeconvolutionEngine
+						.getBackground(new GreyD64RAMSingle(plane));
+					assertEquals(
+						expected,
+						EdgeMedian.of(data, width, height),
+						TOL);
+					assertEquals(expected, EdgeMedian.of(plane), TOL);
+				}
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Test that a corner is counted once, the four corners of 1 and the four
+	 * other edge pixels of 10 give the mean of the two, and the center is not
+	 * an edge pixel
+	 */
+	public void testCorners() {
+		final double[][] plane = {
+			{ 1, 10, 1 },
+			{ 10, 1000, 10 },
+			{ 1, 10, 1 } };
+		assertEquals(5.5, EdgeMedian.of(plane), TOL);
+		assertEquals(5.5, EdgeMedian.of(toShort(plane), 3, 3), TOL);
+	}
+
+	@Test
+	/**
+	 * Test that the median of an even number of edge pixels is the mean of
+	 * the two middle pixels, in a row, a column and a square
+	 */
+	public void testEvenCount() {
+		final double[][] row = { { 20, 1, 10, 2 } };
+		assertEquals(6, EdgeMedian.of(row), TOL);
+		assertEquals(6, EdgeMedian.of(toShort(row), 4, 1), TOL);
+
+		final double[][] column = { { 20 }, { 1 }, { 10 }, { 2 } };
+		assertEquals(6, EdgeMedian.of(column), TOL);
+		assertEquals(6, EdgeMedian.of(toShort(column), 1, 4), TOL);
+
+		final double[][] square = { { 3, 8 }, { 4, 7 } };
+		assertEquals(5.5, EdgeMedian.of(square), TOL);
+		assertEquals(5.5, EdgeMedian.of(toShort(square), 2, 2), TOL);
+	}
+
+	@Test
+	/**
+	 * Test that the 16 bit pixels above 32767 are unsigned
+	 */
+	public void testHighLevels() {
+		final double[][] odd = { { 60000, 40000, 50000 } };
+		assertEquals(50000, EdgeMedian.of(toShort(odd), 3, 1), TOL);
+
+		final double[][] even = { { 65535, 100, 65534, 65535 } };
+		assertEquals(65534.5, EdgeMedian.of(toShort(even), 4, 1), TOL);
+		assertEquals(65534.5, EdgeMedian.of(even), TOL);
+	}
+
+	/**
+	 * @return The unsigned 16 bit pixels of a plane row by row
+	 */
+	private static short[] toShort(final double[][] plane) {
+		final int width = plane[0].length;
+		final short[] result = new short[plane.length * width];
+		for (int y = 0; y < plane.length; y++)
+			for (int x = 0; x < width; x++)
+				result[y * width + x] = (short) plane[y][x];
+		return result;
+	}
+}
@@ -0,0 +1,184 @@
+package miatool.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test class of the element-wise kernels, the vector kernels against the
+ * scalar kernels on ranges that are not a multiple of the vector width, so
+ * the elements after the last whole vector are left to the scalar kernels.
+ * The tests are skipped if the vector kernels are not available.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class ElementKernelsTest {
+
+	/** Tolerance of the relative difference of the products and quotients */
+	private static final double TOL = 1e-15;
+
+	/** Tolerance of the relative difference of the powers */
+	private static final double POWER_TOL = 1e-13;
+
+	/** The first elements of the ranges */
+	private static final int[] FROMS = { 0, 1, 3 };
+
+	/** The numbers of elements of the ranges, none a multiple of 4 or 8 */
+	private static final int[] COUNTS = { 1, 3, 5, 7, 13, 31, 33, 101 };
+
+	/** The elements after a range, which are not changed */
+	private static final int TAIL = 5;
+
+	private final Random random = new Random(25);
+
+	@Test
+	/**
+	 * Test the complex products, the products with the conjugates and the
+	 * quotients
+	 */
+	public void testProducts() {
+		final ElementKernels vector = getVector();
+		for (final int from : FROMS)
+			for (final int count : COUNTS) {
+				final int to = from + count;
+				final double[] a = randomComplex(to + TAIL);
+				final double[] b = randomComplex(to + TAIL);
+
+				double[] expected = a.clone();
+				double[] actual = a.clone();
+				ElementKernels.SCALAR.multiply(expected, b, from, to);
+				vector.multiply(actual, b, from, to);
+				assertClose(expected, actual, TOL);
+
+				expected = a.clone();
+				actual = a.clone();
+				ElementKernels.SCALAR.multiplyConj(expected, b, from, to);
+				vector.multiplyConj(actual, b, from, to);
+				assertClose(expected, actual, TOL);
+
+				expected = a.clone();
+				actual = a.clone();
+				ElementKernels.SCALAR.divide(expected, b, from, to);
+				vector.divide(actual, b, from, to);
+				assertClose(expected, actual, TOL);
+			}
+	}
+
+	@Test
+	/**
+	 * Test the absolute values and the powers, the vector powers use the
+	 * vector functions of the platform, so they are close to the scalar
+	 * powers rather than equal
+	 */
+	public void testAbsAndPower() {
+		final ElementKernels vector = getVector();
+		for (final int from : FROMS)
+			for (final int count : COUNTS) {
+				final int to = from + count;
+				final double[] a = randomComplex(to + TAIL);
+
+				double[] expected = new double[to + TAIL];
+				double[] actual = new double[to + TAIL];
+				ElementKernels.SCALAR.abs(a, expected, from, to);
+				vector.abs(a, actual, from, to);
+				assertClose(expected, actual, TOL);
+
+				for (final int p : new int[] { -2, 0, 1, 3 }) {
+					expected = new double[2 * (to + TAIL)];
+					actual = new double[2 * (to + TAIL)];
+					ElementKernels.SCALAR.power(a, p, expected, from, to);
+					vector.power(a, p, actual, from, to);
+					assertClose(expected, actual, POWER_TOL);
+				}
+			}
+	}
+
+	@Test
+	/**
+	 * Test the ratios and the positive products of the rows of the
+	 * Richardson-Lucy iterations, with offsets into the rows, zero sums and
+	 * negative products
+	 */
+	public void testRows() {
+		final ElementKernels vector = getVector();
+		for (final int offset : FROMS)
+			for (final int length : COUNTS) {
+				final double[] num = randomReal(offset + length + TAIL);
+				final double[] den = randomReal(offset + length + TAIL);
+				for (int x = offset; x < offset + length; x += 3)
+					den[x] = 0.5;
+
+				double[] expected = den.clone();
+				double[] actual = den.clone();
+				ElementKernels.SCALAR.ratio(
+					num,
+					offset,
+					expected,
+					offset,
+					length,
+					-0.5,
+					DeconvolutionEngine.EPS);
+				vector.ratio(
+					num,
+					offset,
+					actual,
+					offset,
+					length,
+					-0.5,
+					DeconvolutionEngine.EPS);
+				assertClose(expected, actual, TOL);
+
+				expected = num.clone();
+				actual = num.clone();
+				ElementKernels.SCALAR
+					.multiplyPositive(expected, offset, den, offset, length);
+				vector.multiplyPositive(actual, offset, den, offset, length);
+				assertClose(expected, actual, TOL);
+			}
+	}
+
+	/**
+	 * @return The vector kernels, the test is skipped if they are not
+	 *         available
+	 */
+	private static ElementKernels getVector() {
+		final ElementKernels result = ElementKernels.Selection.VECTOR;
+		assumeNotNull(result);
+		return result;
+	}
+
+	/**
+	 * Assert that the elements of two arrays are equal within a tolerance of
+	 * their magnitude
+	 */
+	private static void assertClose(
+			final double[] expected,
+			final double[] actual,
+			final double tol) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(
+				expected[i],
+				actual[i],
+				tol * Math.max(1, Math.abs(expected[i])));
+	}
+
+	/**
+	 * @return The interleaved parts of random complex elements
+	 */
+	private double[] randomComplex(final int elements) {
+		return randomReal(2 * elements);
+	}
+
+	/**
+	 * @return Random values between -1 and 1
+	 */
+	private double[] randomReal(final int length) {
+		final double[] result = new double[length];
+		for (int i = 0; i < length; i++)
+			result[i] = 2 * random.nextDouble() - 1;
+		return result;
+	}
+}
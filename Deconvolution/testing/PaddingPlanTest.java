@@ -0,0 +1,163 @@
+package miatool.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test class of PaddingPlan, the sizes of the padded volumes and the round
+ * trip of a volume through the padding and the cropping
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class PaddingPlanTest {
+
+	/** The largest size of a dimension of the random volumes */
+	private static final int MAX_SIZE = 24;
+
+	/** The number of random volumes */
+	private static final int RUNS = 50;
+
+	private final Random random = new Random(8);
+
+	@Test
+	/**
+	 * Test the rounding up to the sizes of the mixed radix FFT
+	 */
+	public void testNextFastSize() {
+		assertEquals(270, PaddingPlan.nextFastSize(257));
+		assertEquals(256, PaddingPlan.nextFastSize(256));
+		assertEquals(1, PaddingPlan.nextFastSize(0));
+
+		for (int length = 1; length <= 2048; length++) {
+			final int size = PaddingPlan.nextFastSize(length);
+			assertTrue(size >= length);
+			assertTrue(PaddingPlan.isFastSize(size));
+			for (int smaller = length; smaller < size; smaller++)
+				assertTrue(!PaddingPlan.isFastSize(smaller));
+		}
+	}
+
+	@Test
+	/**
+	 * Test that every padded size holds the volume and the guard band of the
+	 * psf on both sides
+	 */
+	public void testGuardBand() {
+		for (int run = 0; run < RUNS; run++) {
+			final int[] size = randomSize();
+			final int[] psf = randomSize();
+			final PaddingPlan plan = new PaddingPlan(
+				size[0],
+				size[1],
+				size[2],
+				psf[0],
+				psf[1],
+				psf[2],
+				PaddingPlan.Fill.ZERO);
+
+			assertTrue(plan.padN >= size[0] + 2 * (psf[0] / 2));
+			assertTrue(plan.padH >= size[1] + 2 * (psf[1] / 2));
+			assertTrue(plan.padW >= size[2] + 2 * (psf[2] / 2));
+			assertTrue(PaddingPlan.isFastSize(plan.padN));
+			assertTrue(PaddingPlan.isFastSize(plan.padH));
+			assertTrue(PaddingPlan.isFastSize(plan.padW));
+		}
+	}
+
+	@Test
+	/**
+	 * Test that cropping a padded volume gives the volume back
+	 */
+	public void testRoundTrip() {
+		for (final PaddingPlan.Fill fill : PaddingPlan.Fill.values()) {
+			for (int run = 0; run < RUNS; run++) {
+				final int[] size = randomSize();
+				final int[] psf = randomSize();
+				final PaddingPlan plan = new PaddingPlan(
+					size[0],
+					size[1],
+					size[2],
+					psf[0],
+					psf[1],
+					psf[2],
+					fill);
+				final Volume3D volume = randomVolume(size);
+				final Volume3D padded = plan.pad(volume);
+				final Volume3D cropped = plan.crop(padded);
+
+				assertEquals(size[0], cropped.n);
+				assertEquals(size[1], cropped.h);
+				assertEquals(size[2], cropped.w);
+				for (int z = 0; z < size[0]; z++)
+					for (int y = 0; y < size[1]; y++)
+						for (int x = 0; x < size[2]; x++)
+							assertEquals(
+								volume.data[volume.index(z, y, x)],
+								cropped.data[cropped.index(z, y, x)],
+								0);
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Test the fill of the guard band, zeros or the mirror image of the
+	 * volume
+	 */
+	public void testFill() {
+		final int[] size = { 3, 4, 5 };
+		final Volume3D volume = randomVolume(size);
+
+		final PaddingPlan zero
+			= new PaddingPlan(3, 4, 5, 3, 3, 3, PaddingPlan.Fill.ZERO);
+		final Volume3D zeroPadded = zero.pad(volume);
+		assertEquals(0, zeroPadded.data[zeroPadded.index(0, 0, 0)], 0);
+
+		final PaddingPlan mirror
+			= new PaddingPlan(3, 4, 5, 3, 3, 3, PaddingPlan.Fill.MIRROR);
+		final Volume3D mirrorPadded = mirror.pad(volume);
+		final int offZ = (mirror.padN - 3) / 2;
+		final int offY = (mirror.padH - 4) / 2;
+		final int offX = (mirror.padW - 5) / 2;
+
+		// the element before the volume is the mirror of its first element
+		assertEquals(
+			volume.data[volume.index(0, 0, 0)],
+			mirrorPadded.data[mirrorPadded.index(offZ, offY, offX - 1)],
+			0);
+		assertEquals(
+			volume.data[volume.index(0, 0, 0)],
+			mirrorPadded.data[mirrorPadded.index(offZ - 1, offY, offX)],
+			0);
+
+		final PaddingPlan none
+			= new PaddingPlan(3, 4, 5, 3, 3, 3, PaddingPlan.Fill.NONE);
+		assertSame(volume, none.pad(volume));
+	}
+
+	/**
+	 * @return A random size n, h, w
+	 */
+	private int[] randomSize() {
+		return new int[] {
+			1 + random.nextInt(MAX_SIZE),
+			1 + random.nextInt(MAX_SIZE),
+			1 + random.nextInt(MAX_SIZE) };
+	}
+
+	/**
+	 * @return A volume of a size filled with random values
+	 */
+	private Volume3D randomVolume(final int[] size) {
+		final Volume3D result = new Volume3D(size[0], size[1], size[2]);
+		for (int z = 0; z < size[0]; z++)
+			for (int y = 0; y < size[1]; y++)
+				for (int x = 0; x < size[2]; x++)
+					result.data[result.index(z, y, x)] = random.nextDouble();
+		return result;
+	}
+}
@@ -0,0 +1,200 @@
+package miatool.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test class of TiledDeconvolution, the feathering of the tiles and the
+ * tiled Richardson-Lucy deconvolution against the deconvolution of the
+ * whole volume
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public class TiledDeconvolutionTest {
+
+	/** Tolerance of the stitching of unchanged blocks */
+	private static final double TOL = 1e-12;
+
+	/** Tolerance of the relative difference of a tiled deconvolution */
+	private static final double TILED_TOL = 1e-2;
+
+	private final Random random = new Random(9);
+
+	@Test
+	/**
+	 * Test that the feathering weights of the tiles sum to one, so blocks
+	 * returned unchanged are stitched back into the volume, in the overlaps
+	 * of two, four and eight tiles
+	 */
+	public void testFeatherWeights() {
+		final Volume3D img = randomVolume(11, 23, 29);
+		for (final int[] tile : new int[][] {
+			{ 0, 0, 0 },
+			{ 0, 8, 0 },
+			{ 0, 7, 9 },
+			{ 4, 7, 9 },
+			{ 3, 5, 5 } }) {
+			final TiledDeconvolution tiling
+				= new TiledDeconvolution(tile[0], tile[1], tile[2], 3, 5, 5);
+			final Volume3D result
+				= tiling.deconvolve(img, block -> copy(block));
+
+			for (int z = 0; z < img.n; z++)
+				for (int y = 0; y < img.h; y++)
+					for (int x = 0; x < img.w; x++)
+						assertEquals(
+							img.data[img.index(z, y, x)],
+							result.data[result.index(z, y, x)],
+							TOL);
+		}
+	}
+
+	@Test
+	/**
+	 * Test that a tile covering the whole volume gives the deconvolution of
+	 * the whole volume
+	 */
+	public void testSingleTile() {
+		final Volume3D img = blobs(6, 24, 24);
+		final double[][][] psf = gaussian(3, 5, 5);
+
+		final Volume3D whole = makeEngine().deconvolve(img, psf);
+		final DeconvolutionEngine engine = makeEngine();
+		engine.setTileSize(img.n, img.h, img.w);
+		final Volume3D tiled = engine.deconvolve(img, psf);
+
+		assertTrue(relativeDifference(whole, tiled) < TOL);
+	}
+
+	@Test
+	/**
+	 * Test that the tiles covering the volume give the deconvolution of the
+	 * whole volume within a tolerance, the blocks differ from the whole
+	 * volume only near their borders, which are feathered out
+	 */
+	public void testTiles() {
+		final Volume3D img = blobs(6, 40, 40);
+		final double[][][] psf = gaussian(3, 5, 5);
+
+		final Volume3D whole = makeEngine().deconvolve(img, psf);
+		final DeconvolutionEngine engine = makeEngine();
+		engine.setTileSize(0, 16, 16);
+		final Volume3D tiled = engine.deconvolve(img, psf);
+
+		assertTrue(relativeDifference(whole, tiled) < TILED_TOL);
+	}
+
+	/**
+	 * @return An engine of a few Richardson-Lucy iterations
+	 */
+	private static DeconvolutionEngine makeEngine() {
+		final DeconvolutionEngine result = new DeconvolutionEngine();
+		result.setMethod(DeconvMethod.RICHARDSON_LUCY);
+		result.setIterations(5);
+		return result;
+	}
+
+	/**
+	 * @return The norm of the difference of two volumes of the same size
+	 *         relative to the norm of the first
+	 */
+	private static double relativeDifference(
+			final Volume3D expected,
+			final Volume3D actual) {
+		double diff = 0;
+		double norm = 0;
+		for (int z = 0; z < expected.n; z++)
+			for (int y = 0; y < expected.h; y++)
+				for (int x = 0; x < expected.w; x++) {
+					final double e = expected.data[expected.index(z, y, x)];
+					final double a = actual.data[actual.index(z, y, x)];
+					diff += (e - a) * (e - a);
+					norm += e * e;
+				}
+		return Math.sqrt(diff / norm);
+	}
+
+	/**
+	 * @return A copy of a volume
+	 */
+	private static Volume3D copy(final Volume3D input) {
+		final Volume3D result = new Volume3D(input.n, input.h, input.w);
+		for (int z = 0; z < input.n; z++)
+			for (int y = 0; y < input.h; y++)
+				System.arraycopy(
+					input.data,
+					input.index(z, y, 0),
+					result.data,
+					result.index(z, y, 0),
+					input.w);
+		return result;
+	}
+
+	/**
+	 * @return A volume filled with random values
+	 */
+	private Volume3D randomVolume(final int n, final int h, final int w) {
+		final Volume3D result = new Volume3D(n, h, w);
+		for (int z = 0; z < n; z++)
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					result.data[result.index(z, y, x)] = random.nextDouble();
+		return result;
+	}
+
+	/**
+	 * @return A volume of Gaussian blobs at random positions on a constant
+	 *         background
+	 */
+	private Volume3D blobs(final int n, final int h, final int w) {
+		final Volume3D result = new Volume3D(n, h, w);
+		for (int blob = 0; blob < 12; blob++) {
+			final double cz = random.nextDouble() * n;
+			final double cy = random.nextDouble() * h;
+			final double cx = random.nextDouble() * w;
+			final double peak = 100 + 900 * random.nextDouble();
+			for (int z = 0; z < n; z++)
+				for (int y = 0; y < h; y++)
+					for (int x = 0; x < w; x++) {
+						final double d2 = (z - cz) * (z - cz)
+							+ (y - cy) * (y - cy) + (x - cx) * (x - cx);
+						result.data[result.index(z, y, x)]
+							+= peak * Math.exp(-d2 / 4);
+					}
+		}
+		for (int z = 0; z < n; z++)
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					result.data[result.index(z, y, x)] += 10;
+		return result;
+	}
+
+	/**
+	 * @return A normalised Gaussian psf of a size
+	 */
+	private static double[][][] gaussian(
+			final int n,
+			final int h,
+			final int w) {
+		final double[][][] result = new double[n][h][w];
+		double sum = 0;
+		for (int z = 0; z < n; z++)
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++) {
+					final double dz = z - n / 2;
+					final double dy = y - h / 2;
+					final double dx = x - w / 2;
+					result[z][y][x]
+						= Math.exp(-(dz * dz + dy * dy + dx * dx) / 2);
+					sum += result[z][y][x];
+				}
+		for (final double[][] plane : result)
+			for (final double[] row : plane)
+				for (int x = 0; x < w; x++)
+					row[x] /= sum;
+		return result;
+	}
+}
@@ -0,0 +1,266 @@
+package miatool.modules.parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Scheduler of the parallel computations of the deconvolution, the
+ * simulations and the spatial statistics. A scheduler owns a fixed
+ * ForkJoinPool of its thread budget. A job submitted to a scheduler runs in
+ * its pool together with every parallel loop and parallel stream the job
+ * starts, so a job keeps to the threads it was given and the nested loops
+ * do not oversubscribe the cores. A loop started in a thread of any
+ * scheduler stays in the pool of that thread.
+ * 
+ * The shared scheduler has a thread per core by default. The scheduler
+ * does not depend on the projects using it, so the deconvolution, the
+ * simulations and the spatial statistics share it as a project of its own.
+ * 
+ * @version 0.1
+ * @since 0.5
+ */
+public final class ComputeScheduler {
+
+	/** The number of terms of a chunk of a parallel sum */
+	private static final int SUM_GRAIN = 4096;
+
+	/** The scheduler shared by the jobs that are not given their own */
+	private static volatile ComputeScheduler shared = null;
+
+	/** The thread budget */
+	private final int threads;
+
+	/** The pool of the threads */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param threads
+	 *        The thread budget
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the budget is smaller than 1
+	 */
+	public ComputeScheduler(final int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(
+				"The number of threads should be at least 1");
+
+		this.threads = threads;
+		pool = new ForkJoinPool(threads, Worker::new, null, false);
+	}
+
+	/**
+	 * @return The scheduler shared by the jobs that are not given their own,
+	 *         it is created with a thread per core at the first call
+	 */
+	public static ComputeScheduler getShared() {
+		ComputeScheduler result = shared;
+		if (result == null) {
+			synchronized (ComputeScheduler.class) {
+				if (shared == null)
+					setShared(Runtime.getRuntime().availableProcessors());
+				result = shared;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replace the shared scheduler with one of a new thread budget. The jobs
+	 * running in the old scheduler finish in its pool, which is shut down
+	 * then.
+	 * 
+	 * @param threads
+	 *        The thread budget
+	 * 
+	 * @throws IllegalArgumentException
+	 *         If the budget is smaller than 1
+	 */
+	public static synchronized void setSharedThreads(final int threads) {
+		final ComputeScheduler old = shared;
+		setShared(threads);
+		if (old != null)
+			old.shutdown();
+	}
+
+	/**
+	 * Set the shared scheduler
+	 */
+	private static void setShared(final int threads) {
+		shared = new ComputeScheduler(threads);
+	}
+
+	/**
+	 * @return The thread budget
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Shut down the pool of the scheduler when it is replaced. The jobs
+	 * running in the pool finish there, and the threads end when they are
+	 * idle. No new job can be submitted to the scheduler.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Run a job in the pool, or in the calling thread if it is a thread of a
+	 * scheduler already
+	 * 
+	 * @param job
+	 * 
+	 * @return The result of the job
+	 */
+	public <T> T call(final Supplier<T> job) {
+		if (Thread.currentThread() instanceof Worker)
+			return job.get();
+
+		return pool.submit(job::get).join();
+	}
+
+	/**
+	 * Run a job in the pool, or in the calling thread if it is a thread of a
+	 * scheduler already
+	 * 
+	 * @param job
+	 */
+	public void run(final Runnable job) {
+		if (Thread.currentThread() instanceof Worker)
+			job.run();
+		else
+			pool.submit(job).join();
+	}
+
+	/**
+	 * Apply an operation to each index of a range in parallel
+	 * 
+	 * @param from
+	 *        The first index
+	 * 
+	 * @param to
+	 *        The index after the last
+	 * 
+	 * @param body
+	 *        Takes an index, it is called from several threads at once
+	 */
+	public void forRange(final int from, final int to, final IntConsumer body) {
+		run(() -> IntStream.range(from, to).parallel().forEach(body));
+	}
+
+	/**
+	 * Apply an operation to each item of an array in parallel
+	 * 
+	 * @param items
+	 * 
+	 * @param body
+	 *        Takes an item, it is called from several threads at once
+	 */
+	public <T> void forEach(final T[] items, final Consumer<? super T> body) {
+		forRange(0, items.length, i -> body.accept(items[i]));
+	}
+
+	/**
+	 * Map each index of a range to a value in parallel
+	 * 
+	 * @param from
+	 *        The first index
+	 * 
+	 * @param to
+	 *        The index after the last
+	 * 
+	 * @param term
+	 *        Maps an index to its value, it is called from several threads at
+	 *        once
+	 * 
+	 * @return The values in the order of the indices
+	 */
+	public double[] map(
+			final int from,
+			final int to,
+			final IntToDoubleFunction term) {
+		final double[] result = new double[Math.max(to - from, 0)];
+		forRange(from, to, i -> result[i - from] = term.applyAsDouble(i));
+		return result;
+	}
+
+	/**
+	 * Sum the values of the indices of a range in parallel. The range is cut
+	 * into chunks of a fixed size, which are summed in parallel and then
+	 * added pairwise, so the result does not depend on the number of threads.
+	 * 
+	 * @param from
+	 *        The first index
+	 * 
+	 * @param to
+	 *        The index after the last
+	 * 
+	 * @param term
+	 *        Maps an index to its value, it is called from several threads at
+	 *        once
+	 * 
+	 * @return The sum of the values
+	 */
+	public double sum(
+			final int from,
+			final int to,
+			final IntToDoubleFunction term) {
+		if (to - from <= SUM_GRAIN) {
+			double result = 0;
+			for (int i = from; i < to; i++)
+				result += term.applyAsDouble(i);
+			return result;
+		}
+
+		final int chunks = (to - from + SUM_GRAIN - 1) / SUM_GRAIN;
+		final double[] partial = map(0, chunks, chunk -> {
+			final int start = from + chunk * SUM_GRAIN;
+			final int end = Math.min(start + SUM_GRAIN, to);
+
+			double result = 0;
+			for (int i = start; i < end; i++)
+				result += term.applyAsDouble(i);
+			return result;
+		});
+		return pairwiseSum(partial);
+	}
+
+	/**
+	 * @return The sum of the values of an array added pairwise, 0 if it is
+	 *         empty
+	 */
+	public static double pairwiseSum(final double[] values) {
+		return values.length == 0 ? 0 : pairwiseSum(values, 0, values.length);
+	}
+
+	/**
+	 * @return The sum of the values of a part of an array added pairwise
+	 */
+	private static double pairwiseSum(
+			final double[] values,
+			final int from,
+			final int to) {
+		if (to - from == 1)
+			return values[from];
+
+		final int mid = (from + to) >>> 1;
+		return pairwiseSum(values, from, mid) + pairwiseSum(values, mid, to);
+	}
+
+	/** The threads of the pools of the schedulers */
+	private static final class Worker extends ForkJoinWorkerThread {
+
+		Worker(final ForkJoinPool pool) {
+			super(pool);
+		}
+	}
+}
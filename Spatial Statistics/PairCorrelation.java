@@ -3,9 +3,8 @@ package miatool.modules.spatialstatistics;
 import java.util.ArrayList;
 import java.util.List;
 import miatool.core.util.MIAUtil;
-import miatool.core.util.Parallel;
-import miatool.core.util.Parallel.Operation;
 import miatool.core.util.numerics.HistogramAnalysis;
+import miatool.modules.parallel.ComputeScheduler;
 import static miatool.core.util.numerics.MIAMatOps.getCol;
 import static miatool.core.util.numerics.MIAMatOps.unique;
 import static miatool.core.util.numerics.MIAMatOps.multiply;
@@ -149,105 +148,100 @@ public class PairCorrelation {
 		final double[][][] gsthatsAdapInt = new double[lenPCFE][][];
 		final double[][][] gsthatsClaInt = new double[lenPCFE][][];
 
-		Parallel.parfor(tuples, new Operation<int[]>() {
-
-			@Override
-			public void perform(int[] tuple) {
-				final int x = tuple[0];
-				final double r = searchDist[x];
-
-				// estimate matrix for each estimator
-				final double[][] estMat
-					= new double[xVals.length][xVals.length];
-				switch (type) {
-					case BOX:
-						for (int i = 0; i < xVals.length; i++) {
-							for (int j = 0; j < xVals.length; j++) {
-								final double factorB
-									= Math.sqrt(12) * bandWidth;
-								if (i != j
-									&& Math.abs(r - dist[i][j])
-										/ factorB <= 0.5) {
-									estMat[i][j] = 1 / factorB;
-								}
+		ComputeScheduler.getShared().forEach(tuples, tuple -> {
+			final int x = tuple[0];
+			final double r = searchDist[x];
+
+			// estimate matrix for each estimator
+			final double[][] estMat
+				= new double[xVals.length][xVals.length];
+			switch (type) {
+				case BOX:
+					for (int i = 0; i < xVals.length; i++) {
+						for (int j = 0; j < xVals.length; j++) {
+							final double factorB
+								= Math.sqrt(12) * bandWidth;
+							if (i != j
+								&& Math.abs(r - dist[i][j])
+									/ factorB <= 0.5) {
+								estMat[i][j] = 1 / factorB;
 							}
 						}
-						break;
-					case EPAN:
-						for (int i = 0; i < xVals.length; i++) {
-							for (int j = 0; j < xVals.length; j++) {
-								if (i != j) {
-									final double factorE
-										= Math.sqrt(5) * bandWidth;
-									final double offsetE
-										= (r - dist[i][j]) / factorE;
-									final double estMatE = 0.75
-										/ factorE
-										* (1 - offsetE * offsetE);
-
-									if (estMatE >= 0)
-										estMat[i][j] = estMatE;
-								}
+					}
+					break;
+				case EPAN:
+					for (int i = 0; i < xVals.length; i++) {
+						for (int j = 0; j < xVals.length; j++) {
+							if (i != j) {
+								final double factorE
+									= Math.sqrt(5) * bandWidth;
+								final double offsetE
+									= (r - dist[i][j]) / factorE;
+								final double estMatE = 0.75
+									/ factorE
+									* (1 - offsetE * offsetE);
+
+								if (estMatE >= 0)
+									estMat[i][j] = estMatE;
 							}
 						}
-						break;
-				}
-				multiplyI(estMat, 1 / (2 * Math.PI * r));
-				divideI(estMat, edgeCorrection);
-
-				// calculate the numerator of the Gsthats factor
-				final double[][] numor = sumSubMatrices(estMat, estimatorArr);
-
-				// calculate the edge correction factor
-				final double[] vetX
-					= { limits[0], limits[1], limits[1], limits[0] };
-				final double[] vetY
-					= { limits[2], limits[2], limits[3], limits[3] };
-
-				final double[][] edgeCorrFactors = getEdgeCorrelationFactors(
-					sppSorted,
-					vetX,
-					vetY,
-					r);
-
-				// calculate the isotropised set covariance
-				final double isoCov;
-				final double sWinEdge = Math.min(winX, winY);
-				final double lWinEdge = Math.max(winX, winY);
-				if (r <= sWinEdge) {
-					isoCov = sWinEdge * lWinEdge
-						- 2 * r * (sWinEdge + lWinEdge) / Math.PI
-						+ r * r / Math.PI;
-				}
-				else {
-					final double ratio = r / sWinEdge;
-					isoCov = sWinEdge
-						* lWinEdge
-						* (2 * Math.asin(1 / ratio)
-							- sWinEdge / lWinEdge
-							- 2 * (ratio - Math.sqrt(ratio * ratio - 1)))
-						/ Math.PI;
-				}
-
-				// estimate the surface-adapted intensity
-				final double[] adaptedInt = new double[estimatorArr.length];
-				for (int i = 0, k = 0; i < estimatorArr.length; i++) {
-					double sum = 0;
-					for (int j = 0; j < estimatorArr[i]; j++) {
-						sum += edgeCorrFactors[0][k + j];
 					}
-					adaptedInt[i] = sum / isoCov;
-					k += estimatorArr[i];
-				}
-
-				// calculate results
-				 setI(adaptedInt, isNan(adaptedInt), 0);
-				final double denor = Math.pow(sum(adaptedInt), 2);
+					break;
+			}
+			multiplyI(estMat, 1 / (2 * Math.PI * r));
+			divideI(estMat, edgeCorrection);
+
+			// calculate the numerator of the Gsthats factor
+			final double[][] numor = sumSubMatrices(estMat, estimatorArr);
+
+			// calculate the edge correction factor
+			final double[] vetX
+				= { limits[0], limits[1], limits[1], limits[0] };
+			final double[] vetY
+				= { limits[2], limits[2], limits[3], limits[3] };
+
+			final double[][] edgeCorrFactors = getEdgeCorrelationFactors(
+				sppSorted,
+				vetX,
+				vetY,
+				r);
+
+			// calculate the isotropised set covariance
+			final double isoCov;
+			final double sWinEdge = Math.min(winX, winY);
+			final double lWinEdge = Math.max(winX, winY);
+			if (r <= sWinEdge) {
+				isoCov = sWinEdge * lWinEdge
+					- 2 * r * (sWinEdge + lWinEdge) / Math.PI
+					+ r * r / Math.PI;
+			}
+			else {
+				final double ratio = r / sWinEdge;
+				isoCov = sWinEdge
+					* lWinEdge
+					* (2 * Math.asin(1 / ratio)
+						- sWinEdge / lWinEdge
+						- 2 * (ratio - Math.sqrt(ratio * ratio - 1)))
+					/ Math.PI;
+			}
 
-				gsthatsAdapInt[x] = multiply(numor, 1 / denor);
-				gsthatsClaInt[x] = divide(numor, classicIntensity);
+			// estimate the surface-adapted intensity
+			final double[] adaptedInt = new double[estimatorArr.length];
+			for (int i = 0, k = 0; i < estimatorArr.length; i++) {
+				double sum = 0;
+				for (int j = 0; j < estimatorArr[i]; j++) {
+					sum += edgeCorrFactors[0][k + j];
+				}
+				adaptedInt[i] = sum / isoCov;
+				k += estimatorArr[i];
 			}
 
+			// calculate results
+			 setI(adaptedInt, isNan(adaptedInt), 0);
+			final double denor = Math.pow(sum(adaptedInt), 2);
+
+			gsthatsAdapInt[x] = multiply(numor, 1 / denor);
+			gsthatsClaInt[x] = divide(numor, classicIntensity);
 		});
 
 		 final List<double[][][]> result = new ArrayList<>();
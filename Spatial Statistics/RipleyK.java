@@ -1,7 +1,6 @@
 package miatool.modules.spatialstatistics;
 
-import miatool.core.util.Parallel;
-import miatool.core.util.Parallel.Operation;
+import miatool.modules.parallel.ComputeScheduler;
 import static miatool.core.util.numerics.MIAMatOps.isRectangular;
 import static miatool.core.util.numerics.MIAMatOps.range;
 import static miatool.core.util.numerics.MIAMatOps.generateTuples;
@@ -132,26 +131,22 @@ public class RipleyK {
 		final int[] xRange = range(0, 1, r.length - 1);
 		final int[][] tuples = generateTuples(xRange);
 
-		Parallel.parfor(tuples, new Operation<int[]>() {
+		ComputeScheduler.getShared().forEach(tuples, tuple -> {
+			final int m = tuple[0];
+			double usedWeights = 0;
 
-			@Override
-			public void perform(int[] tuple) {
-				final int m = tuple[0];
-				double usedWeights = 0;
-
-				for (int i = 0; i < x.length; i++) {
-					for (int j = 0; j < x.length; j++) {
-						if (dist[i][j] < r[m] && dist[i][j] > distanceThreshold)
-							usedWeights += weights[i][j];
-					}
+			for (int i = 0; i < x.length; i++) {
+				for (int j = 0; j < x.length; j++) {
+					if (dist[i][j] < r[m] && dist[i][j] > distanceThreshold)
+						usedWeights += weights[i][j];
 				}
-
-				ripK[m] = (roi[1] - roi[0])
-					* (roi[3] - roi[2])
-					/ x.length
-					/ (x.length - 1)
-					* usedWeights;
 			}
+
+			ripK[m] = (roi[1] - roi[0])
+				* (roi[3] - roi[2])
+				/ x.length
+				/ (x.length - 1)
+				* usedWeights;
 		});
 
 		return ripK;
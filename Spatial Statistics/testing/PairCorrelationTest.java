@@ -17,7 +17,6 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 import matlabcontrol.MatlabInvocationException;
 import miatool.core.util.MatlabUtil;
-import miatool.core.util.Parallel;
 import miatool.modules.spatialstatistics.PairCorrelation;
 import static miatool.modules.spatialstatistics.PairCorrelation.KernelType;
 
@@ -124,7 +123,6 @@ public class PairCorrelationTest extends ParameterizedTest {
 			= MatlabUtil.getVariable(double[][][].class, "classicE");
 		
 		// Calculation of the output from Java
-		Parallel.startPool();
 		final List<double[][][]> resultBox = PairCorrelation
 			.calculate(spp, limits, r, KernelType.BOX, bandWidth);
 		final List<double[][][]> resultEpan = PairCorrelation
@@ -135,8 +133,6 @@ public class PairCorrelationTest extends ParameterizedTest {
 		final double[][][] actualAdaptedE = resultEpan.get(0);
 		final double[][][] actualClassicE = resultEpan.get(1);
 
-		Parallel.shutdownPool();
-
 		// Test assertions		
 		for (int i = 0; i < expectedAdaptedB.length; i++) {
 			for (int j = 0; j < expectedAdaptedB[0].length; j++) {
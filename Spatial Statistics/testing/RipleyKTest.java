@@ -12,7 +12,6 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 import matlabcontrol.MatlabInvocationException;
 import miatool.core.util.MatlabUtil;
-import miatool.core.util.Parallel;
 import miatool.core.util.numerics.MIAMatOps;
 import miatool.modules.spatialstatistics.RipleyK;
 
@@ -97,9 +96,7 @@ public class RipleyKTest extends ParameterizedTest {
 		final double[] expectedK = MatlabUtil.getVariable(double[].class, "K");
 
 		// Calculation of the output from Java
-		Parallel.startPool();
 		final double[] actualK = RipleyK.ripleyKAlpha(x, r, roi, alpha);
-		Parallel.shutdownPool();
 		// Test assertions
 		assertArrayEquals(
 			expectedK,